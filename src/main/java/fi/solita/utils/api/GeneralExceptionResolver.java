@@ -1,8 +1,10 @@
 package fi.solita.utils.api;
 
+import static fi.solita.utils.functional.Collections.newList;
 import static fi.solita.utils.functional.Functional.map;
 import static fi.solita.utils.functional.Functional.mkString;
 
+import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 
 import org.springframework.core.Ordered;
@@ -11,10 +13,12 @@ import org.springframework.web.servlet.ModelAndView;
 import fi.solita.utils.api.filtering.FilterParser;
 import fi.solita.utils.api.filtering.Filtering;
 import fi.solita.utils.api.format.ChartConversionService;
+import fi.solita.utils.api.format.RenderPool;
 import fi.solita.utils.api.functions.FunctionProvider;
 import fi.solita.utils.api.resolving.ResolvableMemberProvider;
 import fi.solita.utils.api.types.PropertyName_;
 import fi.solita.utils.api.util.ExceptionUtils;
+import fi.solita.utils.api.util.Headers;
 import fi.solita.utils.api.util.MemberUtil;
 import fi.solita.utils.api.util.RedundantPropertiesException;
 import fi.solita.utils.api.util.RequestUtil;
@@ -28,6 +32,26 @@ public abstract class GeneralExceptionResolver<REQ,RESP> implements Ordered {
     protected abstract void respondError(RESP response, int status, String message);
     
     protected abstract ETags getETags(REQ request);
+    
+    /**
+     * Sets a header of an error response. By default sets it to a javax or jakarta servlet response,
+     * and ignores other kinds of responses. Override for those.
+     */
+    protected void setHeader(RESP response, String name, String value) {
+        for (String servletResponse: newList("jakarta.servlet.http.HttpServletResponse", "javax.servlet.http.HttpServletResponse")) {
+            try {
+                Class<?> c = Class.forName(servletResponse);
+                if (c.isInstance(response)) {
+                    c.getMethod("setHeader", String.class, String.class).invoke(response, name, value);
+                    return;
+                }
+            } catch (ClassNotFoundException e) {
+                // this servlet api is not in use
+            } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
 
     /**
      * @param handler  
@@ -128,6 +152,12 @@ public abstract class GeneralExceptionResolver<REQ,RESP> implements Ordered {
             return new ModelAndView();
         }
         
+        for (RenderPool.RenderingUnavailableException e: ExceptionUtils.findCauseFromHierarchy(ex, RenderPool.RenderingUnavailableException.class)) {
+            setHeader(response, Headers.RETRY_AFTER, Integer.toString(e.retryAfterSeconds));
+            respondError(response, 503, "Service busy. Retry after " + e.retryAfterSeconds + " seconds");
+            return new ModelAndView();
+        }
+        
         for (FilterParser.IllegalPointException e: ExceptionUtils.findCauseFromHierarchy(ex, FilterParser.IllegalPointException.class)) {
             respondError(response, 400, "Illegal coordinate in filtering: " + e.point);
             return new ModelAndView();
@@ -3,6 +3,7 @@ package fi.solita.utils.api;
 import static fi.solita.utils.api.util.ModificationUtils.excluding;
 import static fi.solita.utils.functional.Collections.emptyMap;
 import static fi.solita.utils.functional.Collections.newList;
+import static fi.solita.utils.functional.Collections.newMutableMap;
 import static fi.solita.utils.functional.Functional.concat;
 import static fi.solita.utils.functional.Functional.cons;
 import static fi.solita.utils.functional.Functional.flatten;
@@ -21,6 +22,7 @@ import fi.solita.utils.api.format.ChartConversionService;
 import fi.solita.utils.api.format.CountConversionService;
 import fi.solita.utils.api.format.CsvConversionService;
 import fi.solita.utils.api.format.ExcelConversionService;
+import fi.solita.utils.api.format.FeatureCollectionWriter;
 import fi.solita.utils.api.format.HtmlConversionService;
 import fi.solita.utils.api.format.HtmlConversionService.HtmlTitle;
 import fi.solita.utils.api.format.JsonConversionService;
@@ -28,6 +30,7 @@ import fi.solita.utils.api.format.JsonLinesConversionService;
 import fi.solita.utils.api.format.PngConversionService;
 import fi.solita.utils.api.format.SerializationFormat;
 import fi.solita.utils.api.format.TsvConversionService;
+import fi.solita.utils.api.format.geojson.CoordinatePrecision;
 import fi.solita.utils.api.format.geojson.Crs;
 import fi.solita.utils.api.format.geojson.Feature;
 import fi.solita.utils.api.format.geojson.FeatureCollection;
@@ -37,6 +40,7 @@ import fi.solita.utils.api.format.geojson.GeometryObject;
 import fi.solita.utils.api.resolving.GeojsonResolver;
 import fi.solita.utils.api.types.SRSName;
 import fi.solita.utils.api.util.ServletRequestUtil.Request;
+import fi.solita.utils.api.util.StreamingOutput;
 import fi.solita.utils.api.util.UnavailableContentTypeException;
 import fi.solita.utils.functional.Apply;
 import fi.solita.utils.functional.Apply3;
@@ -128,6 +132,21 @@ public abstract class StdSerialization<BOUNDS> {
         return stdSpatialBoundedMap(req, bbox, srsName, format, includes, data, dataTransformer, title, key, excluding(geometryLens), geojsonFromDto(geometryLens, toGeojson), Feature_.$1);
     }
     
+    public <DTO, KEY, SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialBoundedMapStreaming(
+            Request req,
+            BOUNDS bbox,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<Map<KEY, Iterable<DTO>>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            MetaNamedMember<? super DTO, KEY> key,
+            Lens<? super DTO, SPATIAL> geometryLens,
+            Apply<? super SPATIAL, Option<GeometryObject>> toGeojson) {
+        return stdSpatialBoundedMapStreaming(req, bbox, srsName, format, includes, data, dataTransformer, title, key, excluding(geometryLens), geojsonFromDto(geometryLens, toGeojson), Feature_.$1);
+    }
+    
     public <DTO, KEY, SPATIAL> Pair<byte[],Map<String,String>> stdSpatialBoundedMap(
             Request req,
             BOUNDS bbox,
@@ -140,45 +159,65 @@ public abstract class StdSerialization<BOUNDS> {
             Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
             Apply<? super DTO, ? extends SPATIAL> toGeojson,
             Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdSpatialBoundedMapStreaming(req, bbox, srsName, format, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature));
+    }
+    
+    public <DTO, KEY, SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialBoundedMapStreaming(
+            Request req,
+            BOUNDS bbox,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<Map<KEY, Iterable<DTO>>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
         case JSON:
-            response = Pair.of(json.serialize(mapValues(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(json.serializeStreaming(mapValues(dataTransformer, data.get())), emptyMap());
             break;
         case GEOJSON:
             Map<KEY, Iterable<DTO>> d = data.get();
             Collection<FeatureObject> resolvables = geojsonResolver.getResolvedFeatures(flatten(d.values()), includes);
-            response = Pair.of(geoJson.serialize(new FeatureCollection(
+            response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                     concat(map(toFeature, map(
                             toGeojson,
                             geojsonPropertyTransformer,
                             Function.constant(Option.<Crs>None()),
-                            flatten(mapValues(dataTransformer, d).values()))), resolvables),
-                    Some(Crs.of(srsName)))), emptyMap());
+                            map(dataTransformer, flatten(d.values())))), resolvables),
+                    Some(Crs.of(srsName)), coordinateDecimals(req, srsName)), emptyMap());
             break;
         case JSONL:
-            response = Pair.of(jsonlines.serialize(mapValues(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(jsonlines.serializeStreaming(mapValues(dataTransformer, data.get())), emptyMap());
             break;
         case HTML:
-            response = Pair.of(html.serialize(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
+            response = Pair.of(html.serializeStreaming(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
             break;
         case CSV:
-            response = csv.serialize(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = csv.serializeStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case TSV:
-            response = tsv.serialize(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = tsv.serializeStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case XLSX:
-            response = excel.serialize(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = excel.serializeStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case PNG:
-            response = Pair.of(png.render(getRequestUri(req), getRequestApiKey(req), Some(bounds2envelope(bbox)), title2layerName(title.plainTextTitle)), emptyMap());
+            response = Pair.of(StreamingOutput.of(renderPng(req, Some(bounds2envelope(bbox)), title, new ApplyZero<StreamingOutput>() {
+                @Override
+                public StreamingOutput get() {
+                    return stdSpatialBoundedMapStreaming(req, bbox, srsName, SerializationFormat.GEOJSON, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature).left();
+                }
+            })), emptyMap());
             break;
         case COUNT:
-            response = Pair.of(count.serialize(data.get()), emptyMap());
+            response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
             break;
         case CHART:
-            response = Pair.of(chart.serialize(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
+            response = Pair.of(chart.serializeStreaming(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
             break;
         case PDF:
         case GML:
@@ -192,10 +231,114 @@ public abstract class StdSerialization<BOUNDS> {
         return response;
     }
     
+    /**
+     * Rounding for GeoJSON coordinates. Override to change the defaults.
+     */
+    protected CoordinatePrecision coordinatePrecision() {
+        return CoordinatePrecision.DEFAULT;
+    }
+    
+    /**
+     * @return number of decimals for GeoJSON coordinates, from the optional request parameter or from {@link #coordinatePrecision()}.
+     */
+    protected Option<Integer> coordinateDecimals(Request req, SRSName srsName) {
+        String[] param = req.getParameterMap().get(CoordinatePrecision.PARAMETER);
+        return coordinatePrecision().decimals(srsName, param != null && param.length > 0 ? Some(param[0]) : Option.<String>None());
+    }
+    
+    private Map<Object,Object> coordinateAttributes(Request req, SRSName srsName) {
+        Map<Object,Object> ret = newMutableMap();
+        for (Integer decimals: coordinateDecimals(req, srsName)) {
+            ret.put(CoordinatePrecision.ATTRIBUTE, decimals);
+        }
+        return ret;
+    }
+    
     protected abstract String getRequestUri(Request req);
     
     protected abstract Option<String> getRequestApiKey(Request req);
 
+    /**
+     * Whether to render PNG images from the data at hand instead of fetching the GeoJSON counterpart over HTTP.
+     *
+     * By default images are rendered in-process, except tiles whose data is given only for the bbox of the request,
+     * since tiles need features also from a buffer around the tile. Override to return true for those if the data
+     * already covers {@link PngConversionService#withTileBuffer(ReferencedEnvelope)}, or to return false to always use HTTP.
+     *
+     * @param bounded whether the image is rendered for a bbox.
+     * @param anyArea whether the data is given for any area, instead of only for the bbox of the request.
+     */
+    protected boolean renderPngInProcess(Request req, boolean bounded, boolean anyArea) {
+        return !bounded || anyArea;
+    }
+
+    private byte[] renderPng(Request req, Option<ReferencedEnvelope> bounds, HtmlTitle title, ApplyZero<StreamingOutput> geojson) {
+        String layerName = title2layerName(title.plainTextTitle);
+        if (renderPngInProcess(req, bounds.isDefined(), false)) {
+            return png.render(getRequestUri(req), bounds, layerName, geojson);
+        }
+        return png.render(getRequestUri(req), getRequestApiKey(req), bounds, layerName);
+    }
+
+    private byte[] renderPng(Request req, ReferencedEnvelope bounds, HtmlTitle title, Apply<ReferencedEnvelope,StreamingOutput> geojson) {
+        String layerName = title2layerName(title.plainTextTitle);
+        if (renderPngInProcess(req, true, true)) {
+            return png.render(getRequestUri(req), bounds, layerName, geojson);
+        }
+        return png.render(getRequestUri(req), getRequestApiKey(req), Some(bounds), layerName);
+    }
+    
+    private static <T> ApplyZero<T> within(final Apply<ReferencedEnvelope,T> data, final ReferencedEnvelope area) {
+        return new ApplyZero<T>() {
+            @Override
+            public T get() {
+                return data.apply(area);
+            }
+        };
+    }
+
+    public <DTO, KEY, SPATIAL> Pair<byte[],Map<String,String>> stdSpatialBoundedMap(
+            Request req,
+            BOUNDS bbox,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            Apply<ReferencedEnvelope, Map<KEY, Iterable<DTO>>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        return StreamingOutput.materialize(stdSpatialBoundedMapStreaming(req, bbox, srsName, format, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature));
+    }
+    
+    /**
+     * @param data data within the given area. Called with the bbox of the request, except for PNG tiles which
+     *             are rendered in-process from the data within their buffered area, or within their whole metatile.
+     */
+    public <DTO, KEY, SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialBoundedMapStreaming(
+            final Request req,
+            final BOUNDS bbox,
+            final SRSName srsName,
+            SerializationFormat format,
+            final Includes<DTO> includes,
+            final Apply<ReferencedEnvelope, Map<KEY, Iterable<DTO>>> data,
+            final Apply<DTO,DTO> dataTransformer,
+            final HtmlTitle title,
+            final Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            final Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            final Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        if (format == SerializationFormat.PNG) {
+            return Pair.of(StreamingOutput.of(renderPng(req, bounds2envelope(bbox), title, new Apply<ReferencedEnvelope,StreamingOutput>() {
+                @Override
+                public StreamingOutput apply(ReferencedEnvelope area) {
+                    return stdSpatialBoundedMapStreaming(req, bbox, srsName, SerializationFormat.GEOJSON, includes, within(data, area), dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature).left();
+                }
+            })), emptyMap());
+        }
+        return stdSpatialBoundedMapStreaming(req, bbox, srsName, format, includes, within(data, bounds2envelope(bbox)), dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature);
+    }
+    
     public <DTO, KEY, SPATIAL> Pair<byte[],Map<String,String>> stdSpatialBoundedMap(
             Request req,
             BOUNDS bbox,
@@ -209,45 +352,66 @@ public abstract class StdSerialization<BOUNDS> {
             Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
             Apply<? super DTO, ? extends SPATIAL> toGeojson,
             Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdSpatialBoundedMapStreaming(req, bbox, srsName, format, includes, data, dataTransformer, title, key, geojsonPropertyTransformer, toGeojson, toFeature));
+    }
+    
+    public <DTO, KEY, SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialBoundedMapStreaming(
+            Request req,
+            BOUNDS bbox,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<Map<KEY, Iterable<DTO>>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            MetaNamedMember<? super DTO, KEY> key,
+            Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
         case JSON:
-            response = Pair.of(json.serialize(mapValues(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(json.serializeStreaming(mapValues(dataTransformer, data.get())), emptyMap());
             break;
         case GEOJSON:
             Map<KEY, Iterable<DTO>> d = data.get();
             Collection<FeatureObject> resolvables = geojsonResolver.getResolvedFeatures(flatten(d.values()), includes);
-            response = Pair.of(geoJson.serialize(new FeatureCollection(
+            response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                     concat(map(toFeature, map(
                             toGeojson,
                             geojsonPropertyTransformer,
                             Function.constant(Option.<Crs>None()),
-                            flatten(mapValues(dataTransformer, d).values()))), resolvables),
-                    Some(Crs.of(srsName)))), emptyMap());
+                            map(dataTransformer, flatten(d.values())))), resolvables),
+                    Some(Crs.of(srsName)), coordinateDecimals(req, srsName)), emptyMap());
             break;
         case JSONL:
-            response = Pair.of(jsonlines.serialize(mapValues(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(jsonlines.serializeStreaming(mapValues(dataTransformer, data.get())), emptyMap());
             break;
         case HTML:
-            response = Pair.of(html.serializeWithKey(req, title, mapValues(dataTransformer, data.get()), includes, key), emptyMap());
+            response = Pair.of(html.serializeWithKeyStreaming(req, title, mapValues(dataTransformer, data.get()), includes, key), emptyMap());
             break;
         case CSV:
-            response = csv.serializeWithKey(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
+            response = csv.serializeWithKeyStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
             break;
         case TSV:
-            response = tsv.serializeWithKey(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
+            response = tsv.serializeWithKeyStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
             break;
         case XLSX:
-            response = excel.serializeWithKey(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
+            response = excel.serializeWithKeyStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
             break;
         case PNG:
-            response = Pair.of(png.render(getRequestUri(req), getRequestApiKey(req), Some(bounds2envelope(bbox)), title2layerName(title.plainTextTitle)), emptyMap());
+            response = Pair.of(StreamingOutput.of(renderPng(req, Some(bounds2envelope(bbox)), title, new ApplyZero<StreamingOutput>() {
+                @Override
+                public StreamingOutput get() {
+                    return stdSpatialBoundedMapStreaming(req, bbox, srsName, SerializationFormat.GEOJSON, includes, data, dataTransformer, title, key, geojsonPropertyTransformer, toGeojson, toFeature).left();
+                }
+            })), emptyMap());
             break;
         case COUNT:
-            response = Pair.of(count.serialize(data.get()), emptyMap());
+            response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
             break;
         case CHART:
-            response = Pair.of(chart.serialize(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
+            response = Pair.of(chart.serializeStreaming(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
             break;
         case PDF:
         case GML:
@@ -261,6 +425,50 @@ public abstract class StdSerialization<BOUNDS> {
         return response;
     }
     
+    public <DTO, KEY, SPATIAL> Pair<byte[],Map<String,String>> stdSpatialBoundedMap(
+            Request req,
+            BOUNDS bbox,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            Apply<ReferencedEnvelope, Map<KEY, Iterable<DTO>>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            MetaNamedMember<? super DTO, KEY> key,
+            Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        return StreamingOutput.materialize(stdSpatialBoundedMapStreaming(req, bbox, srsName, format, includes, data, dataTransformer, title, key, geojsonPropertyTransformer, toGeojson, toFeature));
+    }
+    
+    /**
+     * @param data data within the given area. Called with the bbox of the request, except for PNG tiles which
+     *             are rendered in-process from the data within their buffered area, or within their whole metatile.
+     */
+    public <DTO, KEY, SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialBoundedMapStreaming(
+            final Request req,
+            final BOUNDS bbox,
+            final SRSName srsName,
+            SerializationFormat format,
+            final Includes<DTO> includes,
+            final Apply<ReferencedEnvelope, Map<KEY, Iterable<DTO>>> data,
+            final Apply<DTO,DTO> dataTransformer,
+            final HtmlTitle title,
+            final MetaNamedMember<? super DTO, KEY> key,
+            final Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            final Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            final Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        if (format == SerializationFormat.PNG) {
+            return Pair.of(StreamingOutput.of(renderPng(req, bounds2envelope(bbox), title, new Apply<ReferencedEnvelope,StreamingOutput>() {
+                @Override
+                public StreamingOutput apply(ReferencedEnvelope area) {
+                    return stdSpatialBoundedMapStreaming(req, bbox, srsName, SerializationFormat.GEOJSON, includes, within(data, area), dataTransformer, title, key, geojsonPropertyTransformer, toGeojson, toFeature).left();
+                }
+            })), emptyMap());
+        }
+        return stdSpatialBoundedMapStreaming(req, bbox, srsName, format, includes, within(data, bounds2envelope(bbox)), dataTransformer, title, key, geojsonPropertyTransformer, toGeojson, toFeature);
+    }
+    
     public <DTO, KEY, SPATIAL> Pair<byte[],Map<String,String>> stdSpatialBoundedMapSingle(
         Request req,
         BOUNDS bbox,
@@ -273,45 +481,65 @@ public abstract class StdSerialization<BOUNDS> {
         Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
         Apply<? super DTO, ? extends SPATIAL> toGeojson,
         Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
-    Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdSpatialBoundedMapSingleStreaming(req, bbox, srsName, format, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature));
+    }
+    
+    public <DTO, KEY, SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialBoundedMapSingleStreaming(
+        Request req,
+        BOUNDS bbox,
+        SRSName srsName,
+        SerializationFormat format,
+        Includes<DTO> includes,
+        ApplyZero<Map<KEY, DTO>> data,
+        Apply<DTO,DTO> dataTransformer,
+        HtmlTitle title,
+        Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+        Apply<? super DTO, ? extends SPATIAL> toGeojson,
+        Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+    Pair<StreamingOutput,Map<String,String>> response;
     switch (format) {
     case JSON:
-        response = Pair.of(json.serialize(mapValue(dataTransformer, data.get())), emptyMap());
+        response = Pair.of(json.serializeStreaming(mapValue(dataTransformer, data.get())), emptyMap());
         break;
     case GEOJSON:
         Map<KEY, DTO> d = data.get();
         Collection<FeatureObject> resolvables = geojsonResolver.getResolvedFeatures(d.values(), includes);
-        response = Pair.of(geoJson.serialize(new FeatureCollection(
+        response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                 concat(map(toFeature, map(
                         toGeojson,
                         geojsonPropertyTransformer,
                         Function.constant(Option.<Crs>None()),
-                        mapValue(dataTransformer, d).values())), resolvables),
-                Some(Crs.of(srsName)))), emptyMap());
+                        map(dataTransformer, d.values()))), resolvables),
+                Some(Crs.of(srsName)), coordinateDecimals(req, srsName)), emptyMap());
         break;
     case JSONL:
-        response = Pair.of(jsonlines.serialize(mapValue(dataTransformer, data.get())), emptyMap());
+        response = Pair.of(jsonlines.serializeStreaming(mapValue(dataTransformer, data.get())), emptyMap());
         break;
     case HTML:
-        response = Pair.of(html.serializeSingle(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
+        response = Pair.of(html.serializeSingleStreaming(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
         break;
     case CSV:
-        response = csv.serializeSingle(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+        response = csv.serializeSingleStreaming(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
         break;
     case TSV:
-        response = tsv.serializeSingle(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+        response = tsv.serializeSingleStreaming(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
         break;
     case XLSX:
-        response = excel.serializeSingle(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+        response = excel.serializeSingleStreaming(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
         break;
     case PNG:
-        response = Pair.of(png.render(getRequestUri(req), getRequestApiKey(req), Some(bounds2envelope(bbox)), title2layerName(title.plainTextTitle)), emptyMap());
+        response = Pair.of(StreamingOutput.of(renderPng(req, Some(bounds2envelope(bbox)), title, new ApplyZero<StreamingOutput>() {
+            @Override
+            public StreamingOutput get() {
+                return stdSpatialBoundedMapSingleStreaming(req, bbox, srsName, SerializationFormat.GEOJSON, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature).left();
+            }
+        })), emptyMap());
         break;
     case COUNT:
-        response = Pair.of(count.serialize(data.get()), emptyMap());
+        response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
         break;
     case CHART:
-        response = Pair.of(chart.serializeSingle(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
+        response = Pair.of(chart.serializeSingleStreaming(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
         break;
     case PDF:
     case GML:
@@ -325,6 +553,48 @@ public abstract class StdSerialization<BOUNDS> {
     return response;
 }
     
+    public <DTO, KEY, SPATIAL> Pair<byte[],Map<String,String>> stdSpatialBoundedMapSingle(
+            Request req,
+            BOUNDS bbox,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            Apply<ReferencedEnvelope, Map<KEY, DTO>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        return StreamingOutput.materialize(stdSpatialBoundedMapSingleStreaming(req, bbox, srsName, format, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature));
+    }
+    
+    /**
+     * @param data data within the given area. Called with the bbox of the request, except for PNG tiles which
+     *             are rendered in-process from the data within their buffered area, or within their whole metatile.
+     */
+    public <DTO, KEY, SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialBoundedMapSingleStreaming(
+            final Request req,
+            final BOUNDS bbox,
+            final SRSName srsName,
+            SerializationFormat format,
+            final Includes<DTO> includes,
+            final Apply<ReferencedEnvelope, Map<KEY, DTO>> data,
+            final Apply<DTO,DTO> dataTransformer,
+            final HtmlTitle title,
+            final Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            final Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            final Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        if (format == SerializationFormat.PNG) {
+            return Pair.of(StreamingOutput.of(renderPng(req, bounds2envelope(bbox), title, new Apply<ReferencedEnvelope,StreamingOutput>() {
+                @Override
+                public StreamingOutput apply(ReferencedEnvelope area) {
+                    return stdSpatialBoundedMapSingleStreaming(req, bbox, srsName, SerializationFormat.GEOJSON, includes, within(data, area), dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature).left();
+                }
+            })), emptyMap());
+        }
+        return stdSpatialBoundedMapSingleStreaming(req, bbox, srsName, format, includes, within(data, bounds2envelope(bbox)), dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature);
+    }
+    
     public <DTO, KEY, SPATIAL> Pair<byte[],Map<String,String>> stdSpatialMapSingle(
             Request req,
             SRSName srsName,
@@ -336,45 +606,64 @@ public abstract class StdSerialization<BOUNDS> {
             Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
             Apply<? super DTO, ? extends SPATIAL> toGeojson,
             Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdSpatialMapSingleStreaming(req, srsName, format, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature));
+    }
+    
+    public <DTO, KEY, SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialMapSingleStreaming(
+            Request req,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<Map<KEY, DTO>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
         case JSON:
-            response = Pair.of(json.serialize(mapValue(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(json.serializeStreaming(mapValue(dataTransformer, data.get())), emptyMap());
             break;
         case GEOJSON:
             Map<KEY, DTO> d = data.get();
             Collection<FeatureObject> resolvables = geojsonResolver.getResolvedFeatures(d.values(), includes);
-            response = Pair.of(geoJson.serialize(new FeatureCollection(
+            response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                     concat(map(toFeature, map(
                             toGeojson,
                             geojsonPropertyTransformer,
                             Function.constant(Option.<Crs>None()),
-                            mapValue(dataTransformer, d).values())), resolvables),
-                    Some(Crs.of(srsName)))), emptyMap());
+                            map(dataTransformer, d.values()))), resolvables),
+                    Some(Crs.of(srsName)), coordinateDecimals(req, srsName)), emptyMap());
             break;
         case JSONL:
-            response = Pair.of(jsonlines.serialize(mapValue(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(jsonlines.serializeStreaming(mapValue(dataTransformer, data.get())), emptyMap());
             break;
         case HTML:
-            response = Pair.of(html.serializeSingle(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
+            response = Pair.of(html.serializeSingleStreaming(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
             break;
         case CSV:
-            response = csv.serializeSingle(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = csv.serializeSingleStreaming(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case TSV:
-            response = tsv.serializeSingle(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = tsv.serializeSingleStreaming(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case XLSX:
-            response = excel.serializeSingle(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = excel.serializeSingleStreaming(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case PNG:
-            response = Pair.of(png.render(getRequestUri(req), getRequestApiKey(req), None(), title2layerName(title.plainTextTitle)), emptyMap());
+            response = Pair.of(StreamingOutput.of(renderPng(req, None(), title, new ApplyZero<StreamingOutput>() {
+                @Override
+                public StreamingOutput get() {
+                    return stdSpatialMapSingleStreaming(req, srsName, SerializationFormat.GEOJSON, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature).left();
+                }
+            })), emptyMap());
             break;
         case COUNT:
-            response = Pair.of(count.serialize(data.get()), emptyMap());
+            response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
             break;
         case CHART:
-            response = Pair.of(chart.serializeSingle(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
+            response = Pair.of(chart.serializeSingleStreaming(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
             break;
         case PDF:
         case GML:
@@ -402,6 +691,20 @@ public abstract class StdSerialization<BOUNDS> {
         return stdSpatialBoundedCollection(req, bbox, srsName, format, includes, data, dataTransformer, title, excluding(geometryLens), geojsonFromDto(geometryLens, toGeojson), Feature_.$1);
     }
     
+    public <DTO, KEY, SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialBoundedCollectionStreaming(
+            Request req,
+            BOUNDS bbox,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<? extends Iterable<DTO>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Lens<? super DTO, SPATIAL> geometryLens,
+            Apply<? super SPATIAL, Option<GeometryObject>> toGeojson) {
+        return stdSpatialBoundedCollectionStreaming(req, bbox, srsName, format, includes, data, dataTransformer, title, excluding(geometryLens), geojsonFromDto(geometryLens, toGeojson), Feature_.$1);
+    }
+    
     public <DTO, KEY, SPATIAL> Pair<byte[],Map<String,String>> stdSpatialBoundedCollection(
             Request req,
             BOUNDS bbox,
@@ -414,45 +717,65 @@ public abstract class StdSerialization<BOUNDS> {
             Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
             Apply<? super DTO, ? extends SPATIAL> toGeojson,
             Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdSpatialBoundedCollectionStreaming(req, bbox, srsName, format, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature));
+    }
+    
+    public <DTO, KEY, SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialBoundedCollectionStreaming(
+            Request req,
+            BOUNDS bbox,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<? extends Iterable<DTO>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
         case JSON:
-            response = Pair.of(json.serialize(map(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(json.serializeStreaming(map(dataTransformer, data.get())), emptyMap());
             break;
         case GEOJSON:
             Iterable<DTO> d = data.get();
             Collection<FeatureObject> resolvables = geojsonResolver.getResolvedFeatures(d, includes);
-            response = Pair.of(geoJson.serialize(new FeatureCollection(
+            response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                     concat(map(toFeature, map(
                             toGeojson,
                             geojsonPropertyTransformer,
                             Function.constant(Option.<Crs>None()),
                             map(dataTransformer, d))), resolvables),
-                    Some(Crs.of(srsName)))), emptyMap());
+                    Some(Crs.of(srsName)), coordinateDecimals(req, srsName)), emptyMap());
             break;
         case JSONL:
-            response = Pair.of(jsonlines.serialize(map(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(jsonlines.serializeStreaming(map(dataTransformer, data.get())), emptyMap());
             break;
         case HTML:
-            response = Pair.of(html.serialize(req, title, newList(map(dataTransformer, data.get())), includes), emptyMap());
+            response = Pair.of(html.serializeStreaming(req, title, map(dataTransformer, data.get()), includes), emptyMap());
             break;
         case CSV:
-            response = csv.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes.includesFromColumnFiltering);
+            response = csv.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case TSV:
-            response = tsv.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes.includesFromColumnFiltering);
+            response = tsv.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case XLSX:
-            response = excel.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes.includesFromColumnFiltering);
+            response = excel.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case PNG:
-            response = Pair.of(png.render(getRequestUri(req), getRequestApiKey(req), Some(bounds2envelope(bbox)), title2layerName(title.plainTextTitle)), emptyMap());
+            response = Pair.of(StreamingOutput.of(renderPng(req, Some(bounds2envelope(bbox)), title, new ApplyZero<StreamingOutput>() {
+                @Override
+                public StreamingOutput get() {
+                    return stdSpatialBoundedCollectionStreaming(req, bbox, srsName, SerializationFormat.GEOJSON, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature).left();
+                }
+            })), emptyMap());
             break;
         case COUNT:
-            response = Pair.of(count.serialize(data.get()), emptyMap());
+            response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
             break;
         case CHART:
-            response = Pair.of(chart.serialize(req, title, newList(map(dataTransformer, data.get())), includes), emptyMap());
+            response = Pair.of(chart.serializeStreaming(req, title, map(dataTransformer, data.get()), includes), emptyMap());
             break;
         case PDF:
         case GML:
@@ -466,6 +789,48 @@ public abstract class StdSerialization<BOUNDS> {
         return response;
     }
     
+    public <DTO, KEY, SPATIAL> Pair<byte[],Map<String,String>> stdSpatialBoundedCollection(
+            Request req,
+            BOUNDS bbox,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            Apply<ReferencedEnvelope, ? extends Iterable<DTO>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        return StreamingOutput.materialize(stdSpatialBoundedCollectionStreaming(req, bbox, srsName, format, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature));
+    }
+    
+    /**
+     * @param data data within the given area. Called with the bbox of the request, except for PNG tiles which
+     *             are rendered in-process from the data within their buffered area, or within their whole metatile.
+     */
+    public <DTO, KEY, SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialBoundedCollectionStreaming(
+            final Request req,
+            final BOUNDS bbox,
+            final SRSName srsName,
+            SerializationFormat format,
+            final Includes<DTO> includes,
+            final Apply<ReferencedEnvelope, ? extends Iterable<DTO>> data,
+            final Apply<DTO,DTO> dataTransformer,
+            final HtmlTitle title,
+            final Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            final Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            final Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        if (format == SerializationFormat.PNG) {
+            return Pair.of(StreamingOutput.of(renderPng(req, bounds2envelope(bbox), title, new Apply<ReferencedEnvelope,StreamingOutput>() {
+                @Override
+                public StreamingOutput apply(ReferencedEnvelope area) {
+                    return stdSpatialBoundedCollectionStreaming(req, bbox, srsName, SerializationFormat.GEOJSON, includes, within(data, area), dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature).left();
+                }
+            })), emptyMap());
+        }
+        return stdSpatialBoundedCollectionStreaming(req, bbox, srsName, format, includes, within(data, bounds2envelope(bbox)), dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature);
+    }
+    
     public <DTO,KEY,SPATIAL> Pair<byte[],Map<String,String>> stdSpatialCollection(
             Request req,
             SRSName srsName,
@@ -478,6 +843,19 @@ public abstract class StdSerialization<BOUNDS> {
             Apply<? super SPATIAL, Option<GeometryObject>> toGeojson) {
         return stdSpatialCollection(req, srsName, format, includes, data, dataTransformer, title, excluding(geometryLens), geojsonFromDto(geometryLens, toGeojson), Feature_.$1);
     }
+    
+    public <DTO,KEY,SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialCollectionStreaming(
+            Request req,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<? extends Iterable<DTO>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Lens<? super DTO, SPATIAL> geometryLens,
+            Apply<? super SPATIAL, Option<GeometryObject>> toGeojson) {
+        return stdSpatialCollectionStreaming(req, srsName, format, includes, data, dataTransformer, title, excluding(geometryLens), geojsonFromDto(geometryLens, toGeojson), Feature_.$1);
+    }
 
     public <DTO,KEY,SPATIAL> Pair<byte[],Map<String,String>> stdSpatialCollection(
             Request req,
@@ -490,45 +868,64 @@ public abstract class StdSerialization<BOUNDS> {
             Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
             Apply<? super DTO, ? extends SPATIAL> toGeojson,
             Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdSpatialCollectionStreaming(req, srsName, format, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature));
+    }
+    
+    public <DTO,KEY,SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialCollectionStreaming(
+            Request req,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<? extends Iterable<DTO>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
             case JSON:
-                response = Pair.of(json.serialize(map(dataTransformer, data.get())), emptyMap());
+                response = Pair.of(json.serializeStreaming(map(dataTransformer, data.get())), emptyMap());
                 break;
             case GEOJSON:
                 Iterable<DTO> d = data.get();
                 Collection<FeatureObject> resolvables = geojsonResolver.getResolvedFeatures(d, includes);
-                response = Pair.of(geoJson.serialize(new FeatureCollection(
+                response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                     concat(map(toFeature, map(
                             toGeojson,
                             geojsonPropertyTransformer,
                             Function.constant(Option.<Crs>None()),
                             map(dataTransformer, d))), resolvables),
-                    Some(Crs.of(srsName)))), emptyMap());
+                    Some(Crs.of(srsName)), coordinateDecimals(req, srsName)), emptyMap());
                 break;
             case JSONL:
-                response = Pair.of(jsonlines.serialize(map(dataTransformer, data.get())), emptyMap());
+                response = Pair.of(jsonlines.serializeStreaming(map(dataTransformer, data.get())), emptyMap());
                 break;
             case HTML:
-                response = Pair.of(html.serialize(req, title, newList(map(dataTransformer, data.get())), includes), emptyMap());
+                response = Pair.of(html.serializeStreaming(req, title, map(dataTransformer, data.get()), includes), emptyMap());
                 break;
             case CSV:
-                response = csv.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes.includesFromColumnFiltering);
+                response = csv.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes.includesFromColumnFiltering);
                 break;
             case TSV:
-                response = tsv.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes.includesFromColumnFiltering);
+                response = tsv.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes.includesFromColumnFiltering);
                 break;
             case XLSX:
-                response = excel.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes.includesFromColumnFiltering);
+                response = excel.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes.includesFromColumnFiltering);
                 break;
             case PNG:
-                response = Pair.of(png.render(getRequestUri(req), getRequestApiKey(req), None(), title2layerName(title.plainTextTitle)), emptyMap());
+                response = Pair.of(StreamingOutput.of(renderPng(req, None(), title, new ApplyZero<StreamingOutput>() {
+                    @Override
+                    public StreamingOutput get() {
+                        return stdSpatialCollectionStreaming(req, srsName, SerializationFormat.GEOJSON, includes, data, dataTransformer, title, geojsonPropertyTransformer, toGeojson, toFeature).left();
+                    }
+                })), emptyMap());
                 break;
             case COUNT:
-                response = Pair.of(count.serialize(data.get()), emptyMap());
+                response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
                 break;
             case CHART:
-                response = Pair.of(chart.serialize(req, title, newList(map(dataTransformer, data.get())), includes), emptyMap());
+                response = Pair.of(chart.serializeStreaming(req, title, map(dataTransformer, data.get()), includes), emptyMap());
                 break;
             case PDF:
             case GML:
@@ -555,6 +952,19 @@ public abstract class StdSerialization<BOUNDS> {
         return stdSpatialSingle(req, srsName, format, includes, data, dataTransformer, title, excluding(geometryLens), geojsonFromDto(geometryLens, toGeojson), Feature_.$1);
     }
     
+    public <DTO,KEY,SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialSingleStreaming(
+            Request req,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<DTO> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Lens<? super DTO, SPATIAL> geometryLens,
+            Apply<? super SPATIAL, Option<GeometryObject>> toGeojson) {
+        return stdSpatialSingleStreaming(req, srsName, format, includes, data, dataTransformer, title, excluding(geometryLens), geojsonFromDto(geometryLens, toGeojson), Feature_.$1);
+    }
+    
     public <DTO,KEY,SPATIAL> Pair<byte[],Map<String,String>> stdSpatialSingle(
             Request req,
             SRSName srsName,
@@ -577,6 +987,28 @@ public abstract class StdSerialization<BOUNDS> {
         });
     }
     
+    public <DTO,KEY,SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialSingleStreaming(
+            Request req,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<DTO> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Apply<? super DTO, ? super DTO> geojsonPropertyTransformer,
+            Apply<? super DTO, ? extends SPATIAL> toGeojson,
+            Apply3<SPATIAL, Object, Option<Crs>, Feature> toFeature) {
+        return stdSpatialSingleStreaming(req, srsName, format, includes, data, dataTransformer, title, new Apply<DTO, FeatureObject>() {
+            @Override
+            public FeatureObject apply(DTO d) {
+                return toFeature.apply(
+                        toGeojson.apply(d),
+                        geojsonPropertyTransformer.apply(d),
+                    Some(Crs.of(srsName)));
+            }
+        });
+    }
+    
     public <DTO,KEY,SPATIAL> Pair<byte[],Map<String,String>> stdSpatialSingle(
             Request req,
             SRSName srsName,
@@ -586,10 +1018,22 @@ public abstract class StdSerialization<BOUNDS> {
             Apply<DTO,DTO> dataTransformer,
             HtmlTitle title,
             Apply<DTO, FeatureObject> toFeatures) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdSpatialSingleStreaming(req, srsName, format, includes, data, dataTransformer, title, toFeatures));
+    }
+    
+    public <DTO,KEY,SPATIAL> Pair<StreamingOutput,Map<String,String>> stdSpatialSingleStreaming(
+            Request req,
+            SRSName srsName,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<DTO> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            Apply<DTO, FeatureObject> toFeatures) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
             case JSON:
-                response = Pair.of(json.serialize(dataTransformer.apply(data.get())), emptyMap());
+                response = Pair.of(json.serializeStreaming(dataTransformer.apply(data.get())), emptyMap());
                 break;
             case GEOJSON:
                 DTO d = data.get();
@@ -597,38 +1041,41 @@ public abstract class StdSerialization<BOUNDS> {
                 DTO d2 = dataTransformer.apply(d);
                 FeatureObject feature = toFeatures.apply(d2);
                 
-                if (!resolvables.isEmpty()) {
-                    if (feature instanceof FeatureCollection) {
-                        feature = new FeatureCollection(concat(((FeatureCollection)feature).features, resolvables), Some(Crs.of(srsName)));
-                    } else {
-                        feature = new FeatureCollection(cons(feature, resolvables), Some(Crs.of(srsName)));
-                    }
+                if (resolvables.isEmpty()) {
+                    response = Pair.of(geoJson.serializeStreaming(feature, coordinateAttributes(req, srsName)), emptyMap());
+                } else {
+                    Iterable<? extends FeatureObject> features = feature instanceof FeatureCollection ? concat(((FeatureCollection)feature).features, resolvables) : cons(feature, resolvables);
+                    response = Pair.of(FeatureCollectionWriter.streaming(geoJson, features, Some(Crs.of(srsName)), coordinateDecimals(req, srsName)), emptyMap());
                 }
-                response = Pair.of(geoJson.serialize(feature), emptyMap());
                 break;
             case JSONL:
-                response = Pair.of(jsonlines.serialize(newList(dataTransformer.apply(data.get()))), emptyMap());
+                response = Pair.of(jsonlines.serializeStreaming(newList(dataTransformer.apply(data.get()))), emptyMap());
                 break;
             case HTML:
-                response = Pair.of(html.serialize(req, title, dataTransformer.apply(data.get()), includes), emptyMap());
+                response = Pair.of(html.serializeStreaming(req, title, dataTransformer.apply(data.get()), includes), emptyMap());
                 break;
             case CSV:
-                response = csv.serialize(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
+                response = csv.serializeStreaming(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
                 break;
             case TSV:
-                response = tsv.serialize(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
+                response = tsv.serializeStreaming(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
                 break;
             case XLSX:
-                response = excel.serialize(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
+                response = excel.serializeStreaming(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
                 break;
             case PNG:
-                response = Pair.of(png.render(getRequestUri(req), getRequestApiKey(req), None(), title2layerName(title.plainTextTitle)), emptyMap());
+                response = Pair.of(StreamingOutput.of(renderPng(req, None(), title, new ApplyZero<StreamingOutput>() {
+                    @Override
+                    public StreamingOutput get() {
+                        return stdSpatialSingleStreaming(req, srsName, SerializationFormat.GEOJSON, includes, data, dataTransformer, title, toFeatures).left();
+                    }
+                })), emptyMap());
                 break;
             case COUNT:
-                response = Pair.of(count.serialize(data.get()), emptyMap());
+                response = Pair.of(StreamingOutput.of(count.serialize(data.get())), emptyMap());
                 break;
             case CHART:
-                response = Pair.of(chart.serialize(req, title, dataTransformer.apply(data.get()), includes), emptyMap());
+                response = Pair.of(chart.serializeStreaming(req, title, dataTransformer.apply(data.get()), includes), emptyMap());
                 break;
             case PDF:
             case GML:
@@ -649,42 +1096,52 @@ public abstract class StdSerialization<BOUNDS> {
             ApplyZero<Map<KEY, DTO>> data,
             Apply<DTO,DTO> dataTransformer,
             HtmlTitle title) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdMapSingleStreaming(req, format, includes, data, dataTransformer, title));
+    }
+    
+    public <KEY,DTO> Pair<StreamingOutput,Map<String,String>> stdMapSingleStreaming(
+            Request req,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<Map<KEY, DTO>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
         case JSON:
-            response = Pair.of(json.serialize(mapValue(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(json.serializeStreaming(mapValue(dataTransformer, data.get())), emptyMap());
             break;
         case GEOJSON:
             Map<KEY,DTO> d = data.get();
             Collection<FeatureObject> resolvables = geojsonResolver.getResolvedFeatures(d.values(), includes);
-            response = Pair.of(geoJson.serialize(new FeatureCollection(
+            response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                     concat(Functional.<Option<? extends GeometryObject>, Object, Option<Crs>,Feature>map(Feature_.$1, map(
                             Function.constant(Option.<GeometryObject>None()), 
                             Function.id(),
                             Function.constant(Option.<Crs>None()),
                             mapValue(dataTransformer, d).values())), resolvables),
-                    Option.<Crs>None())), emptyMap());
+                    Option.<Crs>None()), emptyMap());
             break;
         case JSONL:
-            response = Pair.of(jsonlines.serialize(mapValue(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(jsonlines.serializeStreaming(mapValue(dataTransformer, data.get())), emptyMap());
             break;
         case HTML:
-            response = Pair.of(html.serializeSingle(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
+            response = Pair.of(html.serializeSingleStreaming(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
             break;
         case CSV:
-            response = csv.serializeSingle(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = csv.serializeSingleStreaming(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case TSV:
-            response = tsv.serializeSingle(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = tsv.serializeSingleStreaming(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case XLSX:
-            response = excel.serializeSingle(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = excel.serializeSingleStreaming(title2fileName(title), mapValue(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case COUNT:
-            response = Pair.of(count.serialize(data.get()), emptyMap());
+            response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
             break;
         case CHART:
-            response = Pair.of(chart.serializeSingle(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
+            response = Pair.of(chart.serializeSingleStreaming(req, title, mapValue(dataTransformer, data.get()), includes), emptyMap());
             break;
         case PDF:
         case PNG:
@@ -706,42 +1163,52 @@ public abstract class StdSerialization<BOUNDS> {
             ApplyZero<Map<KEY, Iterable<DTO>>> data,
             Apply<DTO,DTO> dataTransformer,
             HtmlTitle title) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdMapStreaming(req, format, includes, data, dataTransformer, title));
+    }
+    
+    public <KEY,DTO> Pair<StreamingOutput,Map<String,String>> stdMapStreaming(
+            Request req,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<Map<KEY, Iterable<DTO>>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
         case JSON:
-            response = Pair.of(json.serialize(mapValues(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(json.serializeStreaming(mapValues(dataTransformer, data.get())), emptyMap());
             break;
         case GEOJSON:
             Map<KEY,Iterable<DTO>> d = data.get();
             Collection<FeatureObject> resolvables = geojsonResolver.getResolvedFeatures(flatten(d.values()), includes);
-            response = Pair.of(geoJson.serialize(new FeatureCollection(
+            response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                         concat(Functional.<Option<? extends GeometryObject>, Object, Option<Crs>,Feature>map(Feature_.$1, map(
                                 Function.constant(Option.<GeometryObject>None()), 
                                 Function.id(),
                                 Function.constant(Option.<Crs>None()),
                                 flatten(mapValues(dataTransformer, d).values()))), resolvables),
-                        Option.<Crs>None())), emptyMap());
+                        Option.<Crs>None()), emptyMap());
             break;
         case JSONL:
-            response = Pair.of(jsonlines.serialize(mapValues(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(jsonlines.serializeStreaming(mapValues(dataTransformer, data.get())), emptyMap());
             break;
         case HTML:
-            response = Pair.of(html.serialize(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
+            response = Pair.of(html.serializeStreaming(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
             break;
         case CSV:
-            response = csv.serialize(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = csv.serializeStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case TSV:
-            response = tsv.serialize(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = tsv.serializeStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case XLSX:
-            response = excel.serialize(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
+            response = excel.serializeStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering);
             break;
         case COUNT:
-            response = Pair.of(count.serialize(data.get()), emptyMap());
+            response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
             break;
         case CHART:
-            response = Pair.of(chart.serialize(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
+            response = Pair.of(chart.serializeStreaming(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
             break;
         case PDF:
         case PNG:
@@ -764,42 +1231,53 @@ public abstract class StdSerialization<BOUNDS> {
             Apply<DTO,DTO> dataTransformer,
             HtmlTitle title,
             MetaNamedMember<? super DTO, KEY> key) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdMapStreaming(req, format, includes, data, dataTransformer, title, key));
+    }
+    
+    public <DTO, KEY> Pair<StreamingOutput,Map<String,String>> stdMapStreaming(
+            Request req,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<Map<KEY, Iterable<DTO>>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title,
+            MetaNamedMember<? super DTO, KEY> key) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
         case JSON:
-            response = Pair.of(json.serialize(mapValues(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(json.serializeStreaming(mapValues(dataTransformer, data.get())), emptyMap());
             break;
         case GEOJSON:
             Map<KEY,Iterable<DTO>> d = data.get();
             Collection<FeatureObject> resolvables = geojsonResolver.getResolvedFeatures(flatten(d.values()), includes);
-            response = Pair.of(geoJson.serialize(new FeatureCollection(
+            response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                         concat(Functional.<Option<? extends GeometryObject>, Object, Option<Crs>,Feature>map(Feature_.$1, map(
                                 Function.constant(Option.<GeometryObject>None()), 
                                 Function.id(),
                                 Function.constant(Option.<Crs>None()),
                                 flatten(mapValues(dataTransformer, d).values()))), resolvables),
-                        Option.<Crs>None())), emptyMap());
+                        Option.<Crs>None()), emptyMap());
             break;
         case JSONL:
-            response = Pair.of(jsonlines.serialize(mapValues(dataTransformer, data.get())), emptyMap());
+            response = Pair.of(jsonlines.serializeStreaming(mapValues(dataTransformer, data.get())), emptyMap());
             break;
         case HTML:
-            response = Pair.of(html.serializeWithKey(req, title, mapValues(dataTransformer, data.get()), includes, key), emptyMap());
+            response = Pair.of(html.serializeWithKeyStreaming(req, title, mapValues(dataTransformer, data.get()), includes, key), emptyMap());
             break;
         case CSV:
-            response = csv.serializeWithKey(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
+            response = csv.serializeWithKeyStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
             break;
         case TSV:
-            response = tsv.serializeWithKey(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
+            response = tsv.serializeWithKeyStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
             break;
         case XLSX:
-            response = excel.serializeWithKey(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
+            response = excel.serializeWithKeyStreaming(title2fileName(title), mapValues(dataTransformer, data.get()), includes.includesFromColumnFiltering, key);
             break;
         case COUNT:
-            response = Pair.of(count.serialize(data.get()), emptyMap());
+            response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
             break;
         case CHART:
-            response = Pair.of(chart.serialize(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
+            response = Pair.of(chart.serializeStreaming(req, title, mapValues(dataTransformer, data.get()), includes), emptyMap());
             break;
         case PDF:
         case PNG:
@@ -821,42 +1299,52 @@ public abstract class StdSerialization<BOUNDS> {
             ApplyZero<? extends Iterable<DTO>> data,
             Apply<DTO,DTO> dataTransformer,
             HtmlTitle title) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdCollectionStreaming(req, format, includes, data, dataTransformer, title));
+    }
+    
+    public <DTO> Pair<StreamingOutput,Map<String,String>> stdCollectionStreaming(
+            Request req,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<? extends Iterable<DTO>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
             case JSON:
-                response = Pair.of(json.serialize(map(dataTransformer, data.get())), emptyMap());
+                response = Pair.of(json.serializeStreaming(map(dataTransformer, data.get())), emptyMap());
                 break;
             case GEOJSON:
                 Iterable<DTO> d = data.get();
                 Collection<FeatureObject> resolvables = geojsonResolver.getResolvedFeatures(d, includes);
-                response = Pair.of(geoJson.serialize(new FeatureCollection(
+                response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                     concat(Functional.<Option<? extends GeometryObject>, Object, Option<Crs>,Feature>map(Feature_.$1, map(
                             Function.constant(Option.<GeometryObject>None()),
                             Function.id(),
                             Function.constant(Option.<Crs>None()),
                             map(dataTransformer, d))), resolvables),
-                    Option.<Crs>None())), emptyMap());
+                    Option.<Crs>None()), emptyMap());
                 break;
             case JSONL:
-                response = Pair.of(jsonlines.serialize(map(dataTransformer, data.get())), emptyMap());
+                response = Pair.of(jsonlines.serializeStreaming(map(dataTransformer, data.get())), emptyMap());
                 break;
             case HTML:
-                response = Pair.of(html.serialize(req, title, newList(map(dataTransformer, data.get())), includes), emptyMap());
+                response = Pair.of(html.serializeStreaming(req, title, map(dataTransformer, data.get()), includes), emptyMap());
                 break;
             case CSV:
-                response = csv.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes.includesFromColumnFiltering);
+                response = csv.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes.includesFromColumnFiltering);
                 break;
             case TSV:
-                response = tsv.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes.includesFromColumnFiltering);
+                response = tsv.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes.includesFromColumnFiltering);
                 break;
             case XLSX:
-                response = excel.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes.includesFromColumnFiltering);
+                response = excel.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes.includesFromColumnFiltering);
                 break;
             case COUNT:
-                response = Pair.of(count.serialize(data.get()), emptyMap());
+                response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
                 break;
             case CHART:
-                response = Pair.of(chart.serialize(req, title, newList(map(dataTransformer, data.get())), includes), emptyMap());
+                response = Pair.of(chart.serializeStreaming(req, title, map(dataTransformer, data.get()), includes), emptyMap());
                 break;
             case PDF:
             case PNG:
@@ -878,10 +1366,20 @@ public abstract class StdSerialization<BOUNDS> {
             ApplyZero<DTO> data,
             Apply<DTO,DTO> dataTransformer,
             HtmlTitle title) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdSingleStreaming(req, format, includes, data, dataTransformer, title));
+    }
+    
+    public <DTO> Pair<StreamingOutput,Map<String,String>> stdSingleStreaming(
+            Request req,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<DTO> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
             case JSON:
-                response = Pair.of(json.serialize(dataTransformer.apply(data.get())), emptyMap());
+                response = Pair.of(json.serializeStreaming(dataTransformer.apply(data.get())), emptyMap());
                 break;
             case GEOJSON:
                 DTO d = data.get();
@@ -890,28 +1388,28 @@ public abstract class StdSerialization<BOUNDS> {
                         Option.<GeometryObject>None(),
                         dataTransformer.apply(d),
                         Option.<Crs>None());
-                response = Pair.of(geoJson.serialize(resolvables.isEmpty() ? feature : new FeatureCollection(cons(feature, resolvables), Option.<Crs>None())), emptyMap());
+                response = Pair.of(resolvables.isEmpty() ? geoJson.serializeStreaming(feature) : FeatureCollectionWriter.streaming(geoJson, cons(feature, resolvables), Option.<Crs>None()), emptyMap());
                 break;
             case JSONL:
-                response = Pair.of(jsonlines.serialize(newList(dataTransformer.apply(data.get()))), emptyMap());
+                response = Pair.of(jsonlines.serializeStreaming(newList(dataTransformer.apply(data.get()))), emptyMap());
                 break;
             case HTML:
-                response = Pair.of(html.serialize(req, title, dataTransformer.apply(data.get()), includes), emptyMap());
+                response = Pair.of(html.serializeStreaming(req, title, dataTransformer.apply(data.get()), includes), emptyMap());
                 break;
             case CSV:
-                response = csv.serialize(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
+                response = csv.serializeStreaming(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
                 break;
             case TSV:
-                response = tsv.serialize(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
+                response = tsv.serializeStreaming(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
                 break;
             case XLSX:
-                response = excel.serialize(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
+                response = excel.serializeStreaming(title2fileName(title), dataTransformer.apply(data.get()), includes.includesFromColumnFiltering);
                 break;
             case COUNT:
-                response = Pair.of(count.serialize(data.get()), emptyMap());
+                response = Pair.of(StreamingOutput.of(count.serialize(data.get())), emptyMap());
                 break;
             case CHART:
-                response = Pair.of(chart.serialize(req, title, dataTransformer.apply(data.get()), includes), emptyMap());
+                response = Pair.of(chart.serializeStreaming(req, title, dataTransformer.apply(data.get()), includes), emptyMap());
                 break;
             case PDF:
             case PNG:
@@ -931,39 +1429,47 @@ public abstract class StdSerialization<BOUNDS> {
             SerializationFormat format,
             Iterable<E> data,
             HtmlTitle title) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdTypesStreaming(req, format, data, title));
+    }
+    
+    public <E extends Enum<E>> Pair<StreamingOutput,Map<String,String>> stdTypesStreaming(
+            Request req,
+            SerializationFormat format,
+            Iterable<E> data,
+            HtmlTitle title) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
             case JSON:
-                response = Pair.of(json.serialize(data), emptyMap());
+                response = Pair.of(json.serializeStreaming(data), emptyMap());
                 break;
             case GEOJSON:
-                response = Pair.of(geoJson.serialize(new FeatureCollection(
+                response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                     map((ApplyBi<String,Object,Feature>)Feature_.$2, map(
                             Function.constant("typeName"),
                             Function.id(),
                             data)),
-                    Option.<Crs>None())), emptyMap());
+                    Option.<Crs>None()), emptyMap());
                 break;
             case JSONL:
-                response = Pair.of(jsonlines.serialize(data), emptyMap());
+                response = Pair.of(jsonlines.serializeStreaming(data), emptyMap());
                 break;
             case HTML:
-                response = Pair.of(html.serialize(req, title, data), emptyMap());
+                response = Pair.of(html.serializeStreaming(req, title, data), emptyMap());
                 break;
             case CSV:
-                response = csv.serialize(title2fileName(title), data);
+                response = csv.serializeStreaming(title2fileName(title), data);
                 break;
             case TSV:
-                response = tsv.serialize(title2fileName(title), data);
+                response = tsv.serializeStreaming(title2fileName(title), data);
                 break;
             case XLSX:
-                response = excel.serialize(title2fileName(title), data);
+                response = excel.serializeStreaming(title2fileName(title), data);
                 break;
             case COUNT:
-                response = Pair.of(count.serialize(data), emptyMap());
+                response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
                 break;
             case CHART:
-                response = Pair.of(chart.serialize(req, title, data), emptyMap());
+                response = Pair.of(chart.serializeStreaming(req, title, data), emptyMap());
                 break;
             case PDF:
             case PNG:
@@ -985,42 +1491,52 @@ public abstract class StdSerialization<BOUNDS> {
             ApplyZero<? extends Iterable<DTO>> data,
             Apply<DTO,DTO> dataTransformer,
             HtmlTitle title) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdStaticStreaming(req, format, includes, data, dataTransformer, title));
+    }
+    
+    public <DTO> Pair<StreamingOutput,Map<String,String>> stdStaticStreaming(
+            Request req,
+            SerializationFormat format,
+            Includes<DTO> includes,
+            ApplyZero<? extends Iterable<DTO>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
             case JSON:
-                response = Pair.of(json.serialize(map(dataTransformer, data.get())), emptyMap());
+                response = Pair.of(json.serializeStreaming(map(dataTransformer, data.get())), emptyMap());
                 break;
             case GEOJSON:
                 Iterable<DTO> d = data.get();
                 Collection<FeatureObject> resolvables = geojsonResolver.getResolvedFeatures(d, includes);
-                response = Pair.of(geoJson.serialize(new FeatureCollection(
+                response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                     concat(Functional.<Option<? extends GeometryObject>, Object, Option<Crs>,Feature>map(Feature_.$1, map(
                             Function.constant(Option.<GeometryObject>None()),
                             Function.id(),
                             Function.constant(Option.<Crs>None()),
                             map(dataTransformer, d))), resolvables),
-                    Option.<Crs>None())), emptyMap());
+                    Option.<Crs>None()), emptyMap());
                 break;
             case JSONL:
-                response = Pair.of(jsonlines.serialize(map(dataTransformer, data.get())), emptyMap());
+                response = Pair.of(jsonlines.serializeStreaming(map(dataTransformer, data.get())), emptyMap());
                 break;
             case HTML:
-                response = Pair.of(html.serialize(req, title, newList(map(dataTransformer, data.get())), includes), emptyMap());
+                response = Pair.of(html.serializeStreaming(req, title, map(dataTransformer, data.get()), includes), emptyMap());
                 break;
             case CSV:
-                response = csv.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes);
+                response = csv.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes);
                 break;
             case TSV:
-                response = tsv.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes);
+                response = tsv.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes);
                 break;
             case XLSX:
-                response = excel.serialize(title2fileName(title), newList(map(dataTransformer, data.get())), includes);
+                response = excel.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()), includes);
                 break;
             case COUNT:
-                response = Pair.of(count.serialize(data.get()), emptyMap());
+                response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
                 break;
             case CHART:
-                response = Pair.of(chart.serialize(req, title, newList(map(dataTransformer, data.get())), includes), emptyMap());
+                response = Pair.of(chart.serializeStreaming(req, title, map(dataTransformer, data.get()), includes), emptyMap());
                 break;
             case PDF:
             case PNG:
@@ -1041,41 +1557,50 @@ public abstract class StdSerialization<BOUNDS> {
             ApplyZero<? extends Iterable<DTO>> data,
             Apply<DTO,DTO> dataTransformer,
             HtmlTitle title) {
-        Pair<byte[],Map<String,String>> response;
+        return StreamingOutput.materialize(stdStaticStreaming(req, format, data, dataTransformer, title));
+    }
+    
+    public <DTO> Pair<StreamingOutput,Map<String,String>> stdStaticStreaming(
+            Request req,
+            SerializationFormat format,
+            ApplyZero<? extends Iterable<DTO>> data,
+            Apply<DTO,DTO> dataTransformer,
+            HtmlTitle title) {
+        Pair<StreamingOutput,Map<String,String>> response;
         switch (format) {
             case JSON:
-                response = Pair.of(json.serialize(map(dataTransformer, data.get())), emptyMap());
+                response = Pair.of(json.serializeStreaming(map(dataTransformer, data.get())), emptyMap());
                 break;
             case GEOJSON:
                 Iterable<DTO> d = map(dataTransformer, data.get());
-                response = Pair.of(geoJson.serialize(new FeatureCollection(
+                response = Pair.of(FeatureCollectionWriter.streaming(geoJson,
                     Functional.<Option<? extends GeometryObject>, Object, Option<Crs>,Feature>map(Feature_.$1, map(
                             Function.constant(Option.<GeometryObject>None()),
                             Function.id(),
                             Function.constant(Option.<Crs>None()),
                             d)),
-                    Option.<Crs>None())), emptyMap());
+                    Option.<Crs>None()), emptyMap());
                 break;
             case JSONL:
-                response = Pair.of(jsonlines.serialize(map(dataTransformer, data.get())), emptyMap());
+                response = Pair.of(jsonlines.serializeStreaming(map(dataTransformer, data.get())), emptyMap());
                 break;
             case HTML:
-                response = Pair.of(html.serialize(req, title, map(dataTransformer, data.get())), emptyMap());
+                response = Pair.of(html.serializeStreaming(req, title, map(dataTransformer, data.get())), emptyMap());
                 break;
             case CSV:
-                response = csv.serialize(title2fileName(title), map(dataTransformer, data.get()));
+                response = csv.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()));
                 break;
             case TSV:
-                response = tsv.serialize(title2fileName(title), map(dataTransformer, data.get()));
+                response = tsv.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()));
                 break;
             case XLSX:
-                response = excel.serialize(title2fileName(title), map(dataTransformer, data.get()));
+                response = excel.serializeStreaming(title2fileName(title), map(dataTransformer, data.get()));
                 break;
             case COUNT:
-                response = Pair.of(count.serialize(data.get()), emptyMap());
+                response = Pair.of(StreamingOutput.of(count.serialize(data)), emptyMap());
                 break;
             case CHART:
-                response = Pair.of(chart.serialize(req, title, map(dataTransformer, data.get())), emptyMap());
+                response = Pair.of(chart.serializeStreaming(req, title, map(dataTransformer, data.get())), emptyMap());
                 break;
             case PDF:
             case PNG:
@@ -1098,4 +1623,10 @@ public abstract class StdSerialization<BOUNDS> {
             ApplyZero<byte[]> data) {
         return Pair.of(data.get(), emptyMap());
     }
+    
+    public Pair<StreamingOutput,Map<String,String>> stdPassThroughStreaming(
+            Request req,
+            ApplyZero<byte[]> data) {
+        return Pair.of(StreamingOutput.of(data.get()), emptyMap());
+    }
 }
@@ -17,6 +17,7 @@ import fi.solita.utils.api.filtering.Filter;
 import fi.solita.utils.api.filtering.FilterType;
 import fi.solita.utils.api.filtering.Filter_;
 import fi.solita.utils.api.filtering.Literal;
+import fi.solita.utils.api.format.geojson.PackedCoordinates;
 import fi.solita.utils.api.types.Filters;
 import fi.solita.utils.api.types.SRSName;
 import fi.solita.utils.api.util.Assert;
@@ -94,6 +95,41 @@ public class Transform {
         }
     }
     
+    /**
+     * Transforms all positions with a single transformation lookup and a single bulk call,
+     * without boxing. Ordinates beyond the first two are kept as they are.
+     */
+    public static PackedCoordinates transformCoordinates(SRSName sourceCRS, SRSName targetCRS, PackedCoordinates coords) {
+        if (sourceCRS.equals(targetCRS)) {
+            return coords;
+        }
+        final MathTransform transformer = findMathTransform(sourceCRS, targetCRS);
+        int dim = coords.dimension;
+        Assert.True(dim >= 2, "Positions must have at least two ordinates");
+        double[] ordinates = coords.ordinates;
+        int count = ordinates.length / dim;
+        
+        boolean swapSource = sourceCRS.equals(SRSName.CRS84);
+        double[] xy = new double[count * 2];
+        for (int i = 0; i < count; ++i) {
+            xy[2*i]   = ordinates[i*dim + (swapSource ? 1 : 0)];
+            xy[2*i+1] = ordinates[i*dim + (swapSource ? 0 : 1)];
+        }
+        try {
+            transformer.transform(xy, 0, xy, 0, count);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        
+        boolean swapTarget = targetCRS.equals(SRSName.CRS84);
+        double[] ret = ordinates.clone();
+        for (int i = 0; i < count; ++i) {
+            ret[i*dim]   = xy[2*i + (swapTarget ? 1 : 0)];
+            ret[i*dim+1] = xy[2*i + (swapTarget ? 0 : 1)];
+        }
+        return coords.withOrdinates(ret);
+    }
+    
     public static final <T,G> Function1<T,T> transforming(final SRSName source, final SRSName target, final Setter<T, G> setter, final ApplyBi<SRSName,G,G> f) {
         return source.equals(target) ? Function.<T>id() : new Function1<T, T>() {
             @Override
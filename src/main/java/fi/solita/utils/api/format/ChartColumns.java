@@ -0,0 +1,85 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.newMutableLinkedMap;
+import static fi.solita.utils.functional.Collections.newMutableList;
+import static fi.solita.utils.functional.Collections.newMutableMap;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar encoding of chart rows, to not repeat every property name for every data point:
+ *
+ * <pre>
+ * {
+ *   "c": [x values],
+ *   "s": {"name": [values of the column], ...},
+ *   "k": [distinct string values],
+ *   "d": [names of columns whose values are indices to "k"]
+ * }
+ * </pre>
+ *
+ * Missing values are encoded as 0, or -1 in dictionary encoded columns. The chart script fills them in as 0.
+ */
+final class ChartColumns {
+
+    static final String X = "c";
+
+    private ChartColumns() {
+    }
+
+    static Map<String,Object> encode(List<Map<Object,Object>> rows) {
+        List<Object> xs = newMutableList();
+        Map<Object,Object[]> columns = newMutableLinkedMap();
+        for (int i = 0; i < rows.size(); ++i) {
+            for (Map.Entry<Object,Object> e: rows.get(i).entrySet()) {
+                if (X.equals(e.getKey())) {
+                    continue;
+                }
+                Object[] column = columns.get(e.getKey());
+                if (column == null) {
+                    column = new Object[rows.size()];
+                    columns.put(e.getKey(), column);
+                }
+                column[i] = e.getValue();
+            }
+            xs.add(rows.get(i).get(X));
+        }
+
+        Map<String,Integer> dictionary = newMutableMap();
+        List<String> keys = newMutableList();
+        List<Object> dictionaryColumns = newMutableList();
+        Map<Object,Object> series = newMutableLinkedMap();
+        for (Map.Entry<Object,Object[]> e: columns.entrySet()) {
+            Object[] column = e.getValue();
+            boolean allStrings = true;
+            for (Object value: column) {
+                allStrings &= value == null || value instanceof String;
+            }
+            for (int i = 0; i < column.length; ++i) {
+                if (column[i] == null) {
+                    column[i] = allStrings ? -1 : 0;
+                } else if (allStrings) {
+                    Integer index = dictionary.get(column[i]);
+                    if (index == null) {
+                        index = keys.size();
+                        dictionary.put((String) column[i], index);
+                        keys.add((String) column[i]);
+                    }
+                    column[i] = index;
+                }
+            }
+            if (allStrings) {
+                dictionaryColumns.add(e.getKey());
+            }
+            series.put(e.getKey(), column);
+        }
+
+        Map<String,Object> ret = newMutableLinkedMap();
+        ret.put(X, xs);
+        ret.put("s", series);
+        ret.put("k", keys);
+        ret.put("d", dictionaryColumns);
+        return ret;
+    }
+}
@@ -29,7 +29,6 @@ import static fi.solita.utils.functional.FunctionalM.find;
 import static fi.solita.utils.functional.FunctionalM.groupBy;
 import static fi.solita.utils.functional.FunctionalM.mapValue;
 import static fi.solita.utils.functional.FunctionalM.with;
-import static fi.solita.utils.functional.Option.None;
 import static fi.solita.utils.functional.Option.Some;
 import static fi.solita.utils.functional.Predicates.isNull;
 import static fi.solita.utils.functional.Predicates.not;
@@ -39,6 +38,7 @@ import static org.rendersnake.HtmlAttributesFactory.type;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.lang.reflect.AccessibleObject;
@@ -52,7 +52,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
-import java.util.regex.Pattern;
 
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
@@ -74,6 +73,7 @@ import fi.solita.utils.api.util.MemberUtil;
 import fi.solita.utils.api.util.MemberUtil_;
 import fi.solita.utils.api.util.RequestUtil;
 import fi.solita.utils.api.util.ServletRequestUtil.Request;
+import fi.solita.utils.api.util.StreamingOutput;
 import fi.solita.utils.functional.Apply;
 import fi.solita.utils.functional.Compare;
 import fi.solita.utils.functional.Function;
@@ -114,35 +114,79 @@ public class ChartConversionService {
         }
     };
     
+    /**
+     * Default maximum number of points to send for a chart with a linear (temporal) x axis.
+     */
+    public static final int DEFAULT_MAX_POINTS = 2000;
+    
     private JsonConversionService json;
+    private final ChartValues values;
+    private final int maxPoints;
 
     public ChartConversionService(JsonConversionService json) {
+        this(json, DEFAULT_MAX_POINTS);
+    }
+    
+    /**
+     * @param maxPoints maximum number of points for a chart with a linear x axis. Longer series are downsampled.
+     */
+    public ChartConversionService(JsonConversionService json, int maxPoints) {
+        Assert.True(maxPoints >= 3, "maxPoints must be at least 3");
         this.json = json;
+        this.values = new ChartValues(json.om);
+        this.maxPoints = maxPoints;
     }
     
     public <T> byte[] serialize(Request request, HtmlTitle title, T obj, final Includes<T> members) {
-        return serialize(request, title, newList(obj), members);
+        return serializeStreaming(request, title, obj, members).toByteArray();
     }
     
     public <T> byte[] serialize(Request request, HtmlTitle title, T[] obj) {
-        return serialize(request, title, newList(obj));
+        return serializeStreaming(request, title, obj).toByteArray();
     }
     
-    @SuppressWarnings("unchecked")
     public <T> byte[] serialize(Request request, HtmlTitle title, final Iterable<T> obj) {
-        return serialize(request, title, newList(filter(not(isNull()), obj)), new Includes<T>(newList((MetaNamedMember<T,T>)DUMMY_MEMBER), emptyList(), emptyList(), true, emptyList()));
+        return serializeStreaming(request, title, obj).toByteArray();
     }
     
     public <T> byte[] serialize(Request request, HtmlTitle title, final Collection<T> obj, final Includes<T> members) {
-        return serialize(title, request, obj, members.includesFromColumnFiltering);
+        return serializeStreaming(request, title, obj, members).toByteArray();
     }
     
     public <K,V> byte[] serialize(Request request, HtmlTitle title, final Map<K,? extends Iterable<V>> obj, Includes<V> members) {
-        return serialize(title, request, flatten(obj.values()), members.includesFromColumnFiltering);
+        return serializeStreaming(request, title, obj, members).toByteArray();
     }
     
     public <K,V> byte[] serializeSingle(Request request, HtmlTitle title, final Map<K,V> obj, Includes<V> members) {
-        return serialize(title, request, newList(obj.values()), members.includesFromColumnFiltering);
+        return serializeSingleStreaming(request, title, obj, members).toByteArray();
+    }
+    
+    public <T> StreamingOutput serializeStreaming(Request request, HtmlTitle title, T obj, final Includes<T> members) {
+        return serializeStreaming(request, title, newList(obj), members);
+    }
+    
+    public <T> StreamingOutput serializeStreaming(Request request, HtmlTitle title, T[] obj) {
+        return serializeStreaming(request, title, newList(obj));
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <T> StreamingOutput serializeStreaming(Request request, HtmlTitle title, final Iterable<T> obj) {
+        return serializeStreaming(request, title, newList(filter(not(isNull()), obj)), new Includes<T>(newList((MetaNamedMember<T,T>)DUMMY_MEMBER), emptyList(), emptyList(), true, emptyList()));
+    }
+    
+    /**
+     * @param obj rows, iterated once. May be lazy.
+     */
+    public <T> StreamingOutput serializeStreaming(Request request, HtmlTitle title, final Iterable<T> obj, final Includes<T> members) {
+        return serializeStreaming(title, request, obj, members.includesFromColumnFiltering);
+    }
+    
+    public <K,V> StreamingOutput serializeStreaming(Request request, HtmlTitle title, final Map<K,? extends Iterable<V>> obj, Includes<V> members) {
+        return serializeStreaming(title, request, flatten(obj.values()), members.includesFromColumnFiltering);
+    }
+    
+    public <K,V> StreamingOutput serializeSingleStreaming(Request request, HtmlTitle title, final Map<K,V> obj, Includes<V> members) {
+        return serializeStreaming(title, request, newList(obj.values()), members.includesFromColumnFiltering);
     }
     
     @SuppressWarnings("unchecked")
@@ -170,16 +214,7 @@ public class ChartConversionService {
     }
     
     protected Option<Object> toNumeric(Object value) {
-        if (value instanceof Number) {
-            return Some(value);
-        } else {
-            String serialized = new String(json.serialize(value), StandardCharsets.UTF_8);
-            try {
-                return Some(Double.parseDouble(serialized));
-            } catch (NumberFormatException e) {
-                return None();
-            }
-        }
+        return values.numeric(value);
     }
     
     protected static Class<?> resolveType(MetaNamedMember<?, ?> m) {
@@ -204,15 +239,8 @@ public class ChartConversionService {
         return Range.closed(RequestUtil.limit(i), RequestUtil.limit(i));
     }
     
-    private static final Pattern P1 = Pattern.compile("^\\s*\\{\\s*\"([^\"]*)\"\\s*:\\s*0\\s*\\}\\s*$");
-    
     String jsonSerializeKey(Object key) {
-        if (key == null || key == None()) {
-            return "-";
-        }
-        String serialized = new String(json.serialize(newMap(Pair.of(key, 0))), StandardCharsets.UTF_8);
-        String ret = P1.matcher(serialized).replaceFirst("$1");
-        return ret.isEmpty() ? "-" : ret;
+        return values.key(key);
     }
     
     private static <T> BiFunction<List<T>, List<T>, List<T>> coalesce() {
@@ -262,7 +290,7 @@ public class ChartConversionService {
         return jsonSerializeKey(o);
     }
     
-    private <T> byte[] serialize(HtmlTitle title, Request request, Iterable<T> objs, final Iterable<? extends MetaNamedMember<T, ?>> members_) throws CannotChartByStructureException {
+    private <T> StreamingOutput serializeStreaming(final HtmlTitle title, final Request request, Iterable<T> objs, final Iterable<? extends MetaNamedMember<T, ?>> members_) throws CannotChartByStructureException {
         @SuppressWarnings("unchecked")
         List<MetaNamedMember<T, Object>> members = (List<MetaNamedMember<T, Object>>) newList(members_);
         final boolean xIsInstant  = !members.isEmpty() && DateTime.class.isAssignableFrom(resolveType(head(members)));
@@ -272,13 +300,14 @@ public class ChartConversionService {
         final boolean isStacked = members.size() == 2;
         final boolean isGrouped = members.size() == 1 || xIsTemporal || !xIsLinear;
         
-        Pair<List<Map<Object, Object>>, List<String>> data = calculateChartData(objs, members, xIsInstant, xIsInterval, xIsTemporal, xIsLinear);
+        Pair<List<Map<Object, Object>>, List<String>> chartData = calculateChartData(objs, members, xIsInstant, xIsInterval, xIsTemporal, xIsLinear);
+        final Pair<List<Map<Object, Object>>, List<String>> data = xIsLinear ? Pair.of(downsample(chartData.left(), chartData.right(), maxPoints), chartData.right()) : chartData;
         
-        String jsonData = new String(json.serialize(data.left()), StandardCharsets.UTF_8).replace("\n", "");
+        final String jsonData = new String(json.serialize(ChartColumns.encode(data.left())), StandardCharsets.UTF_8).replace("\n", "");
         
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         HtmlCanvas titleCanvas = HttpServletCanvas.of(request.getHttpServletRequest(), new OutputStreamWriter(out, StandardCharsets.UTF_8));
-        String titleHtml;
+        final String titleHtml;
         try {
             title.renderOn(titleCanvas);
             try (Writer writer = titleCanvas.getOutputWriter()) {
@@ -289,35 +318,33 @@ public class ChartConversionService {
             throw new RuntimeException(e);
         }
         
-        ByteArrayOutputStream os = new ByteArrayOutputStream(32000);
-        OutputStreamWriter ow = new OutputStreamWriter(os, Charset.forName("UTF-8"));
-        HtmlCanvas html = HttpServletCanvas.of(request.getHttpServletRequest(), ow);
-        String contextPath = ((HttpServletCanvas<?>)html).getContextPath();
-        try {
-            html.html()
-                .render(DocType.HTML5)
-                .head()
-                  .render(pageHead(title.plainTextTitle, titleHtml, jsonData, data.right(), xIsTemporal, isStacked, isGrouped, xIsLinear, xIsInterval))
-                ._head()
-                .body()
-                  .input(type("checkbox").id("connection").hidden("hidden").checked("checked").value(""))
-                  .div(id("chart"))._div()
-                ._body()
-                .script(type("text/javascript").src(contextPath + "/r/js/lib/amcharts.min.js"))._script()
-                .script(type("text/javascript").src(contextPath + "/r/js/lib/amcharts-xy.min.js"))._script()
-                .script(type("text/javascript").src(contextPath + "/r/js/lib/amcharts-Animated.min.js"))._script()
-                .script(type("text/javascript").src(contextPath + "/r/js/lib/amcharts-locale-fi_FI.min.js"))._script()
-                .script(type("text/javascript")).write(scripts(titleHtml, jsonData, data.right(), xIsTemporal, isStacked, isGrouped, xIsLinear, xIsInterval), false)._script()
-                .script(type("text/javascript")).write(scripts2(), false)._script()
-                .script(type("text/javascript")).write(additionalHeadScript(), false)._script()
-              ._html();
-
-            ow.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        
-        return os.toByteArray();
+        // the chart data is calculated beforehand, so that any errors occur before the response is committed
+        return new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream os) throws IOException {
+                OutputStreamWriter ow = new OutputStreamWriter(os, Charset.forName("UTF-8"));
+                HtmlCanvas html = HttpServletCanvas.of(request.getHttpServletRequest(), ow);
+                String contextPath = ((HttpServletCanvas<?>)html).getContextPath();
+                html.html()
+                    .render(DocType.HTML5)
+                    .head()
+                      .render(pageHead(title.plainTextTitle, titleHtml, jsonData, data.right(), xIsTemporal, isStacked, isGrouped, xIsLinear, xIsInterval))
+                    ._head()
+                    .body()
+                      .input(type("checkbox").id("connection").hidden("hidden").checked("checked").value(""))
+                      .div(id("chart"))._div()
+                    ._body()
+                    .script(type("text/javascript").src(contextPath + "/r/js/lib/amcharts.min.js"))._script()
+                    .script(type("text/javascript").src(contextPath + "/r/js/lib/amcharts-xy.min.js"))._script()
+                    .script(type("text/javascript").src(contextPath + "/r/js/lib/amcharts-Animated.min.js"))._script()
+                    .script(type("text/javascript").src(contextPath + "/r/js/lib/amcharts-locale-fi_FI.min.js"))._script()
+                    .script(type("text/javascript")).write(scripts(titleHtml, jsonData, data.right(), xIsTemporal, isStacked, isGrouped, xIsLinear, xIsInterval), false)._script()
+                    .script(type("text/javascript")).write(scripts2(), false)._script()
+                    .script(type("text/javascript")).write(additionalHeadScript(), false)._script()
+                  ._html();
+                ow.flush();
+            }
+        };
     }
 
     <T> Pair<List<Map<Object,Object>>,List<String>> calculateChartData(Iterable<T> objs, List<MetaNamedMember<T, Object>> members, final boolean xIsInstant, final boolean xIsInterval, final boolean xIsTemporal, final boolean xIsLinear) {
@@ -474,6 +501,44 @@ public class ChartConversionService {
         return Pair.of(data, yNames);
     }
     
+    /**
+     * Downsamples rows of a linear x axis with {@link Downsampling#lttb}, using the sum of the series as y.
+     * Rows are returned as is if they fit into <i>maxPoints</i>, or are not numeric and ascending in x.
+     */
+    static List<Map<Object,Object>> downsample(List<Map<Object,Object>> data, Collection<String> yNames, int maxPoints) {
+        if (data.size() <= maxPoints) {
+            return data;
+        }
+        double[] xs = new double[data.size()];
+        double[] ys = new double[data.size()];
+        for (int i = 0; i < xs.length; ++i) {
+            Map<Object,Object> row = data.get(i);
+            Option<Double> x = toDouble(row.get("c"));
+            if (!x.isDefined() || i > 0 && x.get() < xs[i-1]) {
+                return data;
+            }
+            xs[i] = x.get();
+            for (String name: yNames) {
+                Object value = row.get("_" + name);
+                for (double y: toDouble(value == null ? row.get(name) : value)) {
+                    ys[i] += y;
+                }
+            }
+        }
+        List<Map<Object,Object>> ret = new ArrayList<Map<Object,Object>>(maxPoints);
+        for (int i: Downsampling.lttb(xs, ys, maxPoints)) {
+            ret.add(data.get(i));
+        }
+        return ret;
+    }
+    
+    private static Option<Double> toDouble(Object value) {
+        if (value instanceof Option) {
+            return ((Option<?>) value).isDefined() ? toDouble(((Option<?>) value).get()) : Option.<Double>None();
+        }
+        return value instanceof Number ? Some(((Number) value).doubleValue()) : Option.<Double>None();
+    }
+    
     private static final Map<Long,Pair<String,Long>> interned = new ConcurrentHashMap<>();
     private static Pair<String,Long> internedCountPair(long x) {
         Pair<String, Long> key = interned.get(x);
@@ -514,9 +579,15 @@ public class ChartConversionService {
 
     private final String scripts(String titleHtml, String jsonData, final Collection<String> yNames, boolean xIsTemporal, boolean isStacked, boolean isGrouped, boolean xIsLinear, boolean xIsInterval) {
         return  "let dat = " + jsonData + ";\n"
-              + "let allKeys = [...new Set(dat.map(x => Object.keys(x)).flat())];\n"
-              + "let toFill = allKeys.length === 0 ? {} : Object.assign(...allKeys.map(k => ({[k]: 0})));\n"
-              + "let data = dat.map(d => ({...toFill, ...d}));\n"
+              + "let dictionaryEncoded = new Set(dat.d);\n"
+              + "let data = dat.c.map((c, i) => {\n"
+              + "  let d = {c: c};\n"
+              + "  for (let k in dat.s) {\n"
+              + "    let v = dat.s[k][i];\n"
+              + "    d[k] = !dictionaryEncoded.has(k) ? v : v < 0 ? 0 : dat.k[v];\n"
+              + "  }\n"
+              + "  return d;\n"
+              + "});\n"
               + "let root = am5.Root.new('chart', {"
               + "  timezone: am5.Timezone.new('Europe/Helsinki'),\n"
               + "  locale: am5locales_fi_FI\n"
@@ -0,0 +1,184 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Option.None;
+import static fi.solita.utils.functional.Option.Some;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.joda.time.ReadableDuration;
+import org.joda.time.ReadableInstant;
+import org.joda.time.ReadableInterval;
+import org.joda.time.ReadablePartial;
+import org.joda.time.ReadablePeriod;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.EnumSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import fi.solita.utils.functional.Option;
+
+/**
+ * Chart keys (category names) and numeric values, as they would be serialized to JSON with the given mapper.
+ *
+ * The key serializer of each value class is resolved only once. Values of classes without a custom key serializer
+ * (strings, integers) are used directly, others are serialized into a token buffer instead of JSON text,
+ * and the results are memoized since the same categories tend to repeat.
+ */
+final class ChartValues {
+
+    /**
+     * Upper limit for memoized keys per value class, to not leak memory with high cardinality values.
+     */
+    static final int MAX_MEMOIZED_KEYS = 10000;
+
+    private static final String PLAIN_KEY_SERIALIZERS = "com.fasterxml.jackson.databind.ser.std.";
+
+    private final ObjectMapper om;
+    private final ConcurrentMap<Class<?>,KeyExtractor> keyExtractors = new ConcurrentHashMap<Class<?>,KeyExtractor>();
+    private final ConcurrentMap<Class<?>,Boolean> neverNumeric = new ConcurrentHashMap<Class<?>,Boolean>();
+
+    ChartValues(ObjectMapper om) {
+        this.om = om;
+    }
+
+    private interface KeyExtractor {
+        String key(Object value) throws IOException;
+    }
+
+    /**
+     * @return the value as a JSON object key, or "-" for missing values.
+     */
+    public String key(Object value) {
+        if (value == null || value == None()) {
+            return "-";
+        }
+        Class<?> c = value.getClass();
+        KeyExtractor extractor = keyExtractors.get(c);
+        if (extractor == null) {
+            extractor = keyExtractor(c);
+            keyExtractors.putIfAbsent(c, extractor);
+        }
+        try {
+            String ret = extractor.key(value);
+            return ret.isEmpty() ? "-" : ret;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the value as a double, if it would be serialized as a JSON number.
+     */
+    public Option<Object> numeric(Object value) {
+        if (value instanceof Number) {
+            return Some(value);
+        }
+        if (value == null) {
+            return None();
+        }
+        Class<?> c = value.getClass();
+        Boolean never = neverNumeric.get(c);
+        if (never == null) {
+            never = isNeverNumeric(c);
+            neverNumeric.putIfAbsent(c, never);
+        }
+        if (never) {
+            return None();
+        }
+        try {
+            TokenBuffer buf = new TokenBuffer(om, false);
+            om.writeValue(buf, value);
+            JsonParser p = buf.asParser();
+            JsonToken t = p.nextToken();
+            // a lone number, like the whole document parsed with Double.parseDouble
+            if (t != null && t.isNumeric() && p.nextToken() == null) {
+                return Some((Object) p.getDoubleValue());
+            }
+            return None();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean isNeverNumeric(Class<?> c) {
+        if (CharSequence.class.isAssignableFrom(c) || c == Character.class || c == Boolean.class || c == UUID.class || c == URI.class) {
+            return true;
+        }
+        if (ReadableInstant.class.isAssignableFrom(c) || ReadablePartial.class.isAssignableFrom(c) || ReadableInterval.class.isAssignableFrom(c) ||
+            ReadableDuration.class.isAssignableFrom(c) || ReadablePeriod.class.isAssignableFrom(c)) {
+            // serialized as ISO strings
+            return true;
+        }
+        if (c.isEnum()) {
+            try {
+                Object serializer = om.getSerializerProviderInstance().findValueSerializer(c);
+                return serializer instanceof EnumSerializer;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return false;
+    }
+
+    private KeyExtractor keyExtractor(Class<?> c) {
+        final JsonSerializer<Object> serializer;
+        try {
+            serializer = om.getSerializerProviderInstance().findKeySerializer(c, null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        boolean plain = serializer.getClass().getName().startsWith(PLAIN_KEY_SERIALIZERS);
+        if (plain && c == String.class) {
+            return new KeyExtractor() {
+                @Override
+                public String key(Object value) {
+                    return (String) value;
+                }
+            };
+        }
+        if (plain && (c == Integer.class || c == Long.class || c == Short.class || c == Byte.class)) {
+            return new KeyExtractor() {
+                @Override
+                public String key(Object value) {
+                    return value.toString();
+                }
+            };
+        }
+        return new KeyExtractor() {
+            private final ConcurrentMap<Object,String> memo = new ConcurrentHashMap<Object,String>();
+
+            @Override
+            public String key(Object value) throws IOException {
+                String ret = memo.get(value);
+                if (ret == null) {
+                    ret = serializeKey(serializer, value);
+                    if (memo.size() < MAX_MEMOIZED_KEYS) {
+                        memo.put(value, ret);
+                    }
+                }
+                return ret;
+            }
+        };
+    }
+
+    private String serializeKey(JsonSerializer<Object> serializer, Object value) throws IOException {
+        SerializerProvider provider = om.getSerializerProviderInstance();
+        TokenBuffer buf = new TokenBuffer(om, false);
+        buf.writeStartObject();
+        serializer.serialize(value, buf, provider);
+        buf.writeNumber(0);
+        buf.writeEndObject();
+        JsonParser p = buf.asParser();
+        p.nextToken();
+        p.nextToken();
+        return p.getCurrentName();
+    }
+}
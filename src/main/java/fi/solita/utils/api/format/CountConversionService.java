@@ -1,11 +1,13 @@
 package fi.solita.utils.api.format;
 
-import static fi.solita.utils.functional.Functional.size;
-
 import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 
+import fi.solita.utils.api.util.CountableData;
+import fi.solita.utils.functional.ApplyZero;
+
 public class CountConversionService {
 
     public byte[] serialize(Map<?,?> obj) {
@@ -17,7 +19,26 @@ public class CountConversionService {
     }
     
     public byte[] serialize(Iterable<?> obj) {
-        return Long.toString(size(obj)).getBytes(Charset.forName("UTF-8"));
+        return Long.toString(count(obj)).getBytes(Charset.forName("UTF-8"));
+    }
+    
+    /**
+     * Counts without fetching the data if the supplier is {@link CountableData}.
+     * Otherwise the data is fetched, and iterated without retaining the elements if it's not a Collection or a Map.
+     */
+    public byte[] serialize(ApplyZero<?> data) {
+        if (data instanceof CountableData) {
+            return Long.toString(((CountableData<?>) data).count()).getBytes(Charset.forName("UTF-8"));
+        }
+        Object obj = data.get();
+        if (obj instanceof Map) {
+            return serialize((Map<?,?>) obj);
+        } else if (obj instanceof Collection) {
+            return serialize((Collection<?>) obj);
+        } else if (obj instanceof Iterable) {
+            return serialize((Iterable<?>) obj);
+        }
+        return serialize(obj);
     }
     
     /**
@@ -26,4 +47,15 @@ public class CountConversionService {
     public byte[] serialize(Object obj) {
         return Integer.toString(1).getBytes(Charset.forName("UTF-8"));
     }
-}
\ No newline at end of file
+    
+    static long count(Iterable<?> obj) {
+        if (obj instanceof Collection) {
+            return ((Collection<?>) obj).size();
+        }
+        long ret = 0;
+        for (Iterator<?> it = obj.iterator(); it.hasNext(); it.next()) {
+            ++ret;
+        }
+        return ret;
+    }
+}
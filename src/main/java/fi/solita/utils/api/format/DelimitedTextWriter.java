@@ -0,0 +1,161 @@
+package fi.solita.utils.api.format;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes rows of delimited text (CSV, TSV) directly to an OutputStream.
+ * Cells are escaped in a single pass and encoded as UTF-8 into a reusable buffer,
+ * so no intermediate Strings are created for the rows.
+ *
+ * Rows are separated by CRLF, without a trailing line separator.
+ */
+public final class DelimitedTextWriter {
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    /**
+     * Cells surrounded with double quotes and separated with a comma. Double quotes are escaped by doubling them.
+     */
+    public static DelimitedTextWriter csv(OutputStream out) {
+        return new DelimitedTextWriter(out, ',', true);
+    }
+    
+    /**
+     * Cells separated with a tab. Tabs are escaped as \t.
+     */
+    public static DelimitedTextWriter tsv(OutputStream out) {
+        return new DelimitedTextWriter(out, '\t', false);
+    }
+    
+    private final OutputStream out;
+    private final char separator;
+    private final boolean quoted;
+    
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private boolean firstRow = true;
+    
+    private DelimitedTextWriter(OutputStream out, char separator, boolean quoted) {
+        this.out = out;
+        this.separator = separator;
+        this.quoted = quoted;
+    }
+    
+    /**
+     * A row without any cells is written as a single empty cell.
+     */
+    public DelimitedTextWriter writeRow(Iterable<? extends CharSequence> cells) throws IOException {
+        if (!firstRow) {
+            writeAscii('\r');
+            writeAscii('\n');
+        }
+        firstRow = false;
+    
+        boolean first = true;
+        for (CharSequence cell: cells) {
+            if (!first) {
+                writeAscii(separator);
+            }
+            first = false;
+            writeCell(cell);
+        }
+        if (first && quoted) {
+            writeCell("");
+        }
+        return this;
+    }
+    
+    /**
+     * Writes the buffered content to the underlying stream and flushes it. Does not close the stream.
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+    
+    private void writeCell(CharSequence cell) throws IOException {
+        if (quoted) {
+            writeAscii('"');
+        }
+        int length = cell.length();
+        for (int i = 0; i < length; ++i) {
+            char c = cell.charAt(i);
+            switch (c) {
+                case '\\':
+                    writeAscii('\\');
+                    writeAscii('\\');
+                    break;
+                case '\r':
+                    writeAscii('\\');
+                    writeAscii('r');
+                    break;
+                case '\n':
+                    writeAscii('\\');
+                    writeAscii('n');
+                    break;
+                case '"':
+                    if (quoted) {
+                        writeAscii('"');
+                    }
+                    writeAscii('"');
+                    break;
+                case '\t':
+                    if (!quoted) {
+                        writeAscii('\\');
+                        writeAscii('t');
+                    } else {
+                        writeAscii('\t');
+                    }
+                    break;
+                default:
+                    if (c < 0x80) {
+                        writeAscii(c);
+                    } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(cell.charAt(i + 1))) {
+                        writeCodePoint(Character.toCodePoint(c, cell.charAt(++i)));
+                    } else if (Character.isSurrogate(c)) {
+                        // unpaired surrogate, replaced like String.getBytes does
+                        writeAscii('?');
+                    } else {
+                        writeCodePoint(c);
+                    }
+            }
+        }
+        if (quoted) {
+            writeAscii('"');
+        }
+    }
+    
+    private void writeAscii(char c) throws IOException {
+        if (pos == buf.length) {
+            flushBuffer();
+        }
+        buf[pos++] = (byte) c;
+    }
+    
+    private void writeCodePoint(int cp) throws IOException {
+        if (pos + 4 > buf.length) {
+            flushBuffer();
+        }
+        if (cp < 0x800) {
+            buf[pos++] = (byte) (0xC0 | (cp >> 6));
+            buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            buf[pos++] = (byte) (0xE0 | (cp >> 12));
+            buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+        } else {
+            buf[pos++] = (byte) (0xF0 | (cp >> 18));
+            buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+        }
+    }
+    
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+}
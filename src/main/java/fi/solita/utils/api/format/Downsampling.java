@@ -0,0 +1,71 @@
+package fi.solita.utils.api.format;
+
+import fi.solita.utils.api.util.Assert;
+
+/**
+ * Reduces the number of points of a series while keeping its visual shape.
+ */
+public abstract class Downsampling {
+
+    /**
+     * Largest-Triangle-Three-Buckets (Steinarsson 2013). The first and last points are always kept,
+     * and from each bucket in between the point forming the largest triangle with the previously
+     * selected point and the average of the next bucket.
+     *
+     * @param x ascending
+     * @param threshold number of points to keep, at least 3
+     * @return indices of the kept points, ascending. All indices if there are no more than <i>threshold</i> points.
+     */
+    public static int[] lttb(double[] x, double[] y, int threshold) {
+        Assert.equal(x.length, y.length);
+        Assert.True(threshold >= 3, "Threshold must be at least 3");
+        int n = x.length;
+        if (n <= threshold) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; ++i) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] ret = new int[threshold];
+        int count = 0;
+        ret[count++] = 0;
+
+        // buckets between the first and the last point
+        double bucketSize = (double) (n - 2) / (threshold - 2);
+        int a = 0;
+        for (int bucket = 0; bucket < threshold - 2; ++bucket) {
+            int start = (int) Math.floor(bucket * bucketSize) + 1;
+            int end = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+
+            int nextStart = end;
+            int nextEnd = Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, n);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; ++i) {
+                avgX += x[i];
+                avgY += y[i];
+            }
+            int nextCount = nextEnd - nextStart;
+            avgX /= nextCount;
+            avgY /= nextCount;
+
+            double maxArea = -1;
+            int selected = start;
+            for (int i = start; i < end; ++i) {
+                // twice the triangle area, which is enough for comparison
+                double area = Math.abs((x[a] - avgX) * (y[i] - y[a]) - (x[a] - x[i]) * (avgY - y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    selected = i;
+                }
+            }
+            ret[count++] = selected;
+            a = selected;
+        }
+
+        ret[count] = n - 1;
+        return ret;
+    }
+}
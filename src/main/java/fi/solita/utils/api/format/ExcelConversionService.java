@@ -8,19 +8,17 @@ import static fi.solita.utils.functional.Functional.drop;
 import static fi.solita.utils.functional.Functional.filter;
 import static fi.solita.utils.functional.Functional.flatMap;
 import static fi.solita.utils.functional.Functional.flatten;
-import static fi.solita.utils.functional.Functional.isEmpty;
 import static fi.solita.utils.functional.Functional.map;
 import static fi.solita.utils.functional.Functional.size;
 import static fi.solita.utils.functional.Functional.tail;
-import static fi.solita.utils.functional.Functional.zipWithIndex;
 import static fi.solita.utils.functional.FunctionalA.max;
 import static fi.solita.utils.functional.Predicates.equalTo;
 import static fi.solita.utils.functional.Predicates.not;
 import static fi.solita.utils.functional.Transformers.append;
 import static fi.solita.utils.functional.Transformers.prepend;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.AccessibleObject;
 import java.util.Collection;
 import java.util.Iterator;
@@ -31,41 +29,112 @@ import org.apache.poi.ss.usermodel.BorderStyle;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.NumberToTextConverter;
 import org.apache.poi.ss.util.WorkbookUtil;
-import org.apache.poi.xssf.usermodel.XSSFFont;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import fi.solita.utils.api.base.excel.ExcelModule;
 import fi.solita.utils.api.base.excel.ExcelSerializer.Cells;
 import fi.solita.utils.api.util.Assert;
 import fi.solita.utils.api.util.MemberUtil;
 import fi.solita.utils.api.util.MemberUtil_;
+import fi.solita.utils.api.util.StreamingOutput;
 import fi.solita.utils.functional.ApplyBi;
 import fi.solita.utils.functional.Option;
 import fi.solita.utils.functional.Pair;
-import fi.solita.utils.functional.Tuple2;
 import fi.solita.utils.meta.MetaNamedMember;
 
 public class ExcelConversionService {
 
+    /**
+     * Number of rows kept in memory while writing. The rest are flushed to a temporary file.
+     */
+    public static final int DEFAULT_ROW_WINDOW = 100;
+    
+    static final int WIDTH_SAMPLE_ROWS = 100;
+    static final int MAX_COLUMN_WIDTH = 255;
+    static final int MAX_ROW_HEIGHT = 409 * 20;
+    
     private final ExcelModule module;
+    private final int rowWindow;
+    private final boolean lightweightWriter;
 
     public ExcelConversionService(ExcelModule module) {
+        this(module, DEFAULT_ROW_WINDOW);
+    }
+    
+    /**
+     * @param rowWindow number of rows kept in memory while writing the workbook, or -1 to keep every row in memory.
+     */
+    public ExcelConversionService(ExcelModule module, int rowWindow) {
+        this(module, rowWindow, false);
+    }
+    
+    /**
+     * @param lightweightWriter write the sheet XML directly with {@link XlsxWriter} instead of building it with POI.
+     *                          Meant for plain tabular data: strings, numbers, booleans and dates.
+     */
+    public ExcelConversionService(ExcelModule module, boolean lightweightWriter) {
+        this(module, DEFAULT_ROW_WINDOW, lightweightWriter);
+    }
+    
+    /**
+     * @param rowWindow number of rows kept in memory while writing the workbook, or -1 to keep every row in memory.
+     *                  Not used by the lightweight writer, which never keeps more than one row.
+     * @param lightweightWriter write the sheet XML directly with {@link XlsxWriter} instead of building it with POI.
+     */
+    public ExcelConversionService(ExcelModule module, int rowWindow, boolean lightweightWriter) {
         this.module = module;
+        this.rowWindow = rowWindow;
+        this.lightweightWriter = lightweightWriter;
     }
     
     public <T> Pair<byte[],Map<String,String>> serialize(String filename, T obj, final Iterable<? extends MetaNamedMember<T, ?>> members) {
-        return serialize(filename, newList(obj), members);
+        return StreamingOutput.materialize(serializeStreaming(filename, obj, members));
     }
     
     public <T> Pair<byte[],Map<String,String>> serialize(String filename, T[] obj) {
-        return serialize(filename, newList(obj));
+        return StreamingOutput.materialize(serializeStreaming(filename, obj));
     }
     
     public <T> Pair<byte[],Map<String,String>> serialize(String filename, final Iterable<T> obj) {
-        return serialize(filename, newList(obj), newList(new MetaNamedMember<T, T>() {
+        return StreamingOutput.materialize(serializeStreaming(filename, obj));
+    }
+    
+    public <T> Pair<byte[],Map<String,String>> serialize(String filename, final Collection<T> obj, final Iterable<? extends MetaNamedMember<T, ?>> members) {
+        return StreamingOutput.materialize(serializeStreaming(filename, obj, members));
+    }
+    
+    public <K,V> Pair<byte[],Map<String,String>> serialize(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+        return StreamingOutput.materialize(serializeStreaming(filename, obj, members));
+    }
+    
+    public <K,V> Pair<byte[],Map<String,String>> serializeSingle(String filename, final Map<K,V> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+        return StreamingOutput.materialize(serializeSingleStreaming(filename, obj, members));
+    }
+    
+    public <K,V> Pair<byte[],Map<String,String>> serializeWithKey(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+        return StreamingOutput.materialize(serializeWithKeyStreaming(filename, obj, members));
+    }
+    
+    public <K,V> Pair<byte[],Map<String,String>> serializeWithKey(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members, final MetaNamedMember<? super V,?> key) {
+        return StreamingOutput.materialize(serializeWithKeyStreaming(filename, obj, members, key));
+    }
+    
+    public <T> Pair<StreamingOutput,Map<String,String>> serializeStreaming(String filename, T obj, final Iterable<? extends MetaNamedMember<T, ?>> members) {
+        return serializeStreaming(filename, newList(obj), members);
+    }
+    
+    public <T> Pair<StreamingOutput,Map<String,String>> serializeStreaming(String filename, T[] obj) {
+        return serializeStreaming(filename, newList(obj));
+    }
+    
+    public <T> Pair<StreamingOutput,Map<String,String>> serializeStreaming(String filename, final Iterable<T> obj) {
+        return serializeStreaming(filename, newList(obj), newList(new MetaNamedMember<T, T>() {
             @Override
             public T apply(T t) {
                 return t;
@@ -83,20 +152,23 @@ public class ExcelConversionService {
         }));
     }
     
-    public <T> Pair<byte[],Map<String,String>> serialize(String filename, final Collection<T> obj, final Iterable<? extends MetaNamedMember<T, ?>> members) {
-        return serialize(filename, header(members), map(ExcelConversionService_.<T>regularBodyRow().ap(members), obj));
+    /**
+     * @param obj rows, iterated only while writing. May be lazy.
+     */
+    public <T> Pair<StreamingOutput,Map<String,String>> serializeStreaming(String filename, final Iterable<T> obj, final Iterable<? extends MetaNamedMember<T, ?>> members) {
+        return serializeStreaming(filename, header(members), map(ExcelConversionService_.<T>regularBodyRow().ap(members), obj));
     }
 
-    public <K,V> Pair<byte[],Map<String,String>> serialize(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
-        return serialize(filename, header(members), map(ExcelConversionService_.<V>regularBodyRow().ap(members), flatten(obj.values())));
+    public <K,V> Pair<StreamingOutput,Map<String,String>> serializeStreaming(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+        return serializeStreaming(filename, header(members), map(ExcelConversionService_.<V>regularBodyRow().ap(members), flatten(obj.values())));
     }
     
-    public <K,V> Pair<byte[],Map<String,String>> serializeSingle(String filename, final Map<K,V> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
-        return serialize(filename, header(members), map(ExcelConversionService_.<V>regularBodyRow().ap(members), obj.values()));
+    public <K,V> Pair<StreamingOutput,Map<String,String>> serializeSingleStreaming(String filename, final Map<K,V> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+        return serializeStreaming(filename, header(members), map(ExcelConversionService_.<V>regularBodyRow().ap(members), obj.values()));
     }
     
     @SuppressWarnings("unchecked")
-    public <K,V> Pair<byte[],Map<String,String>> serializeWithKey(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+    public <K,V> Pair<StreamingOutput,Map<String,String>> serializeWithKeyStreaming(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
         Iterable<? extends MetaNamedMember<V,Object>> headers = (Iterable<MetaNamedMember<V,Object>>)members;
         // empty header if there's no simple key. This is a bit too hackish...
         headers = cons(new MetaNamedMember<V, Object>() {
@@ -113,49 +185,63 @@ public class ExcelConversionService {
                 return "";
             }
         }, (Iterable<MetaNamedMember<V,Object>>)members);
-        return serialize(filename, header(headers), mapBody(obj, (Iterable<MetaNamedMember<V,Object>>)members));
+        return serializeStreaming(filename, header(headers), mapBody(obj, (Iterable<MetaNamedMember<V,Object>>)members));
     }
     
     @SuppressWarnings("unchecked")
-    public <K,V> Pair<byte[],Map<String,String>> serializeWithKey(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members, final MetaNamedMember<? super V,?> key) {
+    public <K,V> Pair<StreamingOutput,Map<String,String>> serializeWithKeyStreaming(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members, final MetaNamedMember<? super V,?> key) {
         Iterable<? extends MetaNamedMember<V,Object>> headers = (Iterable<MetaNamedMember<V,Object>>)members;
         members = filter(not(equalTo((MetaNamedMember<V,Object>)key)), (Iterable<MetaNamedMember<V,Object>>)members);
         headers = cons((MetaNamedMember<V,Object>)key, (Iterable<MetaNamedMember<V,Object>>)members);
-        return serialize(filename, header(headers), mapBody(obj, (Iterable<MetaNamedMember<V,Object>>)members));
+        return serializeStreaming(filename, header(headers), mapBody(obj, (Iterable<MetaNamedMember<V,Object>>)members));
+    }
+    
+    private Pair<StreamingOutput,Map<String,String>> serializeStreaming(final String filename, final Iterable<String> tableHeader, final Iterable<Iterable<Pair<Object,Class<Object>>>> tableBody) {
+        return Pair.<StreamingOutput,Map<String,String>>of(new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                if (lightweightWriter) {
+                    serializeLightweight(out, filename, tableHeader, tableBody);
+                } else {
+                    serialize(out, filename, tableHeader, tableBody);
+                }
+            }
+        }, newMap(Pair.of("Content-Disposition", "attachment; filename=" + filename + ".xlsx")));
     }
     
-    private Pair<byte[],Map<String,String>> serialize(String filename, Iterable<String> tableHeader, Iterable<Iterable<Pair<Object,Class<Object>>>> tableBody) {
-        XSSFWorkbook wb = new XSSFWorkbook();
+    private void serialize(OutputStream out, String filename, Iterable<String> tableHeader, Iterable<Iterable<Pair<Object,Class<Object>>>> tableBody) throws IOException {
+        SXSSFWorkbook wb = new SXSSFWorkbook(rowWindow);
+        wb.setCompressTempFiles(true);
         String safeName = WorkbookUtil.createSafeSheetName(filename);
         Sheet sheet = wb.createSheet(safeName);
 
         CellStyle headerStyle = wb.createCellStyle();
         headerStyle.setBorderBottom(BorderStyle.THIN);
-        XSSFFont headerFont = wb.createFont();
+        Font headerFont = wb.createFont();
         headerFont.setBold(true);
         headerStyle.setFont(headerFont);
         
         CellStyle wrapStyle = wb.createCellStyle();
         wrapStyle.setWrapText(true);
         
-        Row header = sheet.createRow((short)0);
+        Row header = sheet.createRow(0);
         header.setRowStyle(headerStyle);
-        for (Tuple2<Integer, Iterable<Pair<Object,Class<Object>>>> r: zipWithIndex(tableBody)) {
-            Row row = sheet.createRow((short)(int)r._1 + 1);
-            int column = 0;
-            List<Cells> rowCells = newMutableList();
-            for (Pair<Object,Class<Object>> c: r._2) {
-                Cells cells = module.serialize(row, column, c._1, c._2);
-                column += cells.cells.size();
-                rowCells.add(cells);
-            }
-            for (Cell c: newList(drop(column, row))) {
-                // poistetaan ylimääräiset, sillä sarjallistus on saattanut niitä luoda ennenkuin ne on typistetty yhdeksi, esim collectionien tapauksessa :(
-                row.removeCell(c);
-            }
-            if (isEmpty(header)) {
+        int[] widths = null;
+        int rowIndex = 0;
+        for (Iterable<Pair<Object,Class<Object>>> r: tableBody) {
+            rowIndex += 1;
+            Row row = sheet.createRow(rowIndex);
+            List<Cells> rowCells = serializeRow(row, r);
+            if (widths == null) {
                 createHeader(tableHeader, rowCells, header, headerStyle);
+                // no cells at all without any included columns
+                widths = new int[Math.max(0, header.getLastCellNum())];
+                for (Cell cell: header) {
+                    // bold text needs a bit more room
+                    widths[cell.getColumnIndex()] = estimatedWidth(cell) + 1;
+                }
             }
+            Assert.equal(size(header), size(row));
             
             int maxLines = 1;
             for (Cell cell: row) {
@@ -163,26 +249,161 @@ public class ExcelConversionService {
                     cell.setCellStyle(wrapStyle);
                     maxLines = max(maxLines, cell.getStringCellValue().split("\r\n").length);
                 }
+                if (rowIndex <= WIDTH_SAMPLE_ROWS) {
+                    widths[cell.getColumnIndex()] = max(widths[cell.getColumnIndex()], estimatedWidth(cell));
+                }
             }
-            row.setHeight((short)(row.getHeight() * maxLines));
-            
-            Assert.equal(size(header), size(row));
+            row.setHeight((short)Math.min(row.getHeight() * maxLines, MAX_ROW_HEIGHT));
         }
         
-        for (int c = 0; c < header.getLastCellNum(); ++c) {
-            sheet.autoSizeColumn(c);
+        if (widths != null) {
+            int[] columnWidths = columnWidths(widths);
+            for (int c = 0; c < columnWidths.length; ++c) {
+                sheet.setColumnWidth(c, columnWidths[c] * 256);
+            }
         }
         
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
             wb.write(out);
-            out.close();
+        } finally {
+            wb.dispose();
             wb.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
-        
-        return Pair.of(out.toByteArray(), newMap(Pair.of("Content-Disposition", "attachment; filename=" + filename + ".xlsx")));
+    }
+    
+    /**
+     * The ExcelModule serializers still produce POI cells, but only into a scratch row which is
+     * removed as soon as it has been written out. No workbook is built for the actual content.
+     */
+    private void serializeLightweight(OutputStream out, String filename, Iterable<String> tableHeader, Iterable<Iterable<Pair<Object,Class<Object>>>> tableBody) throws IOException {
+        // rows are removed right after writing, so nothing is ever flushed to a temp file
+        SXSSFWorkbook scratch = new SXSSFWorkbook(-1);
+        try {
+            SXSSFSheet sheet = scratch.createSheet();
+            CellStyle scratchStyle = scratch.createCellStyle();
+            XlsxWriter writer = new XlsxWriter(out, WorkbookUtil.createSafeSheetName(filename));
+            
+            int[] widths = null;
+            int rowIndex = 0;
+            for (Iterable<Pair<Object,Class<Object>>> r: tableBody) {
+                rowIndex += 1;
+                Row row = sheet.createRow(rowIndex);
+                List<Cells> rowCells = serializeRow(row, r);
+                if (widths == null) {
+                    Row header = sheet.createRow(0);
+                    createHeader(tableHeader, rowCells, header, scratchStyle);
+                    widths = new int[Math.max(0, header.getLastCellNum())];
+                    for (Cell cell: header) {
+                        widths[cell.getColumnIndex()] = estimatedWidth(cell) + 1;
+                    }
+                    writeRow(writer, header, true);
+                    sheet.removeRow(header);
+                }
+                Assert.equal(widths.length, size(row));
+                
+                if (rowIndex <= WIDTH_SAMPLE_ROWS) {
+                    for (Cell cell: row) {
+                        widths[cell.getColumnIndex()] = max(widths[cell.getColumnIndex()], estimatedWidth(cell));
+                    }
+                }
+                if (rowIndex == WIDTH_SAMPLE_ROWS) {
+                    writer.setColumnWidths(columnWidths(widths));
+                }
+                writeRow(writer, row, false);
+                sheet.removeRow(row);
+            }
+            
+            if (widths == null) {
+                // no rows, just an empty header like with POI
+                writer.startRow(1);
+                writer.endRow();
+            } else if (rowIndex < WIDTH_SAMPLE_ROWS) {
+                writer.setColumnWidths(columnWidths(widths));
+            }
+            writer.finish();
+        } finally {
+            scratch.dispose();
+            scratch.close();
+        }
+    }
+    
+    /**
+     * Serializes the values of a single row into the cells of <i>row</i>.
+     *
+     * @return the serialized cells of each value, for the header.
+     */
+    private List<Cells> serializeRow(Row row, Iterable<Pair<Object,Class<Object>>> values) {
+        int column = 0;
+        List<Cells> rowCells = newMutableList();
+        for (Pair<Object,Class<Object>> c: values) {
+            Cells cells = module.serialize(row, column, c._1, c._2);
+            column += cells.cells.size();
+            rowCells.add(cells);
+        }
+        for (Cell c: newList(drop(column, row))) {
+            // poistetaan ylimääräiset, sillä sarjallistus on saattanut niitä luoda ennenkuin ne on typistetty yhdeksi, esim collectionien tapauksessa :(
+            row.removeCell(c);
+        }
+        return rowCells;
+    }
+    
+    private static int[] columnWidths(int[] estimatedWidths) {
+        int[] ret = new int[estimatedWidths.length];
+        for (int c = 0; c < ret.length; ++c) {
+            ret[c] = Math.min(estimatedWidths[c] + 2, MAX_COLUMN_WIDTH);
+        }
+        return ret;
+    }
+    
+    private static void writeRow(XlsxWriter writer, Row row, boolean header) throws IOException {
+        int maxLines = 1;
+        for (Cell cell: row) {
+            if (cell.getCellType().equals(CellType.STRING)) {
+                maxLines = max(maxLines, cell.getStringCellValue().split("\r\n").length);
+            }
+        }
+        writer.startRow(maxLines);
+        for (Cell cell: row) {
+            int column = cell.getColumnIndex();
+            switch (cell.getCellType()) {
+                case STRING:
+                    writer.stringCell(column, cell.getStringCellValue(), header ? XlsxWriter.STYLE_HEADER : XlsxWriter.STYLE_WRAP);
+                    break;
+                case NUMERIC:
+                    CellStyle columnStyle = cell.getSheet().getColumnStyle(column);
+                    writer.numericCell(column, cell.getNumericCellValue(), columnStyle == null ? XlsxWriter.STYLE_DEFAULT : XlsxWriter.numericStyle(columnStyle.getDataFormatString()));
+                    break;
+                case BOOLEAN:
+                    writer.booleanCell(column, cell.getBooleanCellValue(), XlsxWriter.STYLE_DEFAULT);
+                    break;
+                default:
+                    // blank, formula and error cells are left empty
+            }
+        }
+        writer.endRow();
+    }
+    
+    /**
+     * Approximate width of the cell content in characters. Used instead of {@link Sheet#autoSizeColumn(int)},
+     * which would need font metrics for every row.
+     */
+    static int estimatedWidth(Cell cell) {
+        switch (cell.getCellType()) {
+            case STRING:
+                int ret = 0;
+                for (String line: cell.getStringCellValue().split("\r\n")) {
+                    ret = max(ret, line.length());
+                }
+                return ret;
+            case NUMERIC:
+                CellStyle columnStyle = cell.getSheet().getColumnStyle(cell.getColumnIndex());
+                String format = columnStyle == null ? "" : columnStyle.getDataFormatString();
+                return max(format == null ? 0 : format.length(), NumberToTextConverter.toText(cell.getNumericCellValue()).length());
+            case BOOLEAN:
+                return 5;
+            default:
+                return 0;
+        }
     }
     
     private void createHeader(Iterable<String> tableHeader, Iterable<Cells> row, Row header, CellStyle headerStyle) {
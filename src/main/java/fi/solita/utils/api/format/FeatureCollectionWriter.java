@@ -0,0 +1,90 @@
+package fi.solita.utils.api.format;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import fi.solita.utils.api.format.geojson.CoordinatePrecision;
+import fi.solita.utils.api.format.geojson.Crs;
+import fi.solita.utils.api.format.geojson.FeatureObject;
+import fi.solita.utils.api.util.StreamingOutput;
+import fi.solita.utils.functional.Option;
+
+/**
+ * Writes a GeoJSON FeatureCollection one feature at a time with a single generator,
+ * so that the features never need to be in memory all at once.
+ */
+public final class FeatureCollectionWriter {
+    
+    public static StreamingOutput streaming(JsonConversionService geoJson, Iterable<? extends FeatureObject> features, Option<Crs> crs) {
+        return streaming(geoJson, features, crs, Option.<Integer>None());
+    }
+    
+    /**
+     * @param coordinateDecimals number of decimals for geometry coordinates, see {@link CoordinatePrecision}
+     */
+    public static StreamingOutput streaming(final JsonConversionService geoJson, final Iterable<? extends FeatureObject> features, final Option<Crs> crs, final Option<Integer> coordinateDecimals) {
+        return new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                new FeatureCollectionWriter(geoJson, out, crs, coordinateDecimals).writeAll(features).finish();
+            }
+        };
+    }
+    
+    private final ObjectWriter writer;
+    private final JsonGenerator gen;
+    
+    /**
+     * Writes the collection header immediately.
+     */
+    public FeatureCollectionWriter(JsonConversionService geoJson, OutputStream out, Option<Crs> crs) throws IOException {
+        this(geoJson, out, crs, Option.<Integer>None());
+    }
+    
+    /**
+     * Writes the collection header immediately.
+     *
+     * @param coordinateDecimals number of decimals for geometry coordinates, see {@link CoordinatePrecision}
+     */
+    public FeatureCollectionWriter(JsonConversionService geoJson, OutputStream out, Option<Crs> crs, Option<Integer> coordinateDecimals) throws IOException {
+        ObjectWriter w = geoJson.streamingWriter().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.writer = coordinateDecimals.isDefined() ? w.withAttribute(CoordinatePrecision.ATTRIBUTE, coordinateDecimals.get()) : w;
+        this.gen = writer.createGenerator(out, JsonEncoding.UTF8);
+        gen.writeStartObject();
+        gen.writeStringField("type", "FeatureCollection");
+        if (crs.isDefined()) {
+            gen.writeFieldName("crs");
+            writer.writeValue(gen, crs.get());
+        }
+        gen.writeArrayFieldStart("features");
+    }
+    
+    public FeatureCollectionWriter write(FeatureObject feature) throws IOException {
+        writer.writeValue(gen, feature);
+        return this;
+    }
+    
+    /**
+     * Features are consumed one by one, so a lazy Iterable is never realized.
+     */
+    public FeatureCollectionWriter writeAll(Iterable<? extends FeatureObject> features) throws IOException {
+        for (FeatureObject feature: features) {
+            write(feature);
+        }
+        return this;
+    }
+    
+    /**
+     * Closes the collection and flushes. Does not close the underlying stream.
+     */
+    public void finish() throws IOException {
+        gen.writeEndArray();
+        gen.writeEndObject();
+        gen.close();
+    }
+}
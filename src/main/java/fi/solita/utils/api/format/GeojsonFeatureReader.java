@@ -0,0 +1,476 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.newMutableLinkedMap;
+import static fi.solita.utils.functional.Collections.newMutableList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geojson.feature.FeatureJSON;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.solita.utils.functional.Option;
+
+/**
+ * Reads a GeoJSON FeatureCollection (or a single Feature) in a single streaming pass, building JTS geometries
+ * and attributes feature by feature straight from the bytes. The CRS is picked up in the same pass.
+ *
+ * The resulting collection builds its SimpleFeatures only when iterated, and knows its bounds beforehand.
+ *
+ * If the attributes referenced by the style are known, only those are kept, and the <i>json</i> attribute
+ * is built (on first access of each feature) only if referenced.
+ */
+final class GeojsonFeatureReader {
+
+    static final String TYPE_NAME = "features";
+    static final String GEOMETRY = "geometry";
+    static final String JSON = "json";
+
+    private static final GeometryFactory gf = new GeometryFactory();
+
+    private final ObjectMapper om;
+    private final Option<Set<String>> referencedAttributes;
+
+    GeojsonFeatureReader(ObjectMapper om) {
+        this(om, Option.<Set<String>>None());
+    }
+
+    /**
+     * @param referencedAttributes attribute names to include, or None for all.
+     */
+    GeojsonFeatureReader(ObjectMapper om, Option<Set<String>> referencedAttributes) {
+        this.om = om;
+        this.referencedAttributes = referencedAttributes;
+    }
+
+    private boolean includesJson() {
+        return !referencedAttributes.isDefined() || referencedAttributes.get().contains(JSON);
+    }
+
+    private boolean includes(String attribute) {
+        return !referencedAttributes.isDefined() || referencedAttributes.get().contains(attribute);
+    }
+
+    private static final class ParsedFeature {
+        String id;
+        Geometry geometry;
+        Map<String,Object> properties = newMutableLinkedMap();
+    }
+
+    /**
+     * @return features with a <i>geometry</i> attribute, an attribute for each (included) property,
+     *         and (if included) a <i>json</i> attribute containing all properties as a JSON object, to be accessed from SLD with jsonPointer.
+     */
+    public Features read(InputStream in) throws IOException {
+        List<ParsedFeature> features = newMutableList();
+        String crs = null;
+        ParsedFeature topLevel = new ParsedFeature();
+        String type = null;
+
+        JsonParser p = om.getFactory().createParser(in);
+        try {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a GeoJSON object");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken t = p.nextToken();
+                if (field.equals("type")) {
+                    type = p.getValueAsString();
+                } else if (field.equals("crs") && t == JsonToken.START_OBJECT) {
+                    crs = p.readValueAsTree().toString();
+                } else if (field.equals("features") && t == JsonToken.START_ARRAY) {
+                    while (p.nextToken() == JsonToken.START_OBJECT) {
+                        features.add(readFeature(p));
+                    }
+                } else if (!readFeatureField(p, field, t, topLevel)) {
+                    p.skipChildren();
+                }
+            }
+        } finally {
+            p.close();
+        }
+        if ("Feature".equals(type)) {
+            features.add(topLevel);
+        }
+
+        // "GeoJSON is always WGS84" my ass!
+        CoordinateReferenceSystem coordinateSystem = crs == null ? null : new FeatureJSON().readCRS("{\"crs\":" + crs + "}");
+        return toCollection(features, coordinateSystem);
+    }
+
+    private ParsedFeature readFeature(JsonParser p) throws IOException {
+        ParsedFeature ret = new ParsedFeature();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken t = p.nextToken();
+            if (!readFeatureField(p, field, t, ret)) {
+                p.skipChildren();
+            }
+        }
+        return ret;
+    }
+
+    private boolean readFeatureField(JsonParser p, String field, JsonToken t, ParsedFeature feature) throws IOException {
+        if (field.equals("id") && t.isScalarValue()) {
+            feature.id = p.getValueAsString();
+        } else if (field.equals(GEOMETRY)) {
+            feature.geometry = t == JsonToken.START_OBJECT ? readGeometry(p) : null;
+            p.skipChildren();
+        } else if (field.equals("properties") && t == JsonToken.START_OBJECT) {
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                p.nextToken();
+                if (!name.isEmpty() && (includesJson() || includes(name))) {
+                    feature.properties.put(name, readValue(p));
+                } else {
+                    p.skipChildren();
+                }
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static Object readValue(JsonParser p) throws IOException {
+        switch (p.currentToken()) {
+            case VALUE_STRING:
+                return p.getText();
+            case VALUE_NUMBER_INT:
+                return p.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return p.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case START_OBJECT:
+            case START_ARRAY:
+                return p.readValueAsTree();
+            default:
+                return null;
+        }
+    }
+
+    private Geometry readGeometry(JsonParser p) throws IOException {
+        String type = null;
+        Object coordinates = null;
+        List<Geometry> geometries = newMutableList();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken t = p.nextToken();
+            if (field.equals("type")) {
+                type = p.getValueAsString();
+            } else if (field.equals("coordinates") && t == JsonToken.START_ARRAY) {
+                coordinates = readCoordinates(p);
+            } else if (field.equals("geometries") && t == JsonToken.START_ARRAY) {
+                while (p.nextToken() == JsonToken.START_OBJECT) {
+                    geometries.add(readGeometry(p));
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+        if (type == null) {
+            throw new IOException("Geometry without a type");
+        }
+        return toGeometry(type, coordinates, geometries);
+    }
+
+    /**
+     * @return position as a double[], or a List of nested coordinates.
+     */
+    private static Object readCoordinates(JsonParser p) throws IOException {
+        JsonToken t = p.nextToken();
+        if (t != null && t.isNumeric()) {
+            double[] position = new double[3];
+            int n = 0;
+            for (; t != JsonToken.END_ARRAY; t = p.nextToken()) {
+                if (n < position.length) {
+                    position[n] = p.getDoubleValue();
+                }
+                n++;
+            }
+            return n == 2 ? new double[] {position[0], position[1]} : position;
+        }
+        List<Object> ret = newMutableList();
+        for (; t == JsonToken.START_ARRAY; t = p.nextToken()) {
+            ret.add(readCoordinates(p));
+        }
+        return ret;
+    }
+
+    private static Geometry toGeometry(String type, Object c, List<Geometry> geometries) throws IOException {
+        if (type.equals("GeometryCollection")) {
+            return gf.createGeometryCollection(geometries.toArray(new Geometry[geometries.size()]));
+        }
+        if (c == null) {
+            throw new IOException("Geometry without coordinates: " + type);
+        }
+        switch (type) {
+            case "Point":
+                return c instanceof double[] ? gf.createPoint(coordinate((double[]) c)) : gf.createPoint();
+            case "LineString":
+                return gf.createLineString(coordinates(c));
+            case "Polygon":
+                return polygon(c);
+            case "MultiPoint":
+                return gf.createMultiPointFromCoords(coordinates(c));
+            case "MultiLineString": {
+                List<?> parts = (List<?>) c;
+                LineString[] lines = new LineString[parts.size()];
+                for (int i = 0; i < lines.length; ++i) {
+                    lines[i] = gf.createLineString(coordinates(parts.get(i)));
+                }
+                return gf.createMultiLineString(lines);
+            }
+            case "MultiPolygon": {
+                List<?> parts = (List<?>) c;
+                Polygon[] polygons = new Polygon[parts.size()];
+                for (int i = 0; i < polygons.length; ++i) {
+                    polygons[i] = polygon(parts.get(i));
+                }
+                return gf.createMultiPolygon(polygons);
+            }
+            default:
+                throw new IOException("Unsupported geometry type: " + type);
+        }
+    }
+
+    private static Polygon polygon(Object c) {
+        List<?> rings = (List<?>) c;
+        if (rings.isEmpty()) {
+            return gf.createPolygon();
+        }
+        LinearRing shell = gf.createLinearRing(coordinates(rings.get(0)));
+        LinearRing[] holes = new LinearRing[rings.size() - 1];
+        for (int i = 0; i < holes.length; ++i) {
+            holes[i] = gf.createLinearRing(coordinates(rings.get(i + 1)));
+        }
+        return gf.createPolygon(shell, holes);
+    }
+
+    private static Coordinate coordinate(double[] position) {
+        return position.length == 2 ? new Coordinate(position[0], position[1]) : new Coordinate(position[0], position[1], position[2]);
+    }
+
+    private static Coordinate[] coordinates(Object c) {
+        List<?> positions = (List<?>) c;
+        Coordinate[] ret = new Coordinate[positions.size()];
+        for (int i = 0; i < ret.length; ++i) {
+            ret[i] = coordinate((double[]) positions.get(i));
+        }
+        return ret;
+    }
+
+    private Features toCollection(final List<ParsedFeature> features, CoordinateReferenceSystem crs) {
+        Map<String,Class<?>> bindings = newMutableLinkedMap();
+        Envelope envelope = new Envelope();
+        for (ParsedFeature f: features) {
+            for (Map.Entry<String,Object> e: f.properties.entrySet()) {
+                if (e.getKey().equals(GEOMETRY) || e.getKey().equals(JSON) || !includes(e.getKey())) {
+                    continue;
+                }
+                Class<?> binding = e.getValue() == null ? null : e.getValue().getClass();
+                if (!bindings.containsKey(e.getKey()) || bindings.get(e.getKey()) == null) {
+                    bindings.put(e.getKey(), binding);
+                } else if (binding != null && binding != bindings.get(e.getKey())) {
+                    bindings.put(e.getKey(), Object.class);
+                }
+            }
+            if (f.geometry != null) {
+                envelope.expandToInclude(f.geometry.getEnvelopeInternal());
+            }
+        }
+
+        SimpleFeatureTypeBuilder ftb = new SimpleFeatureTypeBuilder();
+        ftb.setName(TYPE_NAME);
+        ftb.setCRS(crs);
+        ftb.add(GEOMETRY, Geometry.class);
+        ftb.setDefaultGeometry(GEOMETRY);
+        for (Map.Entry<String,Class<?>> e: bindings.entrySet()) {
+            ftb.add(e.getKey(), e.getValue() == null ? String.class : e.getValue());
+        }
+        final boolean withJson = includesJson();
+        if (withJson) {
+            ftb.add(JSON, String.class);
+        }
+        final SimpleFeatureType ft = ftb.buildFeatureType();
+
+        final String[] json = new String[withJson ? features.size() : 0];
+
+        final ReferencedEnvelope bounds = new ReferencedEnvelope(envelope, crs);
+        List<SimpleFeature> lazyFeatures = new AbstractList<SimpleFeature>() {
+            @Override
+            public SimpleFeature get(int index) {
+                ParsedFeature f = features.get(index);
+                Object[] values = new Object[ft.getAttributeCount()];
+                int propertyCount = withJson ? values.length - 1 : values.length;
+                values[0] = f.geometry;
+                for (int i = 1; i < propertyCount; ++i) {
+                    values[i] = f.properties.get(ft.getDescriptor(i).getLocalName());
+                }
+                if (withJson) {
+                    if (json[index] == null) {
+                        // put all fields into custom "json" attribute so that it can be access from SLD using jsonPointer without property-not-found-errors...
+                        try {
+                            json[index] = om.writeValueAsString(f.properties);
+                        } catch (JsonProcessingException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    values[propertyCount] = json[index];
+                }
+                return SimpleFeatureBuilder.build(ft, values, f.id == null ? TYPE_NAME + "." + index : f.id);
+            }
+
+            @Override
+            public int size() {
+                return features.size();
+            }
+        };
+        List<Geometry> geometries = new AbstractList<Geometry>() {
+            @Override
+            public Geometry get(int index) {
+                return features.get(index).geometry;
+            }
+
+            @Override
+            public int size() {
+                return features.size();
+            }
+        };
+        return new Features(ft, lazyFeatures, geometries, bounds);
+    }
+
+    /**
+     * Features with known bounds, and a spatial index (built on first query) to pick the features of a smaller area.
+     */
+    static final class Features extends ListFeatureCollection {
+        private final List<SimpleFeature> features;
+        private final List<Geometry> geometries;
+        private final ReferencedEnvelope bounds;
+        private volatile STRtree index;
+
+        Features(SimpleFeatureType schema, List<SimpleFeature> features, List<Geometry> geometries, ReferencedEnvelope bounds) {
+            super(schema, features);
+            this.features = features;
+            this.geometries = geometries;
+            this.bounds = bounds;
+        }
+
+        @Override
+        public ReferencedEnvelope getBounds() {
+            return new ReferencedEnvelope(bounds);
+        }
+
+        /**
+         * @return features whose geometry envelope intersects <i>area</i>, in the original (rendering) order.
+         *         Uses the spatial index if built with {@link #indexed()}, otherwise scans through the features.
+         */
+        public Features intersecting(Envelope area) {
+            if (area.covers(bounds)) {
+                return this;
+            }
+            STRtree built = index;
+            final List<Integer> hits = built != null ? query(built, area) : scan(area);
+            Envelope hitBounds = new Envelope();
+            for (int i: hits) {
+                hitBounds.expandToInclude(geometries.get(i).getEnvelopeInternal());
+            }
+            return new Features(getSchema(), new AbstractList<SimpleFeature>() {
+                @Override
+                public SimpleFeature get(int i) {
+                    return features.get(hits.get(i));
+                }
+
+                @Override
+                public int size() {
+                    return hits.size();
+                }
+            }, new AbstractList<Geometry>() {
+                @Override
+                public Geometry get(int i) {
+                    return geometries.get(hits.get(i));
+                }
+
+                @Override
+                public int size() {
+                    return hits.size();
+                }
+            }, new ReferencedEnvelope(hitBounds, bounds.getCoordinateReferenceSystem()));
+        }
+
+        /**
+         * Builds a spatial index for the subsequent queries. Pays off only when querying the same features many times.
+         */
+        public Features indexed() {
+            index();
+            return this;
+        }
+
+        private List<Integer> scan(Envelope area) {
+            List<Integer> ret = newMutableList();
+            for (int i = 0; i < geometries.size(); ++i) {
+                Geometry g = geometries.get(i);
+                if (g != null && !g.isEmpty() && area.intersects(g.getEnvelopeInternal())) {
+                    ret.add(i);
+                }
+            }
+            return ret;
+        }
+
+        private static List<Integer> query(STRtree index, Envelope area) {
+            @SuppressWarnings("unchecked")
+            List<Integer> ret = index.query(area);
+            Collections.sort(ret);
+            return ret;
+        }
+
+        private STRtree index() {
+            STRtree ret = index;
+            if (ret == null) {
+                synchronized (this) {
+                    ret = index;
+                    if (ret == null) {
+                        ret = new STRtree();
+                        for (int i = 0; i < geometries.size(); ++i) {
+                            Geometry g = geometries.get(i);
+                            if (g != null && !g.isEmpty()) {
+                                ret.insert(g.getEnvelopeInternal(), i);
+                            }
+                        }
+                        ret.build();
+                        index = ret;
+                    }
+                }
+            }
+            return ret;
+        }
+    }
+}
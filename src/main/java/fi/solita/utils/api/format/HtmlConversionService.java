@@ -3,8 +3,11 @@ package fi.solita.utils.api.format;
 import static fi.solita.utils.functional.Collections.emptyList;
 import static fi.solita.utils.functional.Collections.emptySet;
 import static fi.solita.utils.functional.Collections.newList;
+import static fi.solita.utils.functional.Collections.newMutableList;
+import static fi.solita.utils.functional.Collections.newMutableMap;
 import static fi.solita.utils.functional.Collections.newSet;
 import static fi.solita.utils.functional.Function.__;
+import static fi.solita.utils.functional.Functional.concat;
 import static fi.solita.utils.functional.Functional.cons;
 import static fi.solita.utils.functional.Functional.filter;
 import static fi.solita.utils.functional.Functional.flatten;
@@ -31,11 +34,15 @@ import static org.rendersnake.HtmlAttributesFactory.rowspan;
 import static org.rendersnake.HtmlAttributesFactory.type;
 import static org.rendersnake.HtmlAttributesFactory.value;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.AccessibleObject;
 import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -47,7 +54,6 @@ import org.rendersnake.DocType;
 import org.rendersnake.HtmlAttributes;
 import org.rendersnake.HtmlCanvas;
 import org.rendersnake.Renderable;
-import org.springframework.util.FastByteArrayOutputStream;
 
 import fi.solita.utils.api.Includes;
 import fi.solita.utils.api.Includes.Include;
@@ -58,9 +64,16 @@ import fi.solita.utils.api.types.Count;
 import fi.solita.utils.api.types.Count_;
 import fi.solita.utils.api.types.SRSName;
 import fi.solita.utils.api.types.StartIndex;
+import fi.solita.utils.api.util.Assert;
+import fi.solita.utils.api.util.EventStreamWriter;
+import fi.solita.utils.api.util.Headers;
 import fi.solita.utils.api.util.MemberUtil;
+import fi.solita.utils.api.util.RequestUtil;
+import fi.solita.utils.api.util.ServletRequestUtil;
 import fi.solita.utils.api.util.ServletRequestUtil.Request;
+import fi.solita.utils.api.util.StreamingOutput;
 import fi.solita.utils.functional.Apply;
+import fi.solita.utils.functional.ApplyZero;
 import fi.solita.utils.functional.Collections;
 import fi.solita.utils.functional.Option;
 import fi.solita.utils.functional.Pair;
@@ -77,12 +90,41 @@ public abstract class HtmlConversionService {
         }
     }
     
+    /**
+     * Number of table rows after which the rendered content is flushed to the client.
+     */
+    public static final int DEFAULT_FLUSH_INTERVAL = 500;
+    
+    /**
+     * Milliseconds between checks for a new version of the data in {@link #serializeRowDiffStreaming}.
+     */
+    public static final int DEFAULT_POLL_INTERVAL = 5000;
+    
+    /**
+     * Request parameter for server-side sorting of windowed tables. Property name, prefixed with '-' for descending order.
+     */
+    public static final String SORT_BY = "sortBy";
+    
+    /**
+     * Id of the table row which loads the next window of a windowed table when scrolled into view.
+     */
+    public static final String NEXT_WINDOW = "next-window";
+    
     protected HtmlModule htmlModule;
     private final boolean sseEnabled;
+    private final int flushInterval;
+    
+    // views with connected Server-Sent Event clients
+    private final Map<String,HtmlRowDiffFeed> feeds = newMutableMap();
 
     public HtmlConversionService(HtmlModule htmlModule, boolean sseEnabled) {
+        this(htmlModule, sseEnabled, DEFAULT_FLUSH_INTERVAL);
+    }
+    
+    public HtmlConversionService(HtmlModule htmlModule, boolean sseEnabled, int flushInterval) {
         this.htmlModule = htmlModule;
         this.sseEnabled = sseEnabled;
+        this.flushInterval = Assert.positive(flushInterval);
     }
 
     public HtmlTitle title(final String title) {
@@ -128,15 +170,47 @@ public abstract class HtmlConversionService {
     }
     
     public <T> byte[] serialize(Request request, HtmlTitle title, T obj, final Includes<T> members) {
-        return serialize(request, title, newList(obj), members);
+        return serializeStreaming(request, title, obj, members).toByteArray();
     }
     
     public <T> byte[] serialize(Request request, HtmlTitle title, T[] obj) {
-        return serialize(request, title, newList(obj));
+        return serializeStreaming(request, title, obj).toByteArray();
     }
     
     public <T> byte[] serialize(Request request, HtmlTitle title, final Iterable<T> obj) {
-        return serialize(request, title, newList(obj), new Includes<T>(newList(new MetaNamedMember<T, T>() {
+        return serializeStreaming(request, title, obj).toByteArray();
+    }
+    
+    public <T> byte[] serialize(Request request, HtmlTitle title, final Collection<T> obj, final Includes<T> members) {
+        return serializeStreaming(request, title, obj, members).toByteArray();
+    }
+    
+    public <K,V> byte[] serialize(Request request, HtmlTitle title, final Map<K,? extends Iterable<V>> obj, Includes<V> members) {
+        return serializeStreaming(request, title, obj, members).toByteArray();
+    }
+    
+    public <K,V> byte[] serializeSingle(Request request, HtmlTitle title, final Map<K,V> obj, Includes<V> members) {
+        return serializeSingleStreaming(request, title, obj, members).toByteArray();
+    }
+    
+    public <K,V> byte[] serializeWithKey(Request request, HtmlTitle title, final Map<K,? extends Iterable<V>> obj, Includes<V> members) {
+        return serializeWithKeyStreaming(request, title, obj, members).toByteArray();
+    }
+    
+    public <K,V> byte[] serializeWithKey(Request request, HtmlTitle title, final Map<K,? extends Iterable<V>> obj, Includes<V> members, final MetaNamedMember<? super V,?> key) {
+        return serializeWithKeyStreaming(request, title, obj, members, key).toByteArray();
+    }
+    
+    public <T> StreamingOutput serializeStreaming(Request request, HtmlTitle title, T obj, final Includes<T> members) {
+        return serializeStreaming(request, title, newList(obj), members);
+    }
+    
+    public <T> StreamingOutput serializeStreaming(Request request, HtmlTitle title, T[] obj) {
+        return serializeStreaming(request, title, newList(obj));
+    }
+    
+    public <T> StreamingOutput serializeStreaming(Request request, HtmlTitle title, final Iterable<T> obj) {
+        return serializeStreaming(request, title, newList(obj), new Includes<T>(newList(new MetaNamedMember<T, T>() {
             @Override
             public T apply(T t) {
                 return t;
@@ -154,19 +228,23 @@ public abstract class HtmlConversionService {
         }), emptyList(), emptyList(), true, emptyList()));
     }
     
-    public <T> byte[] serialize(Request request, HtmlTitle title, final Collection<T> obj, final Includes<T> members) {
-        return serialize(title, tableHeader(members.includesFromColumnFiltering), regularBody(obj, members.includesFromColumnFiltering), request, obj.size(), members);
+    /**
+     * @param obj rows, iterated only while writing. May be lazy, in which case the first two rows are pulled ahead.
+     */
+    public <T> StreamingOutput serializeStreaming(Request request, HtmlTitle title, final Iterable<T> obj, final Includes<T> members) {
+        Pair<Iterable<T>,Integer> rows = peekRows(obj);
+        return serializeStreaming(title, tableHeader(members.includesFromColumnFiltering), regularBody(rows.left(), members.includesFromColumnFiltering), request, rows.right(), members);
     }
     
-    public <K,V> byte[] serialize(Request request, HtmlTitle title, final Map<K,? extends Iterable<V>> obj, Includes<V> members) {
-        return serialize(title, tableHeader(members.includesFromColumnFiltering), regularBody(flatten(obj.values()), members.includesFromColumnFiltering), request, obj.size(), members);
+    public <K,V> StreamingOutput serializeStreaming(Request request, HtmlTitle title, final Map<K,? extends Iterable<V>> obj, Includes<V> members) {
+        return serializeStreaming(title, tableHeader(members.includesFromColumnFiltering), regularBody(flatten(obj.values()), members.includesFromColumnFiltering), request, obj.size(), members);
     }
     
-    public <K,V> byte[] serializeSingle(Request request, HtmlTitle title, final Map<K,V> obj, Includes<V> members) {
-        return serialize(title, tableHeader(members.includesFromColumnFiltering), regularBody(obj.values(), members.includesFromColumnFiltering), request, obj.size(), members);
+    public <K,V> StreamingOutput serializeSingleStreaming(Request request, HtmlTitle title, final Map<K,V> obj, Includes<V> members) {
+        return serializeStreaming(title, tableHeader(members.includesFromColumnFiltering), regularBody(obj.values(), members.includesFromColumnFiltering), request, obj.size(), members);
     }
     
-    public <K,V> byte[] serializeWithKey(Request request, HtmlTitle title, final Map<K,? extends Iterable<V>> obj, Includes<V> members) {
+    public <K,V> StreamingOutput serializeWithKeyStreaming(Request request, HtmlTitle title, final Map<K,? extends Iterable<V>> obj, Includes<V> members) {
         // empty header if there's no simple key. This is a bit too hackish...
         Includes<V> headers = new Includes<V>(newList(cons(new MetaNamedMember<V, Object>() {
             @Override
@@ -182,14 +260,210 @@ public abstract class HtmlConversionService {
                 return "";
             }
         }, members.includesFromColumnFiltering)), members.includesFromRowFiltering, members.geometryMembers, members.includesEverything, members.allRootMembers);
-        return serialize(title, tableHeader(headers), mapBody(obj, members), request, obj.size(), members);
+        return serializeStreaming(title, tableHeader(headers), mapBody(obj, members), request, obj.size(), members);
     }
     
     @SuppressWarnings("unchecked")
-    public <K,V> byte[] serializeWithKey(Request request, HtmlTitle title, final Map<K,? extends Iterable<V>> obj, Includes<V> members, final MetaNamedMember<? super V,?> key) {
+    public <K,V> StreamingOutput serializeWithKeyStreaming(Request request, HtmlTitle title, final Map<K,? extends Iterable<V>> obj, Includes<V> members, final MetaNamedMember<? super V,?> key) {
         members = new Includes<V>(newList(filter(not(equalTo((MetaNamedMember<V,Object>)key)), members.includesFromColumnFiltering)), members.includesFromRowFiltering, members.geometryMembers, members.includesEverything, members.allRootMembers);
         Includes<V> headers = new Includes<V>(newList(cons((MetaNamedMember<V,Object>)key, members.includesFromColumnFiltering)), members.includesFromRowFiltering, members.geometryMembers, members.includesEverything, members.allRootMembers);
-        return serialize(title, tableHeader(headers), mapBody(obj, members), request, obj.size(), members);
+        return serializeStreaming(title, tableHeader(headers), mapBody(obj, members), request, obj.size(), members);
+    }
+    
+    /**
+     * Lazily loaded table for large result sets. Only a window of rows starting from <i>startIndex</i> is sent,
+     * and the following windows are requested from the same resource with <i>startIndex</i> when the end of the table
+     * is scrolled into view. Sorting is requested with the {@link #SORT_BY} parameter instead of done in the browser,
+     * so the data must be sorted and paged at its source, for example in a database.
+     * 
+     * Requests for subsequent windows (see {@link #isNextWindowRequest(Request)}) get only the rows as a response.
+     * 
+     * @param window rows starting from <i>startIndex</i>, sorted by <i>sortBy</i>.
+     * @param totalCount number of rows in the whole result set.
+     */
+    public <T> StreamingOutput serializeWindowStreaming(final Request request, HtmlTitle title, final Iterable<T> window, final int totalCount, final StartIndex startIndex, Option<String> sortBy, final Includes<T> members) {
+        final Renderable body = windowBody(window, members.includesFromColumnFiltering, totalCount, startIndex);
+        if (isNextWindowRequest(request)) {
+            return new StreamingOutput() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    OutputStreamWriter ow = new OutputStreamWriter(out, Charset.forName("UTF-8"));
+                    try {
+                        HttpServletCanvas.of(request.getHttpServletRequest(), ow).render(body);
+                    } finally {
+                        ow.flush();
+                    }
+                }
+            };
+        }
+        return serializeStreaming(title, sortableTableHeader(members.includesFromColumnFiltering, sortBy), body, request, totalCount, members, true);
+    }
+    
+    public static boolean isNextWindowRequest(Request request) {
+        return NEXT_WINDOW.equals(request.getHeader(Headers.HX_TRIGGER));
+    }
+    
+    /**
+     * @return <i>path</i> with <i>queryString</i> where the parameter <i>name</i> is replaced with <i>value</i>,
+     *         keeping the parameters in alphabetical order.
+     */
+    static String uriWithParameter(String path, Option<String> queryString, String name, Option<String> value) {
+        List<String> params = newMutableList();
+        for (String qs: queryString) {
+            for (String param: qs.split("&")) {
+                if (!param.isEmpty() && !param.equals(name) && !param.startsWith(name + "=")) {
+                    params.add(param);
+                }
+            }
+        }
+        for (String v: value) {
+            params.add(name + "=" + v);
+        }
+        java.util.Collections.sort(params, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return a.split("=", 2)[0].compareToIgnoreCase(b.split("=", 2)[0]);
+            }
+        });
+        return params.isEmpty() ? path : path + "?" + mkString("&", params);
+    }
+    
+    /**
+     * Server-Sent Events keeping an open HTML table view up to date, for requests accepting text/event-stream
+     * (see {@link fi.solita.utils.api.util.ServletRequestUtil#isEventStreamRequest(Request)}).
+     * 
+     * The whole table body is sent when connecting, unless the client reconnects having already seen the current version.
+     * After that only the removed and added rows are sent, whenever <i>version</i> changes. Runs until the client disconnects.
+     * 
+     * The clients of the same view (request URI) with the same credentials (the {@link RequestUtil#API_KEY}, Authorization
+     * and Cookie headers) and poll interval share the polling and rendering, so the work doesn't grow with the number
+     * of connections. Each connection still occupies a request thread, waiting between the events.
+     * 
+     * @param version polled every <i>pollInterval</i> milliseconds, for example the current revision.
+     * @param data rows of the view, evaluated again after every change of version.
+     */
+    public <T> StreamingOutput serializeRowDiffStreaming(Request request, ApplyZero<?> version, ApplyZero<? extends Iterable<T>> data, Includes<T> members, int pollInterval) {
+        return serializeRowDiffStreaming(request, version, data, members, pollInterval, credentials(request));
+    }
+    
+    /**
+     * Like {@link #serializeRowDiffStreaming(Request, ApplyZero, ApplyZero, Includes, int)}, for when the credentials
+     * are not (only) in the headers.
+     * 
+     * @param sharedBy identifies the clients allowed to see the same data, for example the authenticated principal.
+     *                 Clients of the same view share the polling and rendering only when this is equal.
+     */
+    public <T> StreamingOutput serializeRowDiffStreaming(final Request request, final ApplyZero<?> version, final ApplyZero<? extends Iterable<T>> data, final Includes<T> members, final int pollInterval, final String sharedBy) {
+        Assert.positive(pollInterval);
+        return new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                final RowBuffer rowBuffer = new RowBuffer(request.getHttpServletRequest());
+                ApplyZero<String> versions = new ApplyZero<String>() {
+                    @Override
+                    public String get() {
+                        return version.get().toString();
+                    }
+                };
+                ApplyZero<List<String>> rows = new ApplyZero<List<String>>() {
+                    @Override
+                    public List<String> get() {
+                        try {
+                            return renderRows(rowBuffer, data.get(), members.includesFromColumnFiltering);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                
+                // the data is fetched with the suppliers and request of whichever client polls, so only share between equal clients
+                String view = pollInterval + " " + ServletRequestUtil.getRequestURI(request) + "\n" + sharedBy;
+                HtmlRowDiffFeed feed = subscribe(view, pollInterval);
+                try {
+                    EventStreamWriter events = new EventStreamWriter(out);
+                    HtmlRowDiffFeed.Generation seen = feed.current(versions, rows);
+                    if (!seen.version.equals(request.getHeader(Headers.LAST_EVENT_ID))) {
+                        events.event(Some(seen.version), "message", seen.tbody());
+                    }
+                    
+                    while (true) {
+                        HtmlRowDiffFeed.Generation next = feed.next(seen, versions, rows);
+                        if (next.number == seen.number + 1 && next.diff.isDefined()) {
+                            events.event(Some(next.version), "diff", next.diff.get());
+                        } else if (next.number > seen.number + 1) {
+                            // missed a generation, the client state is not known
+                            events.event(Some(next.version), "message", next.tbody());
+                        } else {
+                            // keep-alive, also notices a disconnected client
+                            events.comment("");
+                        }
+                        seen = next;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    unsubscribe(view, feed);
+                }
+            }
+        };
+    }
+    
+    private static String credentials(final Request request) {
+        return mkString("\n", map(new Apply<String,String>() {
+            @Override
+            public String apply(String header) {
+                return Option.of(request.getHeader(header)).getOrElse("");
+            }
+        }, newList(RequestUtil.API_KEY, Headers.AUTHORIZATION, Headers.COOKIE)));
+    }
+    
+    private HtmlRowDiffFeed subscribe(String view, int pollInterval) {
+        synchronized (feeds) {
+            HtmlRowDiffFeed feed = feeds.get(view);
+            if (feed == null) {
+                feed = new HtmlRowDiffFeed(pollInterval);
+                feeds.put(view, feed);
+            }
+            feed.subscribers++;
+            return feed;
+        }
+    }
+    
+    private void unsubscribe(String view, HtmlRowDiffFeed feed) {
+        synchronized (feeds) {
+            if (--feed.subscribers == 0) {
+                feeds.remove(view);
+            }
+        }
+    }
+    
+    private <T> List<String> renderRows(RowBuffer rowBuffer, Iterable<T> obj, Iterable<? extends MetaNamedMember<T, ?>> members) throws IOException {
+        List<String> ret = newMutableList();
+        for (T t: obj) {
+            ret.add(rowBuffer.render(tablecols(t, members)));
+        }
+        return ret;
+    }
+    
+    /**
+     * Renders the cells of a single row into a String, to identify rows by their content.
+     */
+    private static final class RowBuffer {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final OutputStreamWriter writer = new OutputStreamWriter(buffer, Charset.forName("UTF-8"));
+        private final HtmlCanvas html;
+        
+        RowBuffer(Object httpServletRequest) {
+            this.html = HttpServletCanvas.of(httpServletRequest, writer);
+        }
+        
+        String render(Renderable row) throws IOException {
+            html.render(row);
+            writer.flush();
+            String ret = buffer.toString("UTF-8");
+            buffer.reset();
+            return ret;
+        }
     }
     
     protected String extraStyle() {
@@ -201,35 +475,119 @@ public abstract class HtmlConversionService {
             @Override
             public void renderOn(HtmlCanvas html) throws IOException {
                 String contextPath = ((HttpServletCanvas<?>)html).getContextPath();
+                PageShell shell = pageShell();
                 
                 html
-                    .meta(http_equiv("Content-Type").content("text/html;charset=UTF-8"))
-                    .meta(http_equiv("Content-Security-Policy").content("default-src 'self';frame-src *; style-src 'self' '"
-                        + UI.calculateHash(styles()) +"' 'sha256-/jDKvbQ8cdux+c5epDIqkjHbXDaIY8RucT1PmAe8FG4=';script-src 'self' 'unsafe-eval' '"
-                        + UI.calculateHash(scripts())+ "' '"
-                        + UI.calculateHash(scripts2()) + "' '"
-                        + UI.calculateHash(scripts3()) + "' '"
-                        + UI.calculateHash(additionalHeadScript()) + "' '"
-                        + UI.calculateHash(initSortable()) + "' '"
-                        + UI.calculateHash(initTableFilter(contextPath)) + "'"))
-                    .meta(name("htmx-config").content("{ \"includeIndicatorStyles\": false }"))
+                    .write(shell.headStart, false)
                     .title().write(title.plainTextTitle)._title()
-                    .style()
-                        .write(styles(), false)
-                    ._style()
-                    .script(type("text/javascript"))
-                        .write(additionalHeadScript(), false)
-                    ._script()
+                    .write(shell.headStyles, false)
                     .script(type("text/javascript").src(contextPath + "/r/js/lib/Sortable.min.js"))._script()
                     .script(type("text/javascript").src(contextPath + "/r/js/lib/tafs-1.6.0.min.js"))._script()
-                    .script(type("text/javascript"))
-                        .write(scripts(), false)
-                    ._script()
+                    .write(shell.headScripts, false)
                     .link(rel("stylesheet").href(contextPath + "/r/css/lib/tafs-1.6.0.css"));
             }
         };
     }
     
+    /**
+     * Parts of the page which don't depend on the request, rendered only once.
+     * Everything is already escaped HTML.
+     */
+    private static final class PageShell {
+        final String headStart;
+        final String headStyles;
+        final String headScripts;
+        final String tableFilterScript;
+        final String bodyEndScripts;
+        
+        PageShell(String headStart, String headStyles, String headScripts, String tableFilterScript, String bodyEndScripts) {
+            this.headStart = headStart;
+            this.headStyles = headStyles;
+            this.headScripts = headScripts;
+            this.tableFilterScript = tableFilterScript;
+            this.bodyEndScripts = bodyEndScripts;
+        }
+    }
+    
+    private volatile PageShell pageShell;
+    
+    // Lazily, since the content comes from overridable methods which cannot be called from the constructor.
+    // A race only renders the same content more than once.
+    private PageShell pageShell() {
+        PageShell ret = pageShell;
+        if (ret == null) {
+            try {
+                ret = renderPageShell();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            pageShell = ret;
+        }
+        return ret;
+    }
+    
+    private PageShell renderPageShell() throws IOException {
+        final String styles = styles();
+        final String scripts = scripts();
+        final String additionalHeadScript = additionalHeadScript();
+        // initTableFilter doesn't actually use the context path
+        final String tableFilter = initTableFilter("");
+        return new PageShell(
+            UI.render(new Renderable() {
+                @Override
+                public void renderOn(HtmlCanvas html) throws IOException {
+                    html.meta(http_equiv("Content-Type").content("text/html;charset=UTF-8"))
+                        .meta(http_equiv("Content-Security-Policy").content("default-src 'self';frame-src *; style-src 'self' '"
+                            + UI.calculateHash(styles) +"' 'sha256-/jDKvbQ8cdux+c5epDIqkjHbXDaIY8RucT1PmAe8FG4=';script-src 'self' 'unsafe-eval' '"
+                            + UI.calculateHash(scripts)+ "' '"
+                            + UI.calculateHash(scripts2()) + "' '"
+                            + UI.calculateHash(scripts3()) + "' '"
+                            + UI.calculateHash(additionalHeadScript) + "' '"
+                            + UI.calculateHash(initSortable()) + "' '"
+                            + UI.calculateHash(tableFilter) + "'"))
+                        .meta(name("htmx-config").content("{ \"includeIndicatorStyles\": false }"));
+                }
+            }),
+            UI.render(new Renderable() {
+                @Override
+                public void renderOn(HtmlCanvas html) throws IOException {
+                    html.style()
+                            .write(styles, false)
+                        ._style()
+                        .script(type("text/javascript"))
+                            .write(additionalHeadScript, false)
+                        ._script();
+                }
+            }),
+            UI.render(new Renderable() {
+                @Override
+                public void renderOn(HtmlCanvas html) throws IOException {
+                    html.script(type("text/javascript"))
+                            .write(scripts, false)
+                        ._script();
+                }
+            }),
+            UI.render(new Renderable() {
+                @Override
+                public void renderOn(HtmlCanvas html) throws IOException {
+                    html.script(type("text/javascript"))
+                            .write(tableFilter, false)
+                        ._script();
+                }
+            }),
+            UI.render(new Renderable() {
+                @Override
+                public void renderOn(HtmlCanvas html) throws IOException {
+                    html.script(type("text/javascript"))
+                            .write(scripts3(), false)
+                        ._script()
+                        .script(type("text/javascript"))
+                            .write(initSortable(), false)
+                        ._script();
+                }
+            }));
+    }
+    
     public static <T> Renderable pageHeader(final HtmlTitle title, final Request request, final boolean includeFormats, Option<Pair<Includes<T>, Apply<MetaNamedMember<T, ?>,Renderable>>> properties, Pair<Renderable,Set<String>> additionalQueryParameters) {
         return new Renderable() {
             @Override
@@ -388,13 +746,51 @@ public abstract class HtmlConversionService {
         };
     }
     
-    private <T> byte[] serialize(HtmlTitle title, Renderable tableHeader, Renderable tableBody, Request request, int rows, Includes<T> includes) {
-        FastByteArrayOutputStream os = new FastByteArrayOutputStream();
-        OutputStreamWriter ow = new OutputStreamWriter(os, Charset.forName("UTF-8"));
+    /**
+     * The page only needs to know whether there are no rows, a single row or more,
+     * so of lazy rows only the first two are pulled ahead and the rest are left unevaluated.
+     * 
+     * @return the rows, to be iterated once, and their number, at most 2 for lazy rows.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Pair<Iterable<T>,Integer> peekRows(Iterable<T> obj) {
+        if (obj instanceof Collection) {
+            return Pair.of(obj, ((Collection<T>) obj).size());
+        }
+        final Iterator<T> rest = obj.iterator();
+        List<T> first = newMutableList();
+        while (first.size() < 2 && rest.hasNext()) {
+            first.add(rest.next());
+        }
+        return Pair.<Iterable<T>,Integer>of(concat(first, new Iterable<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return rest;
+            }
+        }), first.size());
+    }
+    
+    private <T> StreamingOutput serializeStreaming(final HtmlTitle title, final Renderable tableHeader, final Renderable tableBody, final Request request, final int rows, final Includes<T> includes) {
+        return serializeStreaming(title, tableHeader, tableBody, request, rows, includes, false);
+    }
+    
+    /**
+     * @param windowed whether rows are loaded lazily and sorted on the server, instead of filtered and sorted by tafs.
+     */
+    private <T> StreamingOutput serializeStreaming(final HtmlTitle title, final Renderable tableHeader, final Renderable tableBody, final Request request, final int rows, final Includes<T> includes, final boolean windowed) {
+        return new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                serialize(out, title, tableHeader, tableBody, request, rows, includes, windowed);
+            }
+        };
+    }
+    
+    private <T> void serialize(OutputStream out, HtmlTitle title, Renderable tableHeader, Renderable tableBody, Request request, int rows, Includes<T> includes, boolean windowed) throws IOException {
+        OutputStreamWriter ow = new OutputStreamWriter(out, Charset.forName("UTF-8"));
         HtmlCanvas html = HttpServletCanvas.of(request.getHttpServletRequest(), ow);
         
         Option<String> queryString = (((HttpServletCanvas<?>)html).getRequestQueryString());
-        String contextPath = (((HttpServletCanvas<?>)html).getContextPath());
         
         try {
             html.render(DocType.HTML5)
@@ -406,12 +802,14 @@ public abstract class HtmlConversionService {
                   .input(type("checkbox").id("connection").hidden("hidden").checked("checked").value(""))
                   .render(pageHeader(title, request, true, Some(Pair.of(includes, HtmlConversionService_.<T>header().ap(this))), additionalQueryParameters(includes)))
                   .section(id("content"))
-                      .table(id("table").class_("tafs hidden").add("hx-ext", "sse").add("sse-swap", "message").add("hx-select", "tbody").add("hx-target", "find tbody").add("hx-swap", "outerHTML ignoreTitle:true"))
-                        .thead()
+                      .table(id("table").class_(windowed ? "windowed hidden" : "tafs hidden").add("hx-ext", "sse").add("sse-swap", "message").add("hx-select", "tbody").add("hx-target", "find tbody").add("hx-swap", "outerHTML ignoreTitle:true"))
+                        .thead(sseEnabled ? add("sse-swap", "diff", ESCAPE_CHARS).add("hx-target", "this").add("hx-swap", "none") : new HtmlAttributes())
                           .tr()
                             .render(tableHeader)
                           ._tr()
                         ._thead()
+                        // let the browser start on the page head while the rows are being produced
+                        .render(flush)
                         .tbody()
                           .render(tableBody)
                         ._tbody()
@@ -429,7 +827,7 @@ public abstract class HtmlConversionService {
                                   .span(lang("en")).write("Table is refreshing automatically via SSE")._span()
                               ._span()
                           ._if()
-                          .if_(rows > 0 && COUNT.matcher(queryString.getOrElse("")).matches())
+                          .if_(rows > 0 && !windowed && COUNT.matcher(queryString.getOrElse("")).matches())
                               .span(class_(null)
                                   .add("hx-push-url", "false")
                                   .add("hx-boost", "true")
@@ -450,28 +848,27 @@ public abstract class HtmlConversionService {
                       ._div()
                   ._section()
                   .render(pageFooter())
-                  .if_(rows >= 2)
-                      .script(type("text/javascript"))
-                          .write(initTableFilter(contextPath), false)
-                      ._script()
+                  .if_(rows >= 2 && !windowed)
+                      .write(pageShell().tableFilterScript, false)
                   ._if()
-                  .script(type("text/javascript"))
-                      .write(scripts3(), false)
-                  ._script()
-                  .script(type("text/javascript"))
-                      .write(initSortable(), false)
-                  ._script()
+                  .write(pageShell().bodyEndScripts, false)
                 ._body()
               ._html();
-
-            ow.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        } finally {
+            ow.flush();
         }
-        
-        return os.toByteArrayUnsafe();
     }
     
+    /**
+     * Flushes everything rendered so far through to the underlying stream.
+     */
+    private static final Renderable flush = new Renderable() {
+        @Override
+        public void renderOn(HtmlCanvas html) throws IOException {
+            html.getOutputWriter().flush();
+        }
+    };
+    
     private static Renderable initHtmx() {
         return new Renderable() {
             @Override
@@ -552,6 +949,28 @@ public abstract class HtmlConversionService {
         };
     }
     
+    private <T> Renderable sortableTableHeader(final Iterable<? extends MetaNamedMember<T, ?>> members, final Option<String> sortBy) {
+        return new Renderable() {
+            @Override
+            public void renderOn(HtmlCanvas html) throws IOException {
+                String path = ((HttpServletCanvas<?>)html).getRequestPath();
+                // a new sort order starts from the first window
+                String withoutStartIndex = uriWithParameter("", ((HttpServletCanvas<?>)html).getRequestQueryString(), "startIndex", Option.<String>None());
+                Option<String> queryString = withoutStartIndex.isEmpty() ? Option.<String>None() : Some(withoutStartIndex.substring(1));
+                for (MetaNamedMember<T, ?> member: members) {
+                    String name = member.getName();
+                    boolean ascending = sortBy.equals(Some(name));
+                    boolean descending = sortBy.equals(Some("-" + name));
+                    html.th(extraTHAttributes(member.getMember()).class_(ascending ? "sorted-asc" : descending ? "sorted-desc" : null))
+                          .a(href(uriWithParameter(path, queryString, SORT_BY, Some(ascending ? "-" + name : name))))
+                            .render(header(member))
+                          ._a()
+                        ._th();
+                }
+            }
+        };
+    }
+    
     <T> Renderable header(MetaNamedMember<T, ?> member) {
         return new Renderable() {
             @Override
@@ -599,21 +1018,63 @@ public abstract class HtmlConversionService {
         return new Renderable() {
             @Override
             public void renderOn(HtmlCanvas html) throws IOException {
+                int rows = 0;
                 for (final T t: obj) {
                     html.tr()
                           .render(tablecols(t, members))
                         ._tr();
+                    if (++rows % flushInterval == 0) {
+                        html.render(flush);
+                    }
                 }
             }
         };
     }
 
+    private <T> Renderable windowBody(final Iterable<T> window, final Iterable<? extends MetaNamedMember<T, ?>> members, final int totalCount, final StartIndex startIndex) {
+        return new Renderable() {
+            @Override
+            public void renderOn(HtmlCanvas html) throws IOException {
+                int rows = 0;
+                for (final T t: window) {
+                    html.tr()
+                          .render(tablecols(t, members))
+                        ._tr();
+                    rows++;
+                }
+                int next = startIndex.value + rows;
+                if (rows > 0 && next <= totalCount) {
+                    String path = ((HttpServletCanvas<?>)html).getRequestPath();
+                    Option<String> queryString = ((HttpServletCanvas<?>)html).getRequestQueryString();
+                    html.tr(id(NEXT_WINDOW).class_(NEXT_WINDOW)
+                                .add("hx-get", uriWithParameter(path, queryString, "startIndex", Some(Integer.toString(next))))
+                                .add("hx-trigger", "intersect once")
+                                .add("hx-target", "this")
+                                .add("hx-select", "unset")
+                                .add("hx-swap", "outerHTML")
+                                .add("hx-indicator", ".lds-dual-ring"))
+                          .td(colspan(Integer.toString(Math.max(1, newList(members).size()))))
+                            .span(lang("fi")).write("Ladataan rivejä " + next + "-" + Math.min(next + rows - 1, totalCount) + " / " + totalCount + "...")._span()
+                            .span(lang("en")).write("Loading rows " + next + "-" + Math.min(next + rows - 1, totalCount) + " / " + totalCount + "...")._span()
+                          ._td()
+                        ._tr();
+                }
+            }
+        };
+    }
+    
     private <K,V,O> Renderable mapBody(final Map<K, ? extends Iterable<V>> obj, final Includes<V> members) {
         return new Renderable() {
               @Override
               public void renderOn(HtmlCanvas html) throws IOException {
+                  int rows = 0;
                   for (final Entry<K, ? extends Iterable<V>> t: obj.entrySet()) {
                       final List<V> values = newList(t.getValue());
+                      rows += Math.max(1, values.size());
+                      if (rows >= flushInterval) {
+                          html.render(flush);
+                          rows = 0;
+                      }
                       html.tr()
                           .render(new Renderable() {
                             @Override
@@ -678,6 +1139,11 @@ public abstract class HtmlConversionService {
         + "tbody tr:nth-last-child(1 of :not(.tafs-hidden))::after { content: '☰' counter(rowNumber); position: absolute; top: 0.1rem; color: lightgray; font-style: italic; left: 0.1rem; }"
         + "table table tbody > tr > td:first-child::before { content: '' }"
         + "table table tbody > tr:nth-last-child(1 of :not(.tafs-hidden))::after { content: '' }"
+        + "tbody tr.next-window { counter-increment: none; color: #aaa; }"
+        + "tbody tr.next-window > td:first-child::before, tbody tr.next-window::after { content: '' }"
+        + "th > a         { color: inherit; text-decoration: none; }"
+        + "th.sorted-asc > a::after  { content: ' ▲'; }"
+        + "th.sorted-desc > a::after { content: ' ▼'; }"
         
         + "input.flt { height: 20px; }"
         
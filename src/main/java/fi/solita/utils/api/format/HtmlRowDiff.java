@@ -0,0 +1,113 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Option.Some;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import fi.solita.utils.functional.Option;
+
+/**
+ * Row level differences between two renderings of an HTML table body, as an htmx out-of-band swap fragment.
+ *
+ * Rows are identified by a hash of their rendered content, so a changed row is sent as a removal of the old
+ * row and an insertion of the new one. Inserted rows are appended to the end of the body, the client is expected to re-sort.
+ */
+public final class HtmlRowDiff {
+
+    public static final String TABLE_BODY_SELECTOR = "#table > tbody";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Assigns ids to rows in rendering order. Identical rows get an occurrence suffix to keep the ids unique.
+     */
+    public static final class RowIds {
+        private final Map<String,Integer> occurrences = new HashMap<String,Integer>();
+
+        public String next(String renderedRow) {
+            String hash = hash(renderedRow);
+            Integer n = occurrences.get(hash);
+            occurrences.put(hash, n == null ? 1 : n + 1);
+            return n == null ? hash : hash + "-" + (n + 1);
+        }
+    }
+
+    private Set<String> previous;
+
+    /**
+     * @param renderedRows contents (cells) of each row, as currently shown by the client.
+     */
+    public HtmlRowDiff(Iterable<String> renderedRows) {
+        this.previous = identify(renderedRows).keySet();
+    }
+
+    /**
+     * @return the fragment to send, or None if nothing has changed.
+     */
+    public Option<String> next(Iterable<String> renderedRows) {
+        Map<String,String> current = identify(renderedRows);
+        StringBuilder sb = new StringBuilder();
+
+        boolean changed = false;
+        sb.append("<tbody>");
+        for (String id: previous) {
+            if (!current.containsKey(id)) {
+                sb.append("<tr id=\"").append(id).append("\" hx-swap-oob=\"delete\"></tr>");
+                changed = true;
+            }
+        }
+        sb.append("</tbody>");
+
+        sb.append("<tbody hx-swap-oob=\"beforeend:").append(TABLE_BODY_SELECTOR).append("\">");
+        for (Map.Entry<String,String> row: current.entrySet()) {
+            if (!previous.contains(row.getKey())) {
+                appendRow(sb, row.getKey(), row.getValue());
+                changed = true;
+            }
+        }
+        sb.append("</tbody>");
+
+        previous = current.keySet();
+        return changed ? Some(sb.toString()) : Option.<String>None();
+    }
+
+    /**
+     * The whole body, for clients whose state is not known.
+     */
+    public static String tbody(Iterable<String> renderedRows) {
+        StringBuilder sb = new StringBuilder("<tbody>");
+        for (Map.Entry<String,String> row: identify(renderedRows).entrySet()) {
+            appendRow(sb, row.getKey(), row.getValue());
+        }
+        return sb.append("</tbody>").toString();
+    }
+
+    private static void appendRow(StringBuilder sb, String id, String cells) {
+        sb.append("<tr id=\"").append(id).append("\">").append(cells).append("</tr>");
+    }
+
+    private static Map<String,String> identify(Iterable<String> renderedRows) {
+        RowIds ids = new RowIds();
+        Map<String,String> ret = new LinkedHashMap<String,String>();
+        for (String row: renderedRows) {
+            ret.put(ids.next(row), row);
+        }
+        return ret;
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes, prefixed to make a valid id.
+     */
+    static String hash(String renderedRow) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b: renderedRow.getBytes(UTF8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return "r" + Long.toHexString(h);
+    }
+}
@@ -0,0 +1,125 @@
+package fi.solita.utils.api.format;
+
+import java.util.List;
+
+import fi.solita.utils.api.util.Assert;
+import fi.solita.utils.functional.ApplyZero;
+import fi.solita.utils.functional.Option;
+
+/**
+ * Row diffs of a single view, shared by all the clients connected to it.
+ *
+ * The version is checked at most once per poll interval, and the rows are fetched, rendered and diffed
+ * once per change of version, regardless of how many clients are connected. The connection noticing
+ * that a check is due does the work using its own suppliers, the others wait for the result.
+ */
+final class HtmlRowDiffFeed {
+
+    /**
+     * State of the view after a change of version.
+     */
+    static final class Generation {
+        final long number;
+        final String version;
+        final List<String> rows;
+        /**
+         * Changes from the previous generation. None if there were none, or there is no previous generation.
+         */
+        final Option<String> diff;
+        private String tbody;
+
+        Generation(long number, String version, List<String> rows, Option<String> diff) {
+            this.number = number;
+            this.version = version;
+            this.rows = rows;
+            this.diff = diff;
+        }
+
+        synchronized String tbody() {
+            if (tbody == null) {
+                tbody = HtmlRowDiff.tbody(rows);
+            }
+            return tbody;
+        }
+    }
+
+    private final int pollInterval;
+
+    // guarded by this
+    private Generation current;
+    private HtmlRowDiff diff;
+    private long lastPoll;
+    private boolean polling;
+
+    // guarded by the map of feeds in HtmlConversionService
+    int subscribers;
+
+    HtmlRowDiffFeed(int pollInterval) {
+        this.pollInterval = Assert.positive(pollInterval);
+    }
+
+    /**
+     * @return the current generation, fetching the initial one if this is the first client.
+     */
+    synchronized Generation current(ApplyZero<String> version, ApplyZero<List<String>> rows) {
+        if (current == null) {
+            String v = version.get();
+            List<String> r = rows.get();
+            diff = new HtmlRowDiff(r);
+            current = new Generation(0, v, r, Option.<String>None());
+            lastPoll = System.currentTimeMillis();
+        }
+        return current;
+    }
+
+    /**
+     * Waits at most one poll interval for a generation newer than <i>seen</i>.
+     *
+     * @return a newer generation, possibly several generations newer, or <i>seen</i> if nothing changed.
+     */
+    Generation next(Generation seen, ApplyZero<String> version, ApplyZero<List<String>> rows) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + pollInterval;
+        while (true) {
+            synchronized (this) {
+                while (true) {
+                    if (current != seen) {
+                        return current;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (!polling && now >= lastPoll + pollInterval) {
+                        polling = true;
+                        break;
+                    }
+                    if (now >= deadline) {
+                        return seen;
+                    }
+                    wait(polling ? deadline - now : Math.min(deadline, lastPoll + pollInterval) - now);
+                }
+            }
+
+            // fetching and rendering without holding the lock, the other clients keep their keep-alives going
+            try {
+                poll(version, rows);
+            } finally {
+                synchronized (this) {
+                    polling = false;
+                    lastPoll = System.currentTimeMillis();
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private void poll(ApplyZero<String> version, ApplyZero<List<String>> rows) {
+        String v = version.get();
+        synchronized (this) {
+            if (v.equals(current.version)) {
+                return;
+            }
+        }
+        List<String> r = rows.get();
+        synchronized (this) {
+            current = new Generation(current.number + 1, v, r, diff.next(r));
+        }
+    }
+}
@@ -1,14 +1,21 @@
 package fi.solita.utils.api.format;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.util.List;
+import java.util.Map;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.type.CollectionType;
 
+import fi.solita.utils.api.util.StreamingOutput;
+
 public class JsonConversionService {
 
     public final ObjectMapper om;
@@ -32,6 +39,38 @@ public class JsonConversionService {
         }
     }
     
+    /**
+     * Writes directly to <i>out</i>, leaving it open.
+     */
+    public void serialize(OutputStream out, Object obj) throws IOException {
+        streamingWriter().writeValue(out, obj);
+    }
+    
+    public StreamingOutput serializeStreaming(final Object obj) {
+        return new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                serialize(out, obj);
+            }
+        };
+    }
+    
+    /**
+     * @param attributes made available to the serializers through {@link com.fasterxml.jackson.databind.SerializerProvider#getAttribute(Object)}
+     */
+    public StreamingOutput serializeStreaming(final Object obj, final Map<?,?> attributes) {
+        return new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                streamingWriter().withAttributes(attributes).writeValue(out, obj);
+            }
+        };
+    }
+    
+    protected ObjectWriter streamingWriter() {
+        return om.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+    
     public <T> T deserialize(Class<T> targetClass, byte[] bytes) {
         try {
             return om.readValue(bytes, targetClass);
@@ -6,21 +6,51 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
-import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import fi.solita.utils.api.util.Assert;
+import fi.solita.utils.api.util.StreamingOutput;
+import fi.solita.utils.functional.Collections;
 
 public class JsonLinesConversionService {
 
+    public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+    
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    
     public final JsonConversionService json;
+    
+    private final int flushInterval;
 
     public JsonLinesConversionService(JsonConversionService json) {
-        this.json = json;
+        this(json, DEFAULT_FLUSH_INTERVAL);
     }
     
-    private static final byte[] NEWLINE = "\n".getBytes(Charset.forName("UTF-8"));
+    /**
+     * @param flushInterval number of rows after which the output is flushed to the underlying stream while streaming.
+     */
+    public JsonLinesConversionService(JsonConversionService json, int flushInterval) {
+        this.json = json;
+        this.flushInterval = Assert.positive(flushInterval);
+    }
     
     public byte[] serialize(Map<?,?> obj) {
         return serialize(obj.entrySet());
@@ -29,30 +59,179 @@ public class JsonLinesConversionService {
     public byte[] serialize(Iterable<?> obj) {
         try {
             ByteArrayOutputStream os = new ByteArrayOutputStream();
-            for (Object e: obj) {
-                os.write(json.serialize(e));
-                os.write(NEWLINE);
-            }
+            serialize(os, obj);
             return os.toByteArray();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
     
+    /**
+     * Writes each element as its own line directly to <i>out</i>, leaving it open.
+     * A single generator is used for all the rows, and it's flushed every <i>flushInterval</i> rows.
+     */
+    public void serialize(OutputStream out, Iterable<?> obj) throws IOException {
+        ObjectWriter writer = json.streamingWriter().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        JsonGenerator gen = writer.createGenerator(out, JsonEncoding.UTF8);
+        // no separator between root values, since each row ends with a newline anyway
+        gen.setRootValueSeparator(null);
+        try {
+            int rows = 0;
+            for (Object e: obj) {
+                writer.writeValue(gen, e);
+                gen.writeRaw('\n');
+                if (++rows % flushInterval == 0) {
+                    gen.flush();
+                }
+            }
+        } finally {
+            gen.close();
+        }
+    }
+    
+    public StreamingOutput serializeStreaming(Map<?,?> obj) {
+        return serializeStreaming(obj.entrySet());
+    }
+    
+    public StreamingOutput serializeStreaming(final Iterable<?> obj) {
+        return new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                serialize(out, obj);
+            }
+        };
+    }
+    
     public <T> List<T> deserializeList(Class<T> targetClass, byte[] bytes) {
+        List<T> ret = newMutableList();
+        Iterator<T> it = deserialize(targetClass, new ByteArrayInputStream(bytes));
+        while (it.hasNext()) {
+            ret.add(it.next());
+        }
+        return ret;
+    }
+    
+    /**
+     * Lazily parses the rows from <i>in</i> as they are iterated. The bytes are read by a single parser
+     * without decoding each line to a String first. Closing <i>in</i> is the responsibility of the caller.
+     */
+    public <T> Iterator<T> deserialize(Class<T> targetClass, InputStream in) {
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), Charset.forName("UTF-8")));
-            String line;
-            List<T> ret = newMutableList();
-            while ((line = reader.readLine()) != null) {
-                ret.add(json.deserialize(targetClass, line));
-            } 
-            return ret;
-        } catch (Exception e) {
+            return json.om.readerFor(targetClass).readValues(in);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
     
+    public <T> Iterator<T> deserializeParallel(Class<T> targetClass, InputStream in) {
+        return deserializeParallel(targetClass, in, ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+    
+    /**
+     * Like {@link #deserialize(Class, InputStream)}, but the rows are split into batches of <i>batchSize</i> lines
+     * which are parsed in parallel in <i>pool</i>. The order of the rows is preserved, and only a bounded number
+     * of batches is read ahead of the iteration.
+     */
+    public <T> Iterator<T> deserializeParallel(Class<T> targetClass, InputStream in, ForkJoinPool pool, int batchSize) {
+        return new ParallelIterator<T>(json.om.readerFor(targetClass), in, pool, Assert.positive(batchSize));
+    }
+    
+    private static final class ParallelIterator<T> implements Iterator<T> {
+        private final ObjectReader reader;
+        private final InputStream in;
+        private final ForkJoinPool pool;
+        private final int batchSize;
+        
+        private final Deque<ForkJoinTask<List<T>>> inFlight = new ArrayDeque<ForkJoinTask<List<T>>>();
+        private final byte[] buf = new byte[64 * 1024];
+        private int pos = 0;
+        private int limit = 0;
+        private boolean eof = false;
+        private Iterator<T> current = Collections.<T>emptyList().iterator();
+        
+        ParallelIterator(ObjectReader reader, InputStream in, ForkJoinPool pool, int batchSize) {
+            this.reader = reader;
+            this.in = in;
+            this.pool = pool;
+            this.batchSize = batchSize;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                readAhead();
+                if (inFlight.isEmpty()) {
+                    return false;
+                }
+                current = inFlight.poll().join().iterator();
+            }
+            return true;
+        }
+        
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        private void readAhead() {
+            try {
+                while (!eof && inFlight.size() <= pool.getParallelism()) {
+                    final byte[] batch = readBatch();
+                    if (batch.length > 0) {
+                        inFlight.add(pool.submit(new Callable<List<T>>() {
+                            @Override
+                            public List<T> call() throws IOException {
+                                List<T> ret = newMutableList();
+                                MappingIterator<T> it = reader.readValues(batch);
+                                while (it.hasNext()) {
+                                    ret.add(it.next());
+                                }
+                                return ret;
+                            }
+                        }));
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        
+        /**
+         * Reads at most <i>batchSize</i> complete lines, splitting on the newline byte.
+         */
+        private byte[] readBatch() throws IOException {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            int lines = 0;
+            while (lines < batchSize) {
+                if (pos == limit) {
+                    pos = 0;
+                    limit = in.read(buf);
+                    if (limit == -1) {
+                        limit = 0;
+                        eof = true;
+                        break;
+                    }
+                }
+                int start = pos;
+                while (pos < limit && lines < batchSize) {
+                    if (buf[pos++] == '\n') {
+                        lines++;
+                    }
+                }
+                batch.write(buf, start, pos - start);
+            }
+            return batch.toByteArray();
+        }
+    }
+    
     public <T> List<T> deserializeList(Class<T> targetClass, String str) {
         try {
             BufferedReader reader = new BufferedReader(new StringReader(str));
@@ -4,76 +4,74 @@ import static fi.solita.utils.functional.Collections.newList;
 import static fi.solita.utils.functional.Collections.newMap;
 import static fi.solita.utils.functional.Collections.newMutableList;
 import static fi.solita.utils.functional.Collections.newMutableMap;
-import static fi.solita.utils.functional.Functional.flatMap;
 import static fi.solita.utils.functional.Functional.map;
 import static fi.solita.utils.functional.Functional.mkString;
 import static fi.solita.utils.functional.FunctionalM.find;
-import static fi.solita.utils.functional.Option.None;
 import static fi.solita.utils.functional.Option.Some;
 
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.poi.util.IOUtils;
-import org.geotools.api.feature.Property;
 import org.geotools.api.feature.simple.SimpleFeature;
-import org.geotools.api.feature.simple.SimpleFeatureType;
-import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 import org.geotools.api.style.NamedLayer;
 import org.geotools.api.style.Style;
 import org.geotools.api.style.StyledLayer;
 import org.geotools.api.style.StyledLayerDescriptor;
-import org.geotools.data.collection.ListFeatureCollection;
-import org.geotools.data.geojson.GeoJSONReader;
 import org.geotools.factory.CommonFactoryFinder;
-import org.geotools.feature.FeatureCollection;
-import org.geotools.feature.FeatureIterator;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
-import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.geojson.feature.FeatureJSON;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
 import org.geotools.map.MapContent;
+import org.geotools.referencing.CRS;
 import org.geotools.renderer.GTRenderer;
 import org.geotools.renderer.RenderListener;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.styling.DefaultResourceLocator;
+import org.geotools.styling.visitor.StyleAttributeExtractor;
 import org.geotools.xml.styling.SLDParser;
 import org.joda.time.Duration;
-import org.locationtech.jts.geom.Geometry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import ar.com.hjg.pngj.FilterType;
 import fi.solita.utils.api.filtering.Filtering;
 import fi.solita.utils.api.types.PropertyName;
+import fi.solita.utils.api.util.Assert;
 import fi.solita.utils.api.util.RequestUtil;
+import fi.solita.utils.api.util.StreamingOutput;
+import fi.solita.utils.functional.Apply;
 import fi.solita.utils.functional.ApplyZero;
 import fi.solita.utils.functional.Option;
 import fi.solita.utils.functional.Pair;
-import fi.solita.utils.functional.SemiGroups;
 import fi.solita.utils.functional.Transformers;
 import it.geosolutions.imageio.plugins.png.PNGWriter;
 
@@ -88,6 +86,8 @@ public class PngConversionService {
     
     private static final Pattern BBOX_INT = Pattern.compile("bbox=[0-9,]+");
     private static final Pattern BBOX_DEC = Pattern.compile("bbox=[0-9,.]+");
+    private static final Pattern BBOX = Pattern.compile("bbox=[^&]*");
+    private static final Pattern REVISION = Pattern.compile("[^/]+/([0-9]+)/.*");
     
     private static final Logger logger = LoggerFactory.getLogger(PngConversionService.class);
     
@@ -111,12 +111,68 @@ public class PngConversionService {
     
     private final Map<String,Style> defaultStyles;
     
+    // attributes referenced by each layer's style, to not build the others for rendering
+    private final Map<String,Set<String>> styleAttributes;
+    
     private final URI baseURI;
     
+    private final Option<TileCache> cache;
+    
+    private final int metatileSize;
+    
+    private final RenderPool renderPool;
+    
+    // threads are started only on demand
+    private static final RenderPool defaultRenderPool = new RenderPool();
+    
     private static final ObjectMapper DEFAULT_OM = new ObjectMapper();
+    
+    private static final int PIPE_BUFFER_SIZE = 64*1024;
+    
+    // parse in-process features while the request thread is writing them
+    private static final ExecutorService geojsonReaders = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "geojson-reader-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
 
+    /**
+     * Renders every image, without caching.
+     */
     public PngConversionService(String imageBasePath, URI baseURI) {
+        this(imageBasePath, baseURI, Option.<TileCache>None());
+    }
+    
+    /**
+     * @param cache cache for rendered images of revisioned requests, e.g. <code>Some(new TileCache(TileCache.DEFAULT_MAX_BYTES))</code>,
+     *              or None to always render.
+     */
+    public PngConversionService(String imageBasePath, URI baseURI, Option<TileCache> cache) {
+        this(imageBasePath, baseURI, cache, 1);
+    }
+    
+    /**
+     * @param metatileSize number of tiles in each direction to render in one pass, with the other tiles put into the cache.
+     *                     1 to render each tile separately.
+     */
+    public PngConversionService(String imageBasePath, URI baseURI, Option<TileCache> cache, int metatileSize) {
+        this(imageBasePath, baseURI, cache, metatileSize, defaultRenderPool);
+    }
+    
+    /**
+     * @param renderPool pool to render the images in, instead of the request threads. Shared by default.
+     */
+    public PngConversionService(String imageBasePath, URI baseURI, Option<TileCache> cache, int metatileSize, RenderPool renderPool) {
+        Assert.True(metatileSize >= 1, "Metatile size must be positive");
+        Assert.True(metatileSize == 1 || cache.isDefined(), "Metatiles require a cache for the rendered tiles");
         this.baseURI = baseURI;
+        this.cache = cache;
+        this.metatileSize = metatileSize;
+        this.renderPool = renderPool;
         try {
             if (!allDefaultStyles.containsKey(imageBasePath)) {
                 Map<String,Style> styles = newMutableMap();
@@ -127,11 +183,21 @@ public class PngConversionService {
                 allDefaultStyles.put(imageBasePath, styles);
             }
             this.defaultStyles = allDefaultStyles.get(imageBasePath);
+            this.styleAttributes = newMutableMap();
+            for (Map.Entry<String,Style> style: defaultStyles.entrySet()) {
+                styleAttributes.put(style.getKey(), referencedAttributes(style.getValue()));
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
     
+    static Set<String> referencedAttributes(Style style) {
+        StyleAttributeExtractor extractor = new StyleAttributeExtractor();
+        style.accept(extractor);
+        return extractor.getAttributeNameSet();
+    }
+    
     protected URL getSld() {
         return getClass().getResource("/defaultStyle.sld");
     }
@@ -161,14 +227,146 @@ public class PngConversionService {
         return in;
     }
     
+    /**
+     * @return revision of the request, if the request is revisioned and thus its response never changes.
+     */
+    protected Option<Long> revision(String pngRequestURI) {
+        return revision(baseURI, pngRequestURI);
+    }
+    
+    /**
+     * @return the path segment right after the API version, if numeric, as in {@link fi.solita.utils.api.util.ResponseUtil#redirectToRevision}.
+     *         The API version is the first segment after the path of <i>baseURI</i>, which is thus expected to point to the context root.
+     */
+    static Option<Long> revision(URI baseURI, String pngRequestURI) {
+        String path = baseURI.resolve(pngRequestURI).getPath();
+        String basePath = baseURI.resolve(".").getPath();
+        if (path == null || !path.startsWith(basePath)) {
+            return Option.<Long>None();
+        }
+        Matcher matcher = REVISION.matcher(path.substring(basePath.length()));
+        return matcher.matches() ? Some(Long.parseLong(matcher.group(1))) : Option.<Long>None();
+    }
+    
+    private static boolean isSameCrs(ReferencedEnvelope a, ReferencedEnvelope b) {
+        return a.getCoordinateReferenceSystem() == null || b.getCoordinateReferenceSystem() == null ||
+               CRS.equalsIgnoreMetadata(a.getCoordinateReferenceSystem(), b.getCoordinateReferenceSystem());
+    }
+    
+    private static GeojsonFeatureReader.Features within(GeojsonFeatureReader.Features features, ReferencedEnvelope area) {
+        return isSameCrs(area, features.getBounds()) ? features.intersecting(area) : features;
+    }
+    
+    /**
+     * @return index of the tile starting at <i>coordinate</i>, tolerating rounding errors in the requested coordinates.
+     */
+    static long tileIndex(double coordinate, double size) {
+        return (long) Math.floor(coordinate / size + 0.001);
+    }
+    
     private static boolean isTile(Option<ReferencedEnvelope> bounds) {
         return bounds.isDefined() && bounds.get().getWidth() == bounds.get().getHeight();
     }
     
+    /**
+     * Adds to tile bounds the buffer which is used to retrieve features whose graphic extends to the tile from outside.
+     */
+    public static ReferencedEnvelope withTileBuffer(ReferencedEnvelope tileBounds) {
+        ReferencedEnvelope ret = ReferencedEnvelope.create(tileBounds);
+        ret.expandBy(buffer(tileBounds.getWidth()), buffer(tileBounds.getHeight()));
+        return ret;
+    }
+    
+    /**
+     * Renders features fetched over HTTP from the GeoJSON counterpart of <i>pngRequestURI</i>.
+     */
     public byte[] render(String pngRequestURI, Option<String> apikey, Option<ReferencedEnvelope> requestedBounds, String layerName) {
+        return render(pngRequestURI, apikey, requestedBounds, layerName, Option.<Apply<ReferencedEnvelope,StreamingOutput>>None(), true);
+    }
+    
+    /**
+     * Renders features given in-process as GeoJSON, without a request back to the server.
+     * 
+     * @param geojson features for the requested bounds, which for a tile must include the buffer of {@link #withTileBuffer(ReferencedEnvelope)}.
+     *                Not called if the image is found in the cache or rendered by a concurrent identical request.
+     *                Called in the calling thread, so it may use request-bound state.
+     */
+    public byte[] render(String pngRequestURI, Option<ReferencedEnvelope> requestedBounds, String layerName, final ApplyZero<StreamingOutput> geojson) {
+        return render(pngRequestURI, Option.<String>None(), requestedBounds, layerName, Some(new Apply<ReferencedEnvelope,StreamingOutput>() {
+            @Override
+            public StreamingOutput apply(ReferencedEnvelope area) {
+                return geojson.get();
+            }
+        }), false);
+    }
+    
+    /**
+     * Renders features given in-process as GeoJSON, without a request back to the server.
+     * Since features can be produced for any area, tiles get their buffer and metatiles are rendered as with fetched features.
+     * 
+     * @param geojson features within the given area, which for tiles is larger than <i>requestedBounds</i>.
+     *                Not called if the image is found in the cache or rendered by a concurrent identical request.
+     *                Called in the calling thread, so it may use request-bound state.
+     */
+    public byte[] render(String pngRequestURI, ReferencedEnvelope requestedBounds, String layerName, Apply<ReferencedEnvelope,StreamingOutput> geojson) {
+        return render(pngRequestURI, Option.<String>None(), Some(requestedBounds), layerName, Some(geojson), true);
+    }
+    
+    private static String withBbox(String pngRequestURI, ReferencedEnvelope p) {
+        Matcher matcher = BBOX_INT.matcher(pngRequestURI);
+        if (matcher.find()) {
+            String bbox = "bbox=" + mkString(",", map(PngConversionService_.toInt.andThen(Transformers.toString), newList(p.getMinX(), p.getMinY(), p.getMaxX(), p.getMaxY())));
+            return matcher.replaceAll(bbox);
+        } else {
+            matcher = BBOX_DEC.matcher(pngRequestURI);
+            String bbox = "bbox=" + mkString(",", map(Transformers.toString, newList(p.getMinX(), p.getMinY(), p.getMaxX(), p.getMaxY())));
+            return matcher.replaceAll(bbox);
+        }
+    }
+    
+    private URI dataURI(String pngRequestURI) {
+        return baseURI.resolve(pngRequestURI.replaceFirst(".png", ".geojson"));
+    }
+    
+    // the data URI contains the revision along with any other parameters affecting the image.
+    // The bbox is normalized, so that the keys of a tile match regardless of how its coordinates were computed
+    private String cacheKey(String layerName, int size, String pngRequestURI, Option<ReferencedEnvelope> bounds) {
+        return layerName + " " + size + "x" + size + " " + (bounds.isDefined() ? normalizedBbox(bounds.get()) : "-") + " " + dataURI(BBOX.matcher(pngRequestURI).replaceAll("bbox"));
+    }
+    
+    /**
+     * @return for a tile its size and indices, otherwise the corners in a grid of a thousandth of the larger dimension.
+     */
+    static String normalizedBbox(ReferencedEnvelope bounds) {
+        double width = bounds.getWidth();
+        double height = bounds.getHeight();
+        if (width > 0 && Math.abs(width - height) <= width * 1e-9) {
+            return roundedSize(width) + "@" + tileIndex(bounds.getMinX(), width) + "," + tileIndex(bounds.getMinY(), height);
+        }
+        double cell = Math.max(width, height) / 1000;
+        if (cell == 0) {
+            return bounds.getMinX() + "," + bounds.getMinY();
+        }
+        return roundedSize(cell) + "@" + mkString(",", newList(Math.round(bounds.getMinX() / cell), Math.round(bounds.getMinY() / cell), Math.round(bounds.getMaxX() / cell), Math.round(bounds.getMaxY() / cell)));
+    }
+    
+    private static String roundedSize(double size) {
+        return new BigDecimal(size).round(new MathContext(6)).stripTrailingZeros().toPlainString();
+    }
+    
+    /**
+     * @param geojson in-process features within the given area, instead of fetching them.
+     * @param anyArea whether features are available for any area, instead of only for the requested bounds.
+     */
+    private byte[] render(String pngRequestURI, final Option<String> apikey, final Option<ReferencedEnvelope> requestedBounds, final String layerName, final Option<Apply<ReferencedEnvelope,StreamingOutput>> geojson, boolean anyArea) {
+        if (metatileSize > 1 && isTile(requestedBounds) && anyArea && revision(pngRequestURI).isDefined()) {
+            return renderMetatile(pngRequestURI, apikey, requestedBounds.get(), layerName, geojson);
+        }
+        // before adding the buffer
+        Option<ReferencedEnvelope> keyBounds = requestedBounds.isDefined() ? Some(ReferencedEnvelope.create(requestedBounds.get())) : Option.<ReferencedEnvelope>None();
         double bufferRatioX = 1;
         double bufferRatioY = 1;
-        boolean isTile = isTile(requestedBounds);
+        final boolean isTile = isTile(requestedBounds);
         if (isTile) {
             for (ReferencedEnvelope p: requestedBounds) {
                 // add some buffer to the bbox, so that we retrieve features slightly
@@ -177,15 +375,7 @@ public class PngConversionService {
                 double originalWidth = p.getWidth();
                 double originalHeight = p.getHeight();
                 p.expandBy(buffer(originalWidth), buffer(originalHeight));
-                Matcher matcher = BBOX_INT.matcher(pngRequestURI);
-                if (matcher.find()) {
-                    String bbox = "bbox=" + mkString(",", map(PngConversionService_.toInt.andThen(Transformers.toString), newList(p.getMinX(), p.getMinY(), p.getMaxX(), p.getMaxY())));
-                    pngRequestURI = matcher.replaceAll(bbox);
-                } else {
-                    matcher = BBOX_DEC.matcher(pngRequestURI);
-                    String bbox = "bbox=" + mkString(",", map(Transformers.toString, newList(p.getMinX(), p.getMinY(), p.getMaxX(), p.getMaxY())));
-                    pngRequestURI = matcher.replaceAll(bbox);
-                }
+                pngRequestURI = withBbox(pngRequestURI, p);
                 if (originalWidth != 0) {
                     bufferRatioX = p.getWidth()/originalWidth;
                 }
@@ -194,91 +384,255 @@ public class PngConversionService {
                 }
             }
         }
-        URI uri = baseURI.resolve(pngRequestURI.replaceFirst(".png", ".geojson"));
+        final URI uri = dataURI(pngRequestURI);
+        final int size = isTile(requestedBounds) ? tileSize : imageSize;
+        
+        Option<String> cacheKey = cache.isDefined() && revision(pngRequestURI).isDefined() ? Some(cacheKey(layerName, size, pngRequestURI, keyBounds)) : Option.<String>None();
+        for (String key: cacheKey) {
+            for (byte[] cached: cache.get().get(key)) {
+                logger.debug("Returning cached image for {}", key);
+                return cached;
+            }
+        }
+        final double ratioX = bufferRatioX;
+        final double ratioY = bufferRatioY;
+        // renders to be cached under the same key are done only once.
+        // In-process features are produced in the request thread, since they may need its context
+        byte[] ret = renderPool.render(cacheKey, RenderPool.bufferBytes((int)(ratioX*size), (int)(ratioY*size)), new ApplyZero<Option<GeojsonFeatureReader.Features>>() {
+            @Override
+            public Option<GeojsonFeatureReader.Features> get() {
+                return geojson.isDefined() ? Some(read(geojson.get().apply(requestedBounds.getOrElse(null)), layerName)) : Option.<GeojsonFeatureReader.Features>None();
+            }
+        }, new Apply<Option<GeojsonFeatureReader.Features>,byte[]>() {
+            @Override
+            public byte[] apply(Option<GeojsonFeatureReader.Features> features) {
+                try {
+                    return features.isDefined()
+                        ? render(size,
+                                 size,
+                                 features.get(),
+                                 requestedBounds,
+                                 isTile,
+                                 ratioX,
+                                 ratioY,
+                                 layerName)
+                        : render(size,
+                                 size,
+                                 uri,
+                                 requestedBounds,
+                                 isTile,
+                                 ratioX,
+                                 ratioY,
+                                 layerName,
+                                 apikey);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        for (String key: cacheKey) {
+            cache.get().put(key, ret);
+        }
+        return ret;
+    }
+    
+    /**
+     * Renders in one pass the aligned block of <i>metatileSize</i> x <i>metatileSize</i> tiles containing the requested tile,
+     * and puts all of its tiles into the cache. Features are thus fetched and parsed once per block,
+     * and labels crossing tile edges inside the block are not clipped.
+     */
+    private byte[] renderMetatile(final String pngRequestURI, final Option<String> apikey, ReferencedEnvelope tileBounds, final String layerName, final Option<Apply<ReferencedEnvelope,StreamingOutput>> geojson) {
+        String requestedKey = cacheKey(layerName, tileSize, pngRequestURI, Some(tileBounds));
+        for (byte[] cached: cache.get().get(requestedKey)) {
+            logger.debug("Returning cached image for {}", requestedKey);
+            return cached;
+        }
+        
+        double width = tileBounds.getWidth();
+        double height = tileBounds.getHeight();
+        long column = tileIndex(tileBounds.getMinX(), width);
+        long row = tileIndex(tileBounds.getMinY(), height);
+        long firstColumn = Math.floorDiv(column, metatileSize) * metatileSize;
+        long firstRow = Math.floorDiv(row, metatileSize) * metatileSize;
+        
+        // tiles are positioned relative to the requested one, to get the same coordinates as the requests for them
+        final ReferencedEnvelope[][] tiles = new ReferencedEnvelope[metatileSize][metatileSize];
+        for (int i = 0; i < metatileSize; ++i) {
+            for (int j = 0; j < metatileSize; ++j) {
+                double minX = tileBounds.getMinX() + (firstColumn + i - column) * width;
+                double minY = tileBounds.getMinY() + (firstRow + j - row) * height;
+                tiles[i][j] = new ReferencedEnvelope(minX, minX + width, minY, minY + height, tileBounds.getCoordinateReferenceSystem());
+            }
+        }
+        final ReferencedEnvelope metatile = ReferencedEnvelope.create(tiles[0][0]);
+        metatile.expandToInclude(tiles[metatileSize-1][metatileSize-1]);
+        final ReferencedEnvelope metatileWithBuffer = ReferencedEnvelope.create(metatile);
+        metatileWithBuffer.expandBy(buffer(width), buffer(height));
+        
+        final int size = metatileSize*tileSize;
+        final double ratioX = metatileWithBuffer.getWidth()/metatile.getWidth();
+        final double ratioY = metatileWithBuffer.getHeight()/metatile.getHeight();
+        // requests for any tile of the metatile wait for the same render
+        byte[][][] rendered = renderPool.render(Some(cacheKey(layerName, size, pngRequestURI, Some(metatile))), RenderPool.bufferBytes((int)(ratioX*size), (int)(ratioY*size)), new ApplyZero<Option<GeojsonFeatureReader.Features>>() {
+            @Override
+            public Option<GeojsonFeatureReader.Features> get() {
+                return geojson.isDefined() ? Some(read(geojson.get().apply(metatileWithBuffer), layerName)) : Option.<GeojsonFeatureReader.Features>None();
+            }
+        }, new Apply<Option<GeojsonFeatureReader.Features>,byte[][][]>() {
+            @Override
+            public byte[][][] apply(Option<GeojsonFeatureReader.Features> features) {
+                return renderTiles(pngRequestURI, apikey, features, layerName, tiles, metatileWithBuffer, size, ratioX, ratioY);
+            }
+        });
+        return rendered[(int)(column - firstColumn)][(int)(row - firstRow)];
+    }
+    
+    /**
+     * @return rendered tiles by their column and row in the metatile, which are also put into the cache.
+     */
+    private byte[][][] renderTiles(String pngRequestURI, Option<String> apikey, Option<GeojsonFeatureReader.Features> geojson, String layerName, ReferencedEnvelope[][] tiles, ReferencedEnvelope metatileWithBuffer, int size, double ratioX, double ratioY) {
         try {
-            return render(isTile(requestedBounds) ? tileSize : imageSize,
-                          isTile(requestedBounds) ? tileSize : imageSize,
-                          uri,
-                          requestedBounds,
-                          isTile,
-                          bufferRatioX,
-                          bufferRatioY,
-                          layerName,
-                          apikey);
-        } catch (RuntimeException e) {
-            throw e;
-        } catch (Exception e) {
+            GeojsonFeatureReader.Features all = geojson.isDefined()
+                ? geojson.get()
+                : read(fetchGeojson(dataURI(withBbox(pngRequestURI, metatileWithBuffer)), apikey), layerName);
+            // queried again for each tile
+            GeojsonFeatureReader.Features features = within(all, metatileWithBuffer).indexed();
+            
+            long started = System.nanoTime();
+            Option<BufferedImage> image = features.isEmpty() ? Option.<BufferedImage>None() : Some(renderImage(
+                size,
+                size,
+                features,
+                Some(metatileWithBuffer),
+                true,
+                ratioX,
+                ratioY,
+                style(layerName)));
+            
+            byte[][][] ret = new byte[metatileSize][metatileSize][];
+            for (int i = 0; i < metatileSize; ++i) {
+                for (int j = 0; j < metatileSize; ++j) {
+                    ReferencedEnvelope tileWithBuffer = withTileBuffer(tiles[i][j]);
+                    // image rows go from north to south
+                    byte[] png = image.isDefined() && !within(features, tileWithBuffer).isEmpty()
+                        ? toPng(image.get().getSubimage(i*tileSize, (metatileSize-1-j)*tileSize, tileSize, tileSize))
+                        : emptyTile;
+                    cache.get().put(cacheKey(layerName, tileSize, pngRequestURI, Some(tiles[i][j])), png);
+                    ret[i][j] = png;
+                }
+            }
+            
+            logger.debug("Done! Rendering metatile took {}", new Duration((System.nanoTime() - started)/1000/1000));
+            return ret;
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
     
-    static Option<Pair<String,Object>> toEntry(Property p) throws JsonProcessingException {
-        if (p.getName().getLocalPart().isEmpty() || p.getValue() instanceof Geometry) {
-            return None();
+    public byte[] render(int imageWidth, int imageHeight, URI uri, Option<ReferencedEnvelope> requestedBoundsWithBuffer, boolean isTile, double bufferRatioX, double bufferRatioY, String layerName, Option<String> apikey) throws IOException {
+        logger.debug("Fetching geojson...");
+        return render(imageWidth, imageHeight, fetchGeojson(uri, apikey), requestedBoundsWithBuffer, isTile, bufferRatioX, bufferRatioY, layerName);
+    }
+    
+    public byte[] render(int imageWidth, int imageHeight, InputStream geojsonStream, Option<ReferencedEnvelope> requestedBoundsWithBuffer, boolean isTile, double bufferRatioX, double bufferRatioY, String layerName) throws IOException {
+        return render(imageWidth, imageHeight, read(geojsonStream, layerName), requestedBoundsWithBuffer, isTile, bufferRatioX, bufferRatioY, layerName);
+    }
+    
+    private byte[] render(int imageWidth, int imageHeight, GeojsonFeatureReader.Features featureCollection, Option<ReferencedEnvelope> requestedBoundsWithBuffer, boolean isTile, double bufferRatioX, double bufferRatioY, String layerName) {
+        Style layerStyle = style(layerName);
+        
+        for (ReferencedEnvelope area: requestedBoundsWithBuffer) {
+            // give the renderer only the features of the area, and skip rendering altogether if there are none
+            featureCollection = within(featureCollection, area);
+        }
+        
+        if (featureCollection.isEmpty()) {
+            return emptyTile;
         }
         
-        return Some(Pair.of(p.getName().getLocalPart(), p.getValue()));
+        long started = System.nanoTime();
+        
+        byte[] ret = toPng(renderImage(imageWidth, imageHeight, featureCollection, requestedBoundsWithBuffer, isTile, bufferRatioX, bufferRatioY, layerStyle));
+        
+        Duration duration = new Duration((System.nanoTime() - started)/1000/1000);
+        
+        logger.debug("Done! Returning data. Rendering took {}", duration);
+        return ret;
     }
-
-    public byte[] render(int imageWidth, int imageHeight, URI uri, Option<ReferencedEnvelope> requestedBoundsWithBuffer, boolean isTile, double bufferRatioX, double bufferRatioY, String layerName, Option<String> apikey) throws IOException {
-        Style layerStyle = find(layerName, defaultStyles).orElse(new ApplyZero<Style>() {
+    
+    private Style style(final String layerName) {
+        return find(layerName, defaultStyles).orElse(new ApplyZero<Style>() {
             @Override
             public Style get() {
                 throw new RuntimeException("Couldn't find layer with name: " + layerName);
             } });
-        logger.debug("Fetching geojson...");
-        BufferedReader bf = new BufferedReader(new InputStreamReader(fetchGeojson(uri, apikey), StandardCharsets.UTF_8));
-        String geojson;
+    }
+    
+    private GeojsonFeatureReader.Features read(InputStream geojsonStream, String layerName) throws IOException {
         try {
-            geojson = bf.lines().collect(Collectors.joining("\n"));
+            return new GeojsonFeatureReader(DEFAULT_OM, find(layerName, styleAttributes)).read(geojsonStream);
         } finally {
-            bf.close();
+            geojsonStream.close();
         }
-        FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection;
-        
-        GeoJSONReader reader = new GeoJSONReader(geojson);
+    }
+    
+    /**
+     * Parses in-process features while they are being written in the calling thread,
+     * so that the encoded GeoJSON is never buffered as a whole.
+     */
+    private GeojsonFeatureReader.Features read(StreamingOutput geojson, final String layerName) {
+        final PipedInputStream in = new PipedInputStream(PIPE_BUFFER_SIZE);
+        Future<GeojsonFeatureReader.Features> features;
+        IOException writeFailure = null;
         try {
-            featureCollection = reader.getFeatures();
-        } finally {
-            reader.close();
-        }
-        
-        if (featureCollection.isEmpty()) {
-            GeoJSONReader reader2 = new GeoJSONReader(geojson);
+            PipedOutputStream out = new PipedOutputStream(in);
+            features = geojsonReaders.submit(new Callable<GeojsonFeatureReader.Features>() {
+                @Override
+                public GeojsonFeatureReader.Features call() throws IOException {
+                    try {
+                        GeojsonFeatureReader.Features ret = new GeojsonFeatureReader(DEFAULT_OM, find(layerName, styleAttributes)).read(in);
+                        // consume anything after the object, so the writer doesn't fail on a closed pipe
+                        byte[] rest = new byte[4096];
+                        while (in.read(rest) != -1) {
+                            // discard
+                        }
+                        return ret;
+                    } finally {
+                        // also releases the writer if parsing fails
+                        in.close();
+                    }
+                }
+            });
             try {
-                SimpleFeature feature = reader2.getFeature();
-                featureCollection = new ListFeatureCollection(feature.getFeatureType(), feature) ;
-            } catch (Exception e) {
-                logger.debug("Could not parse a Feature", e);
+                geojson.writeTo(out);
+            } catch (IOException e) {
+                // possibly due to the reader failing, whose failure is the more interesting one
+                writeFailure = e;
             } finally {
-                reader2.close();
+                out.close();
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
         
-        if (featureCollection.isEmpty()) {
-            return emptyTile;
-        }
-        
-        // "GeoJSON is always WGS84" my ass!
-        CoordinateReferenceSystem crs = new FeatureJSON().readCRS(geojson);
-        SimpleFeatureType ft = SimpleFeatureTypeBuilder.retype(featureCollection.getSchema(), crs);
-        SimpleFeatureTypeBuilder ftb = new SimpleFeatureTypeBuilder();
-        ftb.init(ft);
-        ftb.add("json", String.class);
-        ft = ftb.buildFeatureType();
-        FeatureIterator<SimpleFeature> f = featureCollection.features();
-        List<SimpleFeature> feats = newMutableList();
-        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(ft);
-        while (f.hasNext()) {
-            SimpleFeature feature = f.next();
-            fb.init(feature);
-            // put all fields into custom "json" attribute so that it can be access from SLD using jsonPointer without property-not-found-errors...
-            fb.set("json", DEFAULT_OM.writeValueAsString(newMap(SemiGroups.failUnequal(), flatMap(PngConversionService_.toEntry, feature.getProperties()))));
-            feats.add(SimpleFeatureBuilder.retype(fb.buildFeature(null), ft));
-            fb.reset();
+        try {
+            GeojsonFeatureReader.Features ret = features.get();
+            if (writeFailure != null) {
+                throw new RuntimeException(writeFailure);
+            }
+            return ret;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
         }
-        featureCollection = new ListFeatureCollection(ft, feats);
-        
+    }
+    
+    private static BufferedImage renderImage(int imageWidth, int imageHeight, GeojsonFeatureReader.Features featureCollection, Option<ReferencedEnvelope> requestedBoundsWithBuffer, boolean isTile, double bufferRatioX, double bufferRatioY, Style layerStyle) {
         ReferencedEnvelope boundsWithBuffer = featureCollection.getBounds();
         if (!requestedBoundsWithBuffer.isDefined()) {
             // no explicit bounds given, so add some buffer around points
@@ -291,8 +645,6 @@ public class PngConversionService {
         }
         boundsWithBuffer = requestedBoundsWithBuffer.getOrElse(boundsWithBuffer);
         
-        long started = System.nanoTime();
-
         logger.debug("Rendering data...");
         final List<Exception> errors = newMutableList();
         final MapContent map = new MapContent();
@@ -348,9 +700,6 @@ public class PngConversionService {
             map.dispose();
         }
         
-        logger.debug("Generating PNG...");
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        
         for (Exception e: errors) {
             if (e instanceof org.geotools.filter.IllegalFilterException) {
                 Matcher m = PROPERTY_NAME_EXTRACTOR.matcher(e.getMessage());
@@ -362,6 +711,12 @@ public class PngConversionService {
             throw new RuntimeException(e);
         }
         
+        return image;
+    }
+    
+    private static byte[] toPng(BufferedImage image) {
+        logger.debug("Generating PNG...");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         PNGWriter writer = new PNGWriter();
         if (!writer.isScanlineSupported(image)) {
             throw new IllegalStateException("Scanline not supported? Should it be?");
@@ -371,10 +726,6 @@ public class PngConversionService {
         } catch (Exception e1) {
             throw new RuntimeException(e1);
         }
-        
-        Duration duration = new Duration((System.nanoTime() - started)/1000/1000);
-        
-        logger.debug("Done! Returning data. Rendering took {}", duration);
         return out.toByteArray();
     }
     
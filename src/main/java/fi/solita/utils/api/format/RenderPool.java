@@ -0,0 +1,232 @@
+package fi.solita.utils.api.format;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.solita.utils.api.util.Assert;
+import fi.solita.utils.functional.Apply;
+import fi.solita.utils.functional.ApplyZero;
+import fi.solita.utils.functional.Option;
+
+/**
+ * Executor for image rendering, with limited concurrency and an admission limit for the memory of the image buffers.
+ *
+ * A render not admitted within the admission timeout fails fast with {@link RenderingUnavailableException},
+ * instead of queueing up while holding a request thread. Concurrent renders with the same key are done only once.
+ */
+public class RenderPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderPool.class);
+
+    public static final int DEFAULT_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+
+    // four full size images
+    public static final long DEFAULT_MAX_BYTES = 4*bufferBytes(PngConversionService.imageSize, PngConversionService.imageSize);
+
+    public static final long DEFAULT_ADMISSION_TIMEOUT_MILLIS = 5000;
+
+    public static class RenderingUnavailableException extends RuntimeException {
+        public final int retryAfterSeconds;
+
+        public RenderingUnavailableException(int retryAfterSeconds) {
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+    private final ExecutorService executor;
+
+    // in kilobytes, to fit the budget in int permits
+    private final Semaphore memory;
+    private final int maxPermits;
+
+    private final long admissionTimeoutMillis;
+
+    private final ConcurrentMap<String,Future<?>> inFlight = new ConcurrentHashMap<String,Future<?>>();
+
+    public RenderPool() {
+        this(DEFAULT_CONCURRENCY, DEFAULT_MAX_BYTES, DEFAULT_ADMISSION_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param concurrency number of simultaneous renders.
+     * @param maxBytes memory budget of the admitted renders. A single render larger than this is still admitted when nothing else is.
+     * @param admissionTimeoutMillis how long to wait for admission before failing.
+     */
+    public RenderPool(int concurrency, long maxBytes, long admissionTimeoutMillis) {
+        Assert.True(concurrency > 0, "Concurrency must be positive");
+        Assert.True(maxBytes >= 1024, "Memory budget must be at least 1 KB");
+        Assert.True(admissionTimeoutMillis >= 0);
+        this.maxPermits = (int) Math.min(Integer.MAX_VALUE, maxBytes / 1024);
+        this.memory = new Semaphore(maxPermits, true);
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+        this.executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "render-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return size of an ARGB image buffer.
+     */
+    public static long bufferBytes(int width, int height) {
+        return 4L * width * height;
+    }
+
+    /**
+     * @param key identifies the result of the render. A render with the key of one in flight waits for its result instead. None to not coalesce.
+     * @param bytes estimated memory needed by the render.
+     * @throws RenderingUnavailableException if the render cannot be admitted within the admission timeout.
+     */
+    public <T> T render(Option<String> key, long bytes, final ApplyZero<T> render) throws RenderingUnavailableException {
+        return render(key, bytes, new ApplyZero<Void>() {
+            @Override
+            public Void get() {
+                return null;
+            }
+        }, new Apply<Void,T>() {
+            @Override
+            public T apply(Void t) {
+                return render.get();
+            }
+        });
+    }
+
+    /**
+     * @param key identifies the result of the render. A render with the key of one in flight waits for its result instead. None to not coalesce.
+     * @param bytes estimated memory needed by the render.
+     * @param prepare run in the calling thread before the render is admitted, e.g. to fetch data which needs the request context.
+     *                Not run if the render is coalesced with one in flight.
+     * @param render run in the pool with the result of <i>prepare</i>.
+     * @throws RenderingUnavailableException if the render cannot be admitted within the admission timeout.
+     */
+    @SuppressWarnings("unchecked")
+    public <P,T> T render(Option<String> key, long bytes, ApplyZero<P> prepare, final Apply<P,T> render) throws RenderingUnavailableException {
+        final Input<P> input = new Input<P>();
+        final Task<T> task = new Task<T>(new Callable<T>() {
+            @Override
+            public T call() {
+                return render.apply(input.value);
+            }
+        });
+        for (String k: key) {
+            Future<?> existing = inFlight.putIfAbsent(k, task);
+            if (existing != null) {
+                logger.debug("Waiting for an identical render in flight: {}", k);
+                return await((Future<T>) existing);
+            }
+        }
+
+        // before admission, so that e.g. a slow data query doesn't hold the budget of renders ready to run
+        try {
+            input.value = prepare.get();
+        } catch (RuntimeException e) {
+            fail(key, task, e);
+            throw e;
+        } catch (Error e) {
+            fail(key, task, e);
+            throw e;
+        }
+
+        final int permits = (int) Math.max(1, Math.min(maxPermits, (bytes + 1023) / 1024));
+        try {
+            if (!memory.tryAcquire(permits, admissionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.info("Could not admit a render of {} bytes within {} ms", bytes, admissionTimeoutMillis);
+                // waiters of a coalesced render fail the same way
+                fail(key, task, new RenderingUnavailableException(retryAfterSeconds()));
+                return await(task);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(key, task, e);
+            return await(task);
+        }
+
+        final Option<String> k = key;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        memory.release(permits);
+                        for (String x: k) {
+                            inFlight.remove(x, task);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            memory.release(permits);
+            fail(key, task, e);
+            throw e;
+        }
+        return await(task);
+    }
+
+    private static final class Input<P> {
+        // written before the task is handed to the executor, which makes it visible to the render thread
+        P value;
+    }
+
+    private static final class Task<T> extends FutureTask<T> {
+        Task(Callable<T> callable) {
+            super(callable);
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+    }
+
+    private void fail(Option<String> key, Task<?> task, Throwable t) {
+        task.fail(t);
+        for (String k: key) {
+            inFlight.remove(k, task);
+        }
+    }
+
+    private int retryAfterSeconds() {
+        return (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(admissionTimeoutMillis + 999));
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
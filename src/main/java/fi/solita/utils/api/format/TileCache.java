@@ -0,0 +1,202 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Option.None;
+import static fi.solita.utils.functional.Option.Some;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.solita.utils.api.util.Assert;
+import fi.solita.utils.functional.Option;
+
+/**
+ * Least-recently-used cache for rendered images, limited by the total size of the images.
+ *
+ * Images evicted from memory are optionally spilled into a directory, which is limited by its own byte budget.
+ * Keys must identify the rendered content completely, so cache only content which never changes (e.g. revisioned).
+ */
+public class TileCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(TileCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 32*1024*1024;
+
+    private final long maxBytes;
+    private final Option<File> spillDirectory;
+    private final long maxSpillBytes;
+
+    private final LinkedHashMap<String,byte[]> memory = new LinkedHashMap<String,byte[]>(16, 0.75f, true);
+    private long memoryBytes = 0;
+
+    // spilled file names (hashes of keys) and their sizes, in access order
+    private final LinkedHashMap<String,Long> spilled = new LinkedHashMap<String,Long>(16, 0.75f, true);
+    private long spilledBytes = 0;
+
+    public TileCache(long maxBytes) {
+        this(maxBytes, Option.<File>None(), 0);
+    }
+
+    /**
+     * @param spillDirectory directory for images evicted from memory. Must exist and be dedicated to this cache.
+     *                       Images spilled by a previous instance are reused, within <i>maxSpillBytes</i>.
+     */
+    public TileCache(long maxBytes, File spillDirectory, long maxSpillBytes) {
+        this(maxBytes, Some(spillDirectory), maxSpillBytes);
+    }
+
+    private TileCache(long maxBytes, Option<File> spillDirectory, long maxSpillBytes) {
+        Assert.True(maxBytes >= 0);
+        Assert.True(maxSpillBytes >= 0);
+        for (File dir: spillDirectory) {
+            Assert.True(dir.isDirectory(), "Not a directory: " + dir);
+        }
+        this.maxBytes = maxBytes;
+        this.spillDirectory = spillDirectory;
+        this.maxSpillBytes = maxSpillBytes;
+        for (File dir: spillDirectory) {
+            index(dir);
+        }
+    }
+
+    /**
+     * Indexes the images left by a previous instance, least recently modified first,
+     * and removes unfinished writes and whatever exceeds the budget.
+     */
+    private void index(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new RuntimeException("Could not list " + dir);
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+        synchronized (spilled) {
+            for (File f: files) {
+                if (!f.isFile()) {
+                    continue;
+                }
+                if (f.getName().endsWith(".png")) {
+                    spilled.put(f.getName(), f.length());
+                    spilledBytes += f.length();
+                } else if (!f.delete()) {
+                    logger.warn("Could not delete {}", f);
+                }
+            }
+            evictSpilled(dir);
+        }
+    }
+
+    public Option<byte[]> get(String key) {
+        synchronized (memory) {
+            byte[] ret = memory.get(key);
+            if (ret != null) {
+                return Some(ret);
+            }
+        }
+        for (File dir: spillDirectory) {
+            String name = fileName(key);
+            synchronized (spilled) {
+                if (!spilled.containsKey(name)) {
+                    return None();
+                }
+            }
+            try {
+                byte[] ret = Files.readAllBytes(new File(dir, name).toPath());
+                put(key, ret);
+                return Some(ret);
+            } catch (IOException e) {
+                logger.warn("Could not read spilled tile {}", name, e);
+            }
+        }
+        return None();
+    }
+
+    public void put(String key, byte[] image) {
+        if (image.length > maxBytes) {
+            spill(key, image);
+            return;
+        }
+        Map<String,byte[]> evicted = new LinkedHashMap<String,byte[]>();
+        synchronized (memory) {
+            byte[] previous = memory.put(key, image);
+            memoryBytes += image.length - (previous == null ? 0 : previous.length);
+            for (Iterator<Map.Entry<String,byte[]>> it = memory.entrySet().iterator(); memoryBytes > maxBytes && it.hasNext();) {
+                Map.Entry<String,byte[]> eldest = it.next();
+                it.remove();
+                memoryBytes -= eldest.getValue().length;
+                evicted.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+        for (Map.Entry<String,byte[]> e: evicted.entrySet()) {
+            spill(e.getKey(), e.getValue());
+        }
+    }
+
+    private void spill(String key, byte[] image) {
+        if (!spillDirectory.isDefined() || image.length > maxSpillBytes) {
+            return;
+        }
+        File dir = spillDirectory.get();
+        String name = fileName(key);
+        Path tmp = null;
+        try {
+            // written under a temporary name without holding the lock, and published together with the index
+            tmp = Files.createTempFile(dir.toPath(), name, ".tmp");
+            Files.write(tmp, image);
+            synchronized (spilled) {
+                Files.move(tmp, new File(dir, name).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                tmp = null;
+                Long previous = spilled.put(name, (long) image.length);
+                spilledBytes += image.length - (previous == null ? 0 : previous);
+                evictSpilled(dir);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not spill tile {}", name, e);
+            if (tmp != null && !tmp.toFile().delete()) {
+                logger.warn("Could not delete {}", tmp);
+            }
+        }
+    }
+
+    // guarded by spilled
+    private void evictSpilled(File dir) {
+        for (Iterator<Map.Entry<String,Long>> it = spilled.entrySet().iterator(); spilledBytes > maxSpillBytes && it.hasNext();) {
+            Map.Entry<String,Long> eldest = it.next();
+            it.remove();
+            spilledBytes -= eldest.getValue();
+            if (!new File(dir, eldest.getKey()).delete()) {
+                logger.warn("Could not delete spilled tile {}", eldest.getKey());
+            }
+        }
+    }
+
+    static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length*2 + 4);
+            for (byte b: digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.append(".png").toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
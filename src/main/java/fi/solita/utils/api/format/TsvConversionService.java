@@ -8,7 +8,6 @@ import static fi.solita.utils.functional.Functional.filter;
 import static fi.solita.utils.functional.Functional.flatMap;
 import static fi.solita.utils.functional.Functional.flatten;
 import static fi.solita.utils.functional.Functional.map;
-import static fi.solita.utils.functional.Functional.mkString;
 import static fi.solita.utils.functional.Functional.repeat;
 import static fi.solita.utils.functional.Functional.tail;
 import static fi.solita.utils.functional.Predicates.equalTo;
@@ -16,8 +15,9 @@ import static fi.solita.utils.functional.Predicates.not;
 import static fi.solita.utils.functional.Transformers.append;
 import static fi.solita.utils.functional.Transformers.prepend;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.AccessibleObject;
-import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -30,9 +30,10 @@ import fi.solita.utils.api.base.tsv.TsvSerializer.Cells;
 import fi.solita.utils.api.util.Assert;
 import fi.solita.utils.api.util.MemberUtil;
 import fi.solita.utils.api.util.MemberUtil_;
+import fi.solita.utils.api.util.StreamingOutput;
 import fi.solita.utils.functional.ApplyBi;
+import fi.solita.utils.functional.Collections;
 import fi.solita.utils.functional.Pair;
-import fi.solita.utils.functional.Transformers;
 import fi.solita.utils.meta.MetaNamedMember;
 
 public class TsvConversionService {
@@ -44,15 +45,47 @@ public class TsvConversionService {
     }
     
     public <T> Pair<byte[],Map<String,String>> serialize(String filename, T obj, final Iterable<? extends MetaNamedMember<T, ?>> members) {
-        return serialize(filename, newList(obj), members);
+        return StreamingOutput.materialize(serializeStreaming(filename, obj, members));
     }
     
     public <T> Pair<byte[],Map<String,String>> serialize(String filename, T[] obj) {
-        return serialize(filename, newList(obj));
+        return StreamingOutput.materialize(serializeStreaming(filename, obj));
     }
     
     public <T> Pair<byte[],Map<String,String>> serialize(String filename, final Iterable<T> obj) {
-        return serialize(filename, newList(obj), newList(new MetaNamedMember<T, T>() {
+        return StreamingOutput.materialize(serializeStreaming(filename, obj));
+    }
+    
+    public <T> Pair<byte[],Map<String,String>> serialize(String filename, final Collection<T> obj, final Iterable<? extends MetaNamedMember<T, ?>> members) {
+        return StreamingOutput.materialize(serializeStreaming(filename, obj, members));
+    }
+    
+    public <K,V> Pair<byte[],Map<String,String>> serialize(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+        return StreamingOutput.materialize(serializeStreaming(filename, obj, members));
+    }
+    
+    public <K,V> Pair<byte[],Map<String,String>> serializeSingle(String filename, final Map<K,V> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+        return StreamingOutput.materialize(serializeSingleStreaming(filename, obj, members));
+    }
+    
+    public <K,V> Pair<byte[],Map<String,String>> serializeWithKey(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+        return StreamingOutput.materialize(serializeWithKeyStreaming(filename, obj, members));
+    }
+    
+    public <K,V> Pair<byte[],Map<String,String>> serializeWithKey(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members, final MetaNamedMember<? super V,?> key) {
+        return StreamingOutput.materialize(serializeWithKeyStreaming(filename, obj, members, key));
+    }
+    
+    public <T> Pair<StreamingOutput,Map<String,String>> serializeStreaming(String filename, T obj, final Iterable<? extends MetaNamedMember<T, ?>> members) {
+        return serializeStreaming(filename, newList(obj), members);
+    }
+    
+    public <T> Pair<StreamingOutput,Map<String,String>> serializeStreaming(String filename, T[] obj) {
+        return serializeStreaming(filename, newList(obj));
+    }
+    
+    public <T> Pair<StreamingOutput,Map<String,String>> serializeStreaming(String filename, final Iterable<T> obj) {
+        return serializeStreaming(filename, newList(obj), newList(new MetaNamedMember<T, T>() {
             @Override
             public T apply(T t) {
                 return t;
@@ -70,20 +103,23 @@ public class TsvConversionService {
         }));
     }
     
-    public <T> Pair<byte[],Map<String,String>> serialize(String filename, final Collection<T> obj, final Iterable<? extends MetaNamedMember<T, ?>> members) {
-        return serialize(filename, header(members), map(TsvConversionService_.<T>regularBodyRow().ap(this, members), obj));
+    /**
+     * @param obj rows, iterated only while writing. May be lazy.
+     */
+    public <T> Pair<StreamingOutput,Map<String,String>> serializeStreaming(String filename, final Iterable<T> obj, final Iterable<? extends MetaNamedMember<T, ?>> members) {
+        return serializeStreaming(filename, header(members), map(TsvConversionService_.<T>regularBodyRow().ap(this, members), obj));
     }
     
-    public <K,V> Pair<byte[],Map<String,String>> serialize(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
-        return serialize(filename, header(members), map(TsvConversionService_.<V>regularBodyRow().ap(this, members), flatten(obj.values())));
+    public <K,V> Pair<StreamingOutput,Map<String,String>> serializeStreaming(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+        return serializeStreaming(filename, header(members), map(TsvConversionService_.<V>regularBodyRow().ap(this, members), flatten(obj.values())));
     }
     
-    public <K,V> Pair<byte[],Map<String,String>> serializeSingle(String filename, final Map<K,V> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
-        return serialize(filename, header(members), map(TsvConversionService_.<V>regularBodyRow().ap(this, members), obj.values()));
+    public <K,V> Pair<StreamingOutput,Map<String,String>> serializeSingleStreaming(String filename, final Map<K,V> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+        return serializeStreaming(filename, header(members), map(TsvConversionService_.<V>regularBodyRow().ap(this, members), obj.values()));
     }
     
     @SuppressWarnings("unchecked")
-    public <K,V> Pair<byte[],Map<String,String>> serializeWithKey(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
+    public <K,V> Pair<StreamingOutput,Map<String,String>> serializeWithKeyStreaming(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members) {
         Iterable<? extends MetaNamedMember<V,Object>> headers = (Iterable<MetaNamedMember<V,Object>>)members;
         // empty header if there's no simple key. This is a bit too hackish...
         headers = cons(new MetaNamedMember<V, Object>() {
@@ -100,31 +136,47 @@ public class TsvConversionService {
                 return "";
             }
         }, (Iterable<MetaNamedMember<V,Object>>)members);
-        return serialize(filename, header(headers), mapBody(obj, (Iterable<MetaNamedMember<V,Object>>)members));
+        return serializeStreaming(filename, header(headers), mapBody(obj, (Iterable<MetaNamedMember<V,Object>>)members));
     }
     
     @SuppressWarnings("unchecked")
-    public <K,V> Pair<byte[],Map<String,String>> serializeWithKey(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members, final MetaNamedMember<? super V,?> key) {
+    public <K,V> Pair<StreamingOutput,Map<String,String>> serializeWithKeyStreaming(String filename, final Map<K,? extends Iterable<V>> obj, Iterable<? extends MetaNamedMember<V, ?>> members, final MetaNamedMember<? super V,?> key) {
         Iterable<? extends MetaNamedMember<V,Object>> headers = (Iterable<MetaNamedMember<V,Object>>)members;
         members = filter(not(equalTo((MetaNamedMember<V,Object>)key)), (Iterable<MetaNamedMember<V,Object>>)members);
         headers = cons((MetaNamedMember<V,Object>)key, (Iterable<MetaNamedMember<V,Object>>)members);
-        return serialize(filename, header(headers), mapBody(obj, (Iterable<MetaNamedMember<V,Object>>)members));
+        return serializeStreaming(filename, header(headers), mapBody(obj, (Iterable<MetaNamedMember<V,Object>>)members));
     }
     
-    private Pair<byte[],Map<String,String>> serialize(String filename, Iterable<String> tableHeader, Iterable<Iterable<Cells>> tableBody) {
-        List<CharSequence> header = newMutableList();
-        List<Iterable<CharSequence>> body = newMutableList();
-        for (Iterable<Cells> row: tableBody) {
-            if (header.isEmpty()) {
+    private Pair<StreamingOutput,Map<String,String>> serializeStreaming(String filename, final Iterable<String> tableHeader, final Iterable<Iterable<Cells>> tableBody) {
+        return Pair.<StreamingOutput,Map<String,String>>of(new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                serialize(out, tableHeader, tableBody);
+            }
+        }, newMap(Pair.of("Content-Disposition", "attachment; filename=" + filename + ".tsv")));
+    }
+    
+    /**
+     * Writes the header as soon as the first row is known, and then each row as it's produced.
+     */
+    private void serialize(OutputStream out, Iterable<String> tableHeader, Iterable<Iterable<Cells>> tableBody) throws IOException {
+        DelimitedTextWriter writer = DelimitedTextWriter.tsv(out);
+        List<CharSequence> header = null;
+        for (Iterable<Cells> r: tableBody) {
+            List<Cells> row = newList(r);
+            if (header == null) {
                 header = createHeader(tableHeader, row);
+                writer.writeRow(header);
             }
             List<CharSequence> bodyRow = newList(flatMap(Cells_.<CharSequence>cells(), row));
             Assert.equal(header.size(), bodyRow.size());
-            body.add(bodyRow);
+            writer.writeRow(bodyRow);
         }
-        
-        return Pair.of(mkString("\r\n", map(Transformers.map(TsvConversionService_.escape).andThen(TsvConversionService_.joinCells), cons(header, body))).getBytes(Charset.forName("UTF-8")),
-                       newMap(Pair.of("Content-Disposition", "attachment; filename=" + filename + ".tsv")));
+        if (header == null) {
+            // no rows, just an empty header
+            writer.writeRow(Collections.<CharSequence>emptyList());
+        }
+        writer.flush();
     }
 
     private List<CharSequence> createHeader(Iterable<String> tableHeader, Iterable<Cells> row) {
@@ -148,17 +200,6 @@ public class TsvConversionService {
         return header;
     }
     
-    /**
-     * Remove newlines/cr:s and escape double quotes
-     */
-    static CharSequence escape(CharSequence str) {
-        return str.toString().replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n").replace("\t", "\\t");
-    }
-    
-    static CharSequence joinCells(Iterable<CharSequence> str) {
-        return mkString("\t", str);
-    }
-    
     private <K,V,O> Iterable<Iterable<Cells>> mapBody(final Map<K, ? extends Iterable<V>> obj, final Iterable<? extends MetaNamedMember<V, O>> members) {
         return map((ApplyBi<K,V,Iterable<Cells>>)TsvConversionService_.<K,V,O>mapBodyRow().ap(this, members), flatMap(TsvConversionService_.<K,V>flatKeyToValues(), obj.entrySet()));
     }
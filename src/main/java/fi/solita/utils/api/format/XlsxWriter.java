@@ -0,0 +1,255 @@
+package fi.solita.utils.api.format;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a single sheet XLSX file directly as OOXML into a zip stream, without POI's object model.
+ * Strings are written inline, and the style table is fixed (see the STYLE_* constants).
+ *
+ * Rows are buffered in memory only until the column widths are given,
+ * since the widths have to be written before the sheet data.
+ */
+public final class XlsxWriter {
+    
+    public static final int STYLE_DEFAULT  = 0;
+    public static final int STYLE_HEADER   = 1;
+    public static final int STYLE_WRAP     = 2;
+    public static final int STYLE_DATE     = 3;
+    public static final int STYLE_TIME     = 4;
+    public static final int STYLE_DATETIME = 5;
+    
+    private static final String DATE_FORMAT     = "yyyy-mm-dd";
+    private static final String TIME_FORMAT     = "hh:mm:ss";
+    private static final String DATETIME_FORMAT = "yyyy-mm-dd hh:mm:ss";
+    
+    // in points
+    private static final double DEFAULT_ROW_HEIGHT = 15;
+    private static final double MAX_ROW_HEIGHT = 409;
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private final ZipOutputStream zip;
+    private final Writer writer;
+    private StringBuilder buffered = new StringBuilder();
+    private int rowIndex = -1;
+    
+    public XlsxWriter(OutputStream out, String sheetName) throws IOException {
+        this.zip = new ZipOutputStream(out);
+        this.writer = new BufferedWriter(new OutputStreamWriter(zip, UTF8));
+        writeStaticParts(sheetName);
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                   + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">");
+    }
+    
+    /**
+     * Style for a numeric cell in a column with the given data format, as created by ExcelSerializers for date/time values.
+     */
+    public static int numericStyle(String dataFormat) {
+        if (DATE_FORMAT.equals(dataFormat)) {
+            return STYLE_DATE;
+        } else if (TIME_FORMAT.equals(dataFormat)) {
+            return STYLE_TIME;
+        } else if (DATETIME_FORMAT.equals(dataFormat)) {
+            return STYLE_DATETIME;
+        }
+        return STYLE_DEFAULT;
+    }
+    
+    /**
+     * Must be called before any rows have been written directly, that is, at most once and before {@link #finish()}.
+     *
+     * @param widths in characters
+     */
+    public void setColumnWidths(int[] widths) throws IOException {
+        // an empty cols element is not allowed
+        if (widths.length > 0) {
+            writer.write("<cols>");
+            for (int c = 0; c < widths.length; ++c) {
+                writer.append("<col min=\"").append(Integer.toString(c + 1))
+                      .append("\" max=\"").append(Integer.toString(c + 1))
+                      .append("\" width=\"").append(Integer.toString(widths[c]))
+                      .append("\" customWidth=\"1\"/>");
+            }
+            writer.write("</cols>");
+        }
+        startSheetData();
+    }
+    
+    /**
+     * @param lines number of text lines in the highest cell of the row
+     */
+    public void startRow(int lines) throws IOException {
+        rowIndex += 1;
+        Appendable a = out();
+        a.append("<row r=\"").append(Integer.toString(rowIndex + 1)).append('"');
+        if (lines > 1) {
+            a.append(" ht=\"").append(Double.toString(Math.min(DEFAULT_ROW_HEIGHT * lines, MAX_ROW_HEIGHT))).append("\" customHeight=\"1\"");
+        }
+        a.append('>');
+    }
+    
+    public void endRow() throws IOException {
+        out().append("</row>");
+    }
+    
+    public void stringCell(int column, String value, int style) throws IOException {
+        Appendable a = out();
+        startCell(a, column, style).append(" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+        escape(a, value);
+        a.append("</t></is></c>");
+    }
+    
+    /**
+     * NaN and infinities have no representation in a numeric cell, so they are written as text.
+     */
+    public void numericCell(int column, double value, int style) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            stringCell(column, Double.toString(value), STYLE_DEFAULT);
+            return;
+        }
+        Appendable a = out();
+        startCell(a, column, style).append("><v>");
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            a.append(Long.toString((long) value));
+        } else {
+            a.append(Double.toString(value));
+        }
+        a.append("</v></c>");
+    }
+    
+    public void booleanCell(int column, boolean value, int style) throws IOException {
+        startCell(out(), column, style).append(" t=\"b\"><v>").append(value ? '1' : '0').append("</v></c>");
+    }
+    
+    /**
+     * Completes the file. Does not close the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (buffered != null) {
+            startSheetData();
+        }
+        writer.write("</sheetData></worksheet>");
+        writer.flush();
+        zip.closeEntry();
+        zip.finish();
+    }
+    
+    private void startSheetData() throws IOException {
+        writer.write("<sheetData>");
+        writer.append(buffered);
+        buffered = null;
+    }
+    
+    private Appendable out() {
+        return buffered != null ? buffered : writer;
+    }
+    
+    private Appendable startCell(Appendable a, int column, int style) throws IOException {
+        a.append("<c r=\"");
+        columnName(a, column);
+        a.append(Integer.toString(rowIndex + 1)).append('"');
+        if (style != STYLE_DEFAULT) {
+            a.append(" s=\"").append(Integer.toString(style)).append('"');
+        }
+        return a;
+    }
+    
+    static void columnName(Appendable a, int column) throws IOException {
+        if (column >= 26) {
+            columnName(a, column / 26 - 1);
+        }
+        a.append((char) ('A' + column % 26));
+    }
+    
+    static void escape(Appendable a, String str) throws IOException {
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '&': a.append("&amp;"); break;
+                case '<': a.append("&lt;"); break;
+                case '>': a.append("&gt;"); break;
+                case '"': a.append("&quot;"); break;
+                case '\r': a.append("&#13;"); break;
+                case '\n':
+                case '\t':
+                    a.append(c);
+                    break;
+                default:
+                    if (c >= 0x20 && c != 0xFFFE && c != 0xFFFF) {
+                        a.append(c);
+                    }
+                    // other control characters are not allowed in XML
+            }
+        }
+    }
+    
+    private void writeStaticParts(String sheetName) throws IOException {
+        entry("[Content_Types].xml",
+              "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+            +   "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+            +   "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+            +   "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+            +   "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+            +   "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>"
+            + "</Types>");
+        entry("_rels/.rels",
+              "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+            +   "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>"
+            + "</Relationships>");
+        StringBuilder escapedName = new StringBuilder();
+        escape(escapedName, sheetName);
+        entry("xl/workbook.xml",
+              "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+            +   "<sheets><sheet name=\"" + escapedName + "\" sheetId=\"1\" r:id=\"rId1\"/></sheets>"
+            + "</workbook>");
+        entry("xl/_rels/workbook.xml.rels",
+              "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+            +   "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+            +   "<Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>"
+            + "</Relationships>");
+        // cellXfs in the order of the STYLE_* constants
+        entry("xl/styles.xml",
+              "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+            +   "<numFmts count=\"3\">"
+            +     "<numFmt numFmtId=\"164\" formatCode=\"" + DATE_FORMAT + "\"/>"
+            +     "<numFmt numFmtId=\"165\" formatCode=\"" + TIME_FORMAT + "\"/>"
+            +     "<numFmt numFmtId=\"166\" formatCode=\"" + DATETIME_FORMAT + "\"/>"
+            +   "</numFmts>"
+            +   "<fonts count=\"2\">"
+            +     "<font><sz val=\"11\"/><name val=\"Calibri\"/></font>"
+            +     "<font><b/><sz val=\"11\"/><name val=\"Calibri\"/></font>"
+            +   "</fonts>"
+            +   "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>"
+            +   "<borders count=\"2\">"
+            +     "<border><left/><right/><top/><bottom/><diagonal/></border>"
+            +     "<border><left/><right/><top/><bottom style=\"thin\"/><diagonal/></border>"
+            +   "</borders>"
+            +   "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+            +   "<cellXfs count=\"6\">"
+            +     "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>"
+            +     "<xf numFmtId=\"0\" fontId=\"1\" fillId=\"0\" borderId=\"1\" xfId=\"0\" applyFont=\"1\" applyBorder=\"1\"/>"
+            +     "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyAlignment=\"1\"><alignment wrapText=\"1\"/></xf>"
+            +     "<xf numFmtId=\"164\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>"
+            +     "<xf numFmtId=\"165\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>"
+            +     "<xf numFmtId=\"166\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>"
+            +   "</cellXfs>"
+            +   "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>"
+            + "</styleSheet>");
+    }
+    
+    private void entry(String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        writer.write(content);
+        writer.flush();
+        zip.closeEntry();
+    }
+}
@@ -6,8 +6,15 @@ import static fi.solita.utils.functional.Collections.newMutableMap;
 import static fi.solita.utils.functional.Functional.concat;
 import static fi.solita.utils.functional.Functional.flatMap;
 
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
@@ -20,10 +27,20 @@ import org.eclipse.persistence.jaxb.metadata.MetadataSource;
 
 import fi.solita.utils.api.base.xml.XmlModule;
 import fi.solita.utils.api.format.xml.Dummy;
+import fi.solita.utils.api.util.StreamingOutput;
 
 public class XmlConversionService {
     
-    private final Marshaller marshaller;
+    private static final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newFactory();
+    
+    private final JAXBContext context;
+    private final Iterable<XmlAdapter<?,?>> adapters;
+    
+    /**
+     * Marshallers are not thread-safe, so each serialization borrows one from here.
+     * The pool grows up to the number of concurrent serializations.
+     */
+    private final Queue<Marshaller> marshallers = new ConcurrentLinkedQueue<Marshaller>();
 
     public XmlConversionService(XmlModule xmlModule, Iterable<XmlAdapter<?,?>> adapters, @SuppressWarnings("rawtypes") Class... rootClasses) {
         for (Class<?> rootClass: rootClasses) {
@@ -47,30 +64,118 @@ public class XmlConversionService {
             // include XmlRegistry
             // include all nested classes of XmlAdapters
             Iterable<Class<?>> additionalRoots = concat(newList(xmlModule.getXmlRegistry(), Dummy.class), flatMap(XmlConversionService_.getNestedClasses, adapters));
-            JAXBContext context = JAXBContext.newInstance(newArray(Class.class, concat(additionalRoots, rootClasses)), properties);
-            
-            this.marshaller = context.createMarshaller();
+            this.context = JAXBContext.newInstance(newArray(Class.class, concat(additionalRoots, rootClasses)), properties);
+            this.adapters = newList(adapters);
             
-            // Gotta instantiate adapters manually to get versioned Serializers in.
-            for (XmlAdapter<?, ?> adapter: adapters) {
-                marshaller.setAdapter(adapter);
-            }
+            // fail early if the configuration is broken
+            marshallers.add(createMarshaller());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
     
+    private Marshaller createMarshaller() throws JAXBException {
+        Marshaller marshaller = context.createMarshaller();
+        
+        // Gotta instantiate adapters manually to get versioned Serializers in.
+        for (XmlAdapter<?, ?> adapter: adapters) {
+            marshaller.setAdapter(adapter);
+        }
+        return marshaller;
+    }
+    
+    private Marshaller borrowMarshaller() throws JAXBException {
+        Marshaller marshaller = marshallers.poll();
+        return marshaller != null ? marshaller : createMarshaller();
+    }
+    
+    /**
+     * Only a marshaller which completed its work is returned to the pool.
+     * One which failed in the middle of marshalling may be left in an inconsistent state, so it's just dropped.
+     */
+    private void releaseMarshaller(Marshaller marshaller) {
+        marshallers.offer(marshaller);
+    }
+    
     static Iterable<Class<?>> getNestedClasses(Object o) {
         return newList(o.getClass().getDeclaredClasses());
     }
 
     public byte[] serialize(Object obj) {
+        return serializeStreaming(obj).toByteArray();
+    }
+    
+    /**
+     * Writes directly to <i>out</i>, leaving it open.
+     */
+    public void serialize(OutputStream out, Object obj) {
         try {
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            marshaller.marshal(obj, os);
-            return os.toByteArray();
+            Marshaller marshaller = borrowMarshaller();
+            marshaller.marshal(obj, out);
+            releaseMarshaller(marshaller);
         } catch (JAXBException e) {
             throw new RuntimeException(e);
         }
     }
+    
+    public StreamingOutput serializeStreaming(final Object obj) {
+        return new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream out) {
+                serialize(out, obj);
+            }
+        };
+    }
+    
+    /**
+     * Writes a <i>root</i> element containing each of <i>items</i> marshalled one by one as fragments,
+     * so the whole document never needs to be in memory. The items must be root elements themselves.
+     */
+    public void serialize(OutputStream out, QName root, Iterable<?> items) {
+        try {
+            Marshaller marshaller = borrowMarshaller();
+            boolean completed = false;
+            try {
+                marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+                XMLStreamWriter xml = xmlOutputFactory.createXMLStreamWriter(out, "UTF-8");
+                xml.writeStartDocument("UTF-8", "1.0");
+                if (root.getNamespaceURI().isEmpty()) {
+                    xml.writeStartElement(root.getLocalPart());
+                } else {
+                    xml.writeStartElement(root.getPrefix(), root.getLocalPart(), root.getNamespaceURI());
+                    xml.writeNamespace(root.getPrefix(), root.getNamespaceURI());
+                }
+                for (Object item: items) {
+                    marshaller.marshal(item, xml);
+                }
+                xml.writeEndElement();
+                xml.writeEndDocument();
+                // does not close the underlying stream
+                xml.close();
+                completed = true;
+            } finally {
+                if (completed) {
+                    try {
+                        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, false);
+                        releaseMarshaller(marshaller);
+                    } catch (JAXBException e) {
+                        // the document is already written. Just drop the marshaller, since it's still producing fragments.
+                    }
+                }
+            }
+        } catch (JAXBException e) {
+            throw new RuntimeException(e);
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    public StreamingOutput serializeStreaming(final QName root, final Iterable<?> items) {
+        return new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream out) {
+                serialize(out, root, items);
+            }
+        };
+    }
 }
@@ -0,0 +1,146 @@
+package fi.solita.utils.api.format.geojson;
+
+import static fi.solita.utils.functional.Collections.newList;
+import static fi.solita.utils.functional.Collections.newMap;
+import static fi.solita.utils.functional.Option.Some;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import fi.solita.utils.api.base.http.HttpSerializers.InvalidValueException;
+import fi.solita.utils.api.types.SRSName;
+import fi.solita.utils.functional.Collections;
+import fi.solita.utils.functional.Option;
+import fi.solita.utils.functional.Pair;
+
+/**
+ * Number of decimals to write for GeoJSON coordinates in each coordinate system.
+ *
+ * The decimals in effect are given to the serializers as an ObjectWriter attribute, see {@link #ATTRIBUTE}.
+ */
+public final class CoordinatePrecision {
+    
+    /**
+     * Optional request parameter overriding the number of decimals.
+     */
+    public static final String PARAMETER = "coordinatePrecision";
+    
+    /**
+     * ObjectWriter attribute holding the number of decimals (Integer) for the current serialization.
+     */
+    public static final Object ATTRIBUTE = CoordinatePrecision.class;
+    
+    public static final int MAX_DECIMALS = 15;
+    
+    /**
+     * Centimeters for the metric systems, about a centimeter (7 decimals) for degrees.
+     */
+    public static final CoordinatePrecision DEFAULT = new CoordinatePrecision(newMap(
+        Pair.of(SRSName.EPSG3067, 2),
+        Pair.of(SRSName.EPSG3857, 2),
+        Pair.of(SRSName.EPSG4326, 7),
+        Pair.of(SRSName.CRS84, 7)));
+    
+    /**
+     * No rounding.
+     */
+    public static final CoordinatePrecision FULL = new CoordinatePrecision(Collections.<SRSName,Integer>emptyMap());
+    
+    private static final long[] POWERS_OF_TEN = new long[MAX_DECIMALS + 1];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+        }
+    }
+    
+    private final Map<SRSName,Integer> decimals;
+    
+    public CoordinatePrecision(Map<SRSName,Integer> decimals) {
+        this.decimals = decimals;
+    }
+    
+    public CoordinatePrecision with(SRSName srsName, int decimals) {
+        Map<SRSName,Integer> ret = new HashMap<SRSName,Integer>(this.decimals);
+        ret.put(srsName, checkDecimals(decimals));
+        return new CoordinatePrecision(ret);
+    }
+    
+    public Option<Integer> decimals(SRSName srsName) {
+        return Option.of(decimals.get(srsName));
+    }
+    
+    /**
+     * @param parameter value of the {@link #PARAMETER} request parameter, if given, overriding the decimals of <i>srsName</i>.
+     */
+    public Option<Integer> decimals(SRSName srsName, Option<String> parameter) throws InvalidValueException {
+        for (String param: parameter) {
+            try {
+                return Some(checkDecimals(Integer.parseInt(param)));
+            } catch (IllegalArgumentException e) {
+                throw new InvalidValueException(PARAMETER, param, newList("0-" + MAX_DECIMALS));
+            }
+        }
+        return decimals(srsName);
+    }
+    
+    public static int checkDecimals(int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("Coordinate precision must be between 0 and " + MAX_DECIMALS + ", was: " + decimals);
+        }
+        return decimals;
+    }
+    
+    /**
+     * @return decimals set for the current serialization, if any.
+     */
+    public static Option<Integer> current(SerializerProvider provider) {
+        return Option.of((Integer) provider.getAttribute(ATTRIBUTE));
+    }
+    
+    /**
+     * Writes <i>value</i> as a fixed-point number rounded to <i>decimals</i>, without trailing zeros.
+     * Falls back to the default double formatting for values too large to be scaled into a long.
+     *
+     * @param buf scratch buffer of at least 32 chars
+     */
+    public static void writeNumber(JsonGenerator gen, double value, int decimals, char[] buf) throws IOException {
+        long scale = POWERS_OF_TEN[decimals];
+        double scaled = value * scale;
+        if (Double.isNaN(scaled) || Math.abs(scaled) >= 1e17) {
+            gen.writeNumber(value);
+            return;
+        }
+        long rounded = Math.round(scaled);
+    
+        // digits are written backwards from the end of the buffer
+        int pos = buf.length;
+        long abs = Math.abs(rounded);
+        long fraction = abs % scale;
+        long integer = abs / scale;
+        int fractionDigits = decimals;
+        while (fractionDigits > 0 && fraction % 10 == 0) {
+            fraction /= 10;
+            fractionDigits--;
+        }
+        if (fractionDigits > 0) {
+            for (int i = 0; i < fractionDigits; ++i) {
+                buf[--pos] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            buf[--pos] = '.';
+        }
+        do {
+            buf[--pos] = (char) ('0' + integer % 10);
+            integer /= 10;
+        } while (integer > 0);
+        if (rounded < 0) {
+            buf[--pos] = '-';
+        }
+        gen.writeNumber(buf, pos, buf.length - pos);
+    }
+}
@@ -0,0 +1,67 @@
+package fi.solita.utils.api.format.geojson;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import fi.solita.utils.functional.Option;
+import fi.solita.utils.functional.Tuple;
+
+/**
+ * Serializer for the <i>coordinates</i> of geometry objects, rounding every number to the decimals of
+ * {@link CoordinatePrecision#current(SerializerProvider)}. Coordinates may be nested Iterables, arrays or Tuples of Numbers.
+ *
+ * Without decimals in effect, and for values of other types (e.g. {@link PackedCoordinates}), uses the registered serializers.
+ */
+public final class CoordinatesSerializer extends StdSerializer<Object> {
+
+    public CoordinatesSerializer() {
+        super(Object.class);
+    }
+
+    @Override
+    public void serialize(Object value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        Option<Integer> decimals = CoordinatePrecision.current(provider);
+        if (!decimals.isDefined()) {
+            provider.defaultSerializeValue(value, gen);
+        } else {
+            write(value, gen, provider, decimals.get(), new char[32]);
+        }
+    }
+
+    private static void write(Object value, JsonGenerator gen, SerializerProvider provider, int decimals, char[] buf) throws IOException {
+        if (value instanceof Number) {
+            CoordinatePrecision.writeNumber(gen, ((Number) value).doubleValue(), decimals, buf);
+        } else if (value instanceof PackedCoordinates || value == null) {
+            provider.defaultSerializeValue(value, gen);
+        } else if (value instanceof Iterable) {
+            gen.writeStartArray();
+            for (Object o: (Iterable<?>) value) {
+                write(o, gen, provider, decimals, buf);
+            }
+            gen.writeEndArray();
+        } else if (value instanceof Object[]) {
+            write(((Object[]) value), gen, provider, decimals, buf);
+        } else if (value instanceof Tuple) {
+            write(((Tuple) value).toArray(), gen, provider, decimals, buf);
+        } else if (value instanceof double[]) {
+            gen.writeStartArray();
+            for (double d: (double[]) value) {
+                CoordinatePrecision.writeNumber(gen, d, decimals, buf);
+            }
+            gen.writeEndArray();
+        } else {
+            provider.defaultSerializeValue(value, gen);
+        }
+    }
+
+    private static void write(Object[] values, JsonGenerator gen, SerializerProvider provider, int decimals, char[] buf) throws IOException {
+        gen.writeStartArray();
+        for (Object o: values) {
+            write(o, gen, provider, decimals, buf);
+        }
+        gen.writeEndArray();
+    }
+}
@@ -1,9 +1,12 @@
 package fi.solita.utils.api.format.geojson;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 import fi.solita.utils.api.JsonSerializeAsBean;
 import fi.solita.utils.functional.Option;
 
 @JsonSerializeAsBean
 public final class LineString extends GeometryObject {
+    @JsonSerialize(using = CoordinatesSerializer.class)
     public final Object coordinates;
     
     public LineString(Object murtoviiva) {
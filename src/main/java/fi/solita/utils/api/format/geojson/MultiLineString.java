@@ -1,10 +1,13 @@
 package fi.solita.utils.api.format.geojson;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 import fi.solita.utils.api.JsonSerializeAsBean;
 import fi.solita.utils.functional.Functional;
 import fi.solita.utils.functional.Option;
 
 @JsonSerializeAsBean
 public class MultiLineString extends GeometryObject {
+    @JsonSerialize(using = CoordinatesSerializer.class)
     public final Iterable<?> coordinates;
     
     public static final MultiLineStringWithBBox withBBox(Iterable<?> murtoviivat, Object bbox) {
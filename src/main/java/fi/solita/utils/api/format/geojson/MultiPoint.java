@@ -1,11 +1,14 @@
 package fi.solita.utils.api.format.geojson;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 import fi.solita.utils.api.JsonSerializeAsBean;
 import fi.solita.utils.functional.Functional;
 import fi.solita.utils.functional.Option;
 
 @JsonSerializeAsBean
 public final class MultiPoint extends GeometryObject {
+    @JsonSerialize(using = CoordinatesSerializer.class)
     public final Iterable<?> coordinates;
     
     public MultiPoint(Iterable<?> koordinaatit) {
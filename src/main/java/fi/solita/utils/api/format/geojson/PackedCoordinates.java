@@ -0,0 +1,203 @@
+package fi.solita.utils.api.format.geojson;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import fi.solita.utils.api.util.Assert;
+
+/**
+ * GeoJSON coordinates packed into a single flat double array, instead of nested lists of boxed numbers.
+ *
+ * Positions are stored interleaved (x,y[,z...]) with a fixed dimension. Nesting (rings, lines, polygons)
+ * is described with arrays of exclusive end indices, one array per nesting level from the outermost inwards.
+ * The innermost level indexes positions, the others index elements of the next level.
+ *
+ * Can be used as the <i>coordinates</i> of any geometry object. Iterating gives the parts of the outermost level.
+ */
+@JsonSerialize(using = PackedCoordinates.Serializer.class)
+public final class PackedCoordinates implements Iterable<PackedCoordinates> {
+    
+    private static final int[][] NO_LEVELS = {};
+    
+    public final int dimension;
+    public final double[] ordinates;
+    private final int[][] levels;
+    private final boolean single;
+    
+    // this view covers [from,to) of the first level of 'levels' below 'level'
+    private final int level;
+    private final int from;
+    private final int to;
+    
+    /**
+     * Point
+     */
+    public static PackedCoordinates position(double... ordinates) {
+        return new PackedCoordinates(ordinates.length, ordinates, NO_LEVELS, true);
+    }
+    
+    /**
+     * LineString or MultiPoint
+     */
+    public static PackedCoordinates positions(int dimension, double[] ordinates) {
+        return new PackedCoordinates(dimension, ordinates, NO_LEVELS, false);
+    }
+    
+    /**
+     * Polygon or MultiLineString
+     *
+     * @param partEnds exclusive end position of each ring/line
+     */
+    public static PackedCoordinates parts(int dimension, double[] ordinates, int[] partEnds) {
+        return new PackedCoordinates(dimension, ordinates, new int[][] {partEnds}, false);
+    }
+    
+    /**
+     * MultiPolygon
+     *
+     * @param polygonEnds exclusive end ring of each polygon
+     * @param ringEnds exclusive end position of each ring
+     */
+    public static PackedCoordinates polygons(int dimension, double[] ordinates, int[] polygonEnds, int[] ringEnds) {
+        return new PackedCoordinates(dimension, ordinates, new int[][] {polygonEnds, ringEnds}, false);
+    }
+    
+    private PackedCoordinates(int dimension, double[] ordinates, int[][] levels, boolean single) {
+        this(dimension, ordinates, levels, single, 0, 0, levels.length == 0 ? positionCount(dimension, ordinates) : levels[0].length);
+        for (int i = 0; i < levels.length; ++i) {
+            int[] ends = levels[i];
+            int max = i + 1 < levels.length ? levels[i+1].length : positionCount(dimension, ordinates);
+            for (int j = 0; j < ends.length; ++j) {
+                Assert.True(ends[j] >= (j == 0 ? 0 : ends[j-1]) && ends[j] <= max, "Invalid part end index");
+            }
+        }
+    }
+    
+    private PackedCoordinates(int dimension, double[] ordinates, int[][] levels, boolean single, int level, int from, int to) {
+        this.dimension = dimension;
+        this.ordinates = ordinates;
+        this.levels = levels;
+        this.single = single;
+        this.level = level;
+        this.from = from;
+        this.to = to;
+    }
+    
+    private static int positionCount(int dimension, double[] ordinates) {
+        Assert.equal(0, ordinates.length % Assert.positive(dimension));
+        return ordinates.length / dimension;
+    }
+    
+    /**
+     * Same structure with new ordinates, e.g. after a coordinate transformation.
+     */
+    public PackedCoordinates withOrdinates(double[] newOrdinates) {
+        Assert.equal(ordinates.length, newOrdinates.length);
+        return new PackedCoordinates(dimension, newOrdinates, levels, single, level, from, to);
+    }
+    
+    public boolean isEmpty() {
+        return from == to;
+    }
+    
+    private int start(int lvl, int i) {
+        return i == 0 ? 0 : levels[lvl][i-1];
+    }
+    
+    @Override
+    public Iterator<PackedCoordinates> iterator() {
+        return new Iterator<PackedCoordinates>() {
+            private int i = from;
+    
+            @Override
+            public boolean hasNext() {
+                return i < to;
+            }
+    
+            @Override
+            public PackedCoordinates next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                PackedCoordinates ret;
+                if (level == levels.length) {
+                    ret = new PackedCoordinates(dimension, ordinates, levels, true, level, i, i+1);
+                } else {
+                    ret = new PackedCoordinates(dimension, ordinates, levels, false, level + 1, start(level, i), levels[level][i]);
+                }
+                i++;
+                return ret;
+            }
+    
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    
+    /**
+     * @param decimals number of decimals to round to, or null for full precision
+     */
+    private void write(JsonGenerator gen, Integer decimals) throws IOException {
+        char[] buf = decimals == null ? null : new char[32];
+        if (single) {
+            writePosition(gen, from, decimals, buf);
+        } else {
+            write(gen, level, from, to, decimals, buf);
+        }
+    }
+    
+    private void write(JsonGenerator gen, int lvl, int first, int end, Integer decimals, char[] buf) throws IOException {
+        gen.writeStartArray();
+        if (lvl == levels.length) {
+            for (int p = first; p < end; ++p) {
+                writePosition(gen, p, decimals, buf);
+            }
+        } else {
+            for (int i = first; i < end; ++i) {
+                write(gen, lvl + 1, start(lvl, i), levels[lvl][i], decimals, buf);
+            }
+        }
+        gen.writeEndArray();
+    }
+    
+    private void writePosition(JsonGenerator gen, int position, Integer decimals, char[] buf) throws IOException {
+        gen.writeStartArray();
+        int offset = position * dimension;
+        for (int d = 0; d < dimension; ++d) {
+            double value = ordinates[offset + d];
+            if (decimals != null) {
+                CoordinatePrecision.writeNumber(gen, value, decimals, buf);
+            } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                // like BigDecimal.toPlainString for integral values
+                gen.writeNumber((long) value);
+            } else {
+                gen.writeNumber(value);
+            }
+        }
+        gen.writeEndArray();
+    }
+    
+    public static final class Serializer extends StdSerializer<PackedCoordinates> {
+        public Serializer() {
+            super(PackedCoordinates.class);
+        }
+    
+        @Override
+        public boolean isEmpty(SerializerProvider provider, PackedCoordinates value) {
+            return value == null;
+        }
+    
+        @Override
+        public void serialize(PackedCoordinates value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            value.write(gen, CoordinatePrecision.current(provider).getOrElse(null));
+        }
+    }
+}
@@ -16,8 +16,10 @@ import org.rendersnake.Renderable;
 import fi.solita.utils.api.types.Filters;
 
 public abstract class FAQ implements Renderable {
+    private static final Renderable content = UI.prerendered(new FAQ() {});
+    
     public static Renderable page(String copyright_fi, String copyright_en) {
-        return new Page("FAQ", "FAQ", copyright_fi, copyright_en, new FAQ() {});
+        return new Page("FAQ", "FAQ", copyright_fi, copyright_en, content);
     }
     
     @Override
@@ -3,6 +3,8 @@ package fi.solita.utils.api.html;
 import static org.rendersnake.HtmlAttributesFactory.*;
 
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.rendersnake.DocType;
 import org.rendersnake.HtmlCanvas;
@@ -36,7 +38,7 @@ public class Page extends RenderableWrapper {
             .render(DocType.HTML5)
             .head()
               .meta(http_equiv("Content-Type").content("text/html;charset=UTF-8"))
-              .meta(http_equiv("Content-Security-Policy").content("default-src 'self';style-src 'self' '" + UI.calculateHash(styles()) + "'"))
+              .meta(http_equiv("Content-Security-Policy").content("default-src 'self';style-src 'self' '" + stylesHash() + "'"))
               .title().write(title_fi)._title()
               .style().write(styles(), false)
             ._style()
@@ -67,6 +69,18 @@ public class Page extends RenderableWrapper {
         ._html();
     }
 
+    // pages are created per request, so the hashes are kept per (sub)class
+    private static final ConcurrentMap<Class<?>,String> stylesHashes = new ConcurrentHashMap<Class<?>,String>();
+    
+    private String stylesHash() {
+        String ret = stylesHashes.get(getClass());
+        if (ret == null) {
+            ret = UI.calculateHash(styles());
+            stylesHashes.put(getClass(), ret);
+        }
+        return ret;
+    }
+    
     protected String styles() {
         return
           "html     { font-family: sans-serif; font-weight: lighter; }"
@@ -7,6 +7,7 @@ import static org.rendersnake.HtmlAttributesFactory.id;
 import static org.rendersnake.HtmlAttributesFactory.lang;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -114,6 +115,35 @@ public abstract class UI {
         + "#lang-selector:checked ~ * :lang(fi)             { display: none !important; }"
         + "#lang-selector:checked ~ * [lang]:not(:lang(fi)) { display: revert !important; }";
     
+    /**
+     * Renders request independent content into a String, to be written out later as is.
+     */
+    public static final String render(Renderable content) throws IOException {
+        StringWriter out = new StringWriter();
+        new HtmlCanvas(out).render(content);
+        return out.toString();
+    }
+    
+    /**
+     * Renders <i>content</i> only when first needed, and after that writes out the same result.
+     * Only for content which doesn't depend on the request.
+     */
+    public static final Renderable prerendered(final Renderable content) {
+        return new Renderable() {
+            private volatile String rendered;
+            
+            @Override
+            public void renderOn(HtmlCanvas html) throws IOException {
+                String ret = rendered;
+                if (ret == null) {
+                    ret = render(content);
+                    rendered = ret;
+                }
+                html.write(ret, false);
+            }
+        };
+    }
+    
     public static final String calculateHash(final String content) {
         try {
             return "sha256-" +  new String(Base64.getEncoder().encode(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8))), StandardCharsets.UTF_8);
@@ -21,7 +21,9 @@ import org.joda.time.Period;
 
 import fi.solita.utils.api.NotFoundException;
 import fi.solita.utils.api.base.http.HttpSerializers.InvalidValueException;
+import fi.solita.utils.api.format.HtmlConversionService;
 import fi.solita.utils.api.format.SerializationFormat;
+import fi.solita.utils.api.format.geojson.CoordinatePrecision;
 import fi.solita.utils.api.util.RequestUtil;
 import fi.solita.utils.api.util.ResponseUtil;
 import fi.solita.utils.api.util.ResponseUtil.Response;
@@ -158,7 +160,7 @@ public class SupportServiceBase {
     }
     
     private static final Set<String> defaultCaseIgnoredParams = newSet("propertyName", "cql_filter", "time");
-    private static final String[] defaultKnownParameters = { "time", "presentation", "profile", "srsName" };
+    private static final String[] defaultKnownParameters = { "time", "presentation", "profile", "srsName", CoordinatePrecision.PARAMETER, HtmlConversionService.SORT_BY };
     
     protected Set<String> getCaseIgnoredParams() {
         return defaultCaseIgnoredParams;
@@ -168,6 +170,13 @@ public class SupportServiceBase {
         ServletRequestUtil.checkURL(request, getCaseIgnoredParams(), acceptedParams.length == 0 ? defaultKnownParameters : newArray(String.class, concat(defaultKnownParameters, acceptedParams)));
     }
     
+    /**
+     * For HTML views which can keep themselves up to date with Server-Sent Events.
+     */
+    public void checkUrlAllowingEventStream(Request request, String... acceptedParams) {
+        ServletRequestUtil.checkURLAllowingEventStream(request, getCaseIgnoredParams(), acceptedParams.length == 0 ? defaultKnownParameters : newArray(String.class, concat(defaultKnownParameters, acceptedParams)));
+    }
+    
     /**
      * @throws NotFoundException for unidentified format
      */
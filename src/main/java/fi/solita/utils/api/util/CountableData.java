@@ -0,0 +1,14 @@
+package fi.solita.utils.api.util;
+
+import fi.solita.utils.functional.ApplyZero;
+
+/**
+ * Data supplier which can also tell the amount of its data without fetching it,
+ * for example directly from an index or with a database count query.
+ * 
+ * The count must equal the size of the data returned by {@link #get()}.
+ */
+public interface CountableData<T> extends ApplyZero<T> {
+    
+    long count();
+}
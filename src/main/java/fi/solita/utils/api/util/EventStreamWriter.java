@@ -0,0 +1,70 @@
+package fi.solita.utils.api.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import fi.solita.utils.functional.Option;
+
+/**
+ * Writes Server-Sent Events (text/event-stream). Every event is flushed immediately,
+ * so a closed connection surfaces as an IOException on the next write.
+ */
+public final class EventStreamWriter {
+
+    public static final String CONTENT_TYPE = "text/event-stream";
+
+    private final Writer writer;
+
+    public EventStreamWriter(OutputStream out) {
+        this.writer = new OutputStreamWriter(out, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * @param id sent back by the browser in the Last-Event-ID header when it reconnects.
+     * @param data may contain line breaks, each line is sent as a data field of its own.
+     */
+    public void event(Option<String> id, String event, CharSequence data) throws IOException {
+        for (String i: id) {
+            field("id", i);
+        }
+        field("event", event);
+        // any of \r\n, \n or \r ends a line in an event stream
+        int start = 0;
+        for (int i = 0; i <= data.length(); ++i) {
+            if (i == data.length() || data.charAt(i) == '\n' || data.charAt(i) == '\r') {
+                writer.append("data: ").append(data, start, i).append('\n');
+                if (i < data.length() - 1 && data.charAt(i) == '\r' && data.charAt(i+1) == '\n') {
+                    ++i;
+                }
+                start = i + 1;
+            }
+        }
+        writer.append('\n');
+        writer.flush();
+    }
+
+    /**
+     * Ignored by the browser. Useful as a keep-alive and to detect disconnected clients.
+     */
+    public void comment(String comment) throws IOException {
+        writer.append(": ").append(comment.replace('\n', ' ').replace('\r', ' ')).append("\n\n");
+        writer.flush();
+    }
+
+    /**
+     * How long the browser should wait before reconnecting.
+     */
+    public void retry(long millis) throws IOException {
+        field("retry", Long.toString(millis));
+        writer.append('\n');
+        writer.flush();
+    }
+
+    private void field(String name, String value) throws IOException {
+        Assert.True(value.indexOf('\n') < 0 && value.indexOf('\r') < 0, "Event stream field must not contain line breaks: " + name);
+        writer.append(name).append(": ").append(value).append('\n');
+    }
+}
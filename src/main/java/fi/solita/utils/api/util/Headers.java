@@ -37,4 +37,14 @@ public abstract class Headers {
     public static final String VARY = "Vary";
     
     public static final String CACHE_CONTEXT = "X-Cache-Context";
+    
+    public static final String LAST_EVENT_ID = "Last-Event-ID";
+    
+    public static final String HX_TRIGGER = "HX-Trigger";
+    
+    public static final String RETRY_AFTER = "Retry-After";
+    
+    public static final String AUTHORIZATION = "Authorization";
+    
+    public static final String COOKIE = "Cookie";
 }
@@ -117,11 +117,18 @@ public abstract class RequestUtil {
     }
     
     static void assertAcceptHeader(List<String> accepts) {
+        if (acceptsEventStream(accepts)) {
+            throw new EventStreamNotAccepted();
+        }
+    }
+    
+    static boolean acceptsEventStream(List<String> accepts) {
         for (String accept: accepts) {
-            if (accept.toLowerCase().startsWith("text/event-stream")) {
-                throw new EventStreamNotAccepted();
+            if (accept.toLowerCase().startsWith(EventStreamWriter.CONTENT_TYPE)) {
+                return true;
             }
         }
+        return false;
     }
 
     static boolean inOrder(String a, String b) {
@@ -109,6 +109,41 @@ public abstract class ResponseUtil {
         }
     }
     
+    public static void respondOKWithEternalCaching(Response response, StreamingOutput data) {
+        respond(response, data, 200, true);
+    }
+    
+    public static void respondOK(Response response, StreamingOutput data) {
+        respond(response, data, 200, false);
+    }
+    
+    public static void respond(Response response, StreamingOutput data, int status) {
+        respond(response, data, status, false);
+    }
+    
+    /**
+     * Writes the content directly to the response without buffering it first. Since the whole content
+     * is not known beforehand, no ETag or Content-Length is set, and the container uses chunked transfer.
+     */
+    private static void respond(Response response, StreamingOutput data, int status, boolean cacheOKForInfinity) {
+        try {
+            if (cacheOKForInfinity) {
+                cacheForInfinity(response);
+            }
+            response.setStatus(status);
+            setAccessControlHeaders(response);
+    
+            OutputStream os = response.getOutputStream();
+            try {
+                data.writeTo(os);
+            } finally {
+                os.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
     public static String calculateETag(byte[] data) {
         try {
             MessageDigest md = MessageDigest.getInstance("MD5");
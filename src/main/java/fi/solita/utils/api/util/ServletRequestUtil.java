@@ -47,6 +47,18 @@ public abstract class ServletRequestUtil {
         RequestUtil.assertQueryStringValid(request.getParameterMap(), newList(request.getParameterNames()), caseIgnoredParams, acceptedParams);
     }
     
+    /**
+     * Like {@link #checkURL(Request, Set, String...)}, but lets through requests for Server-Sent Events.
+     * Use {@link #isEventStreamRequest(Request)} to find out which kind of response is wanted.
+     */
+    public static final void checkURLAllowingEventStream(Request request, Set<String> caseIgnoredParams, String... acceptedParams) throws IllegalQueryParametersException, QueryParametersMustNotBeDuplicatedException, QueryParametersMustBeInAlphabeticalOrderException {
+        RequestUtil.assertQueryStringValid(request.getParameterMap(), newList(request.getParameterNames()), caseIgnoredParams, acceptedParams);
+    }
+    
+    public static final boolean isEventStreamRequest(Request request) {
+        return RequestUtil.acceptsEventStream(newList(request.getHeaders(Headers.ACCEPT)));
+    }
+    
     public static final String getContextPath(Request req) {
         return RequestUtil.getContextPath(req.getContextPath(), Option.of(req.getHeader(Headers.X_FORWARDED_PREFIX)));
     }
@@ -0,0 +1,49 @@
+package fi.solita.utils.api.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.springframework.util.FastByteArrayOutputStream;
+
+import fi.solita.utils.functional.Pair;
+
+/**
+ * Response content which is written directly to an OutputStream, instead of being
+ * materialized as a byte[] first. Nothing is produced before {@link #writeTo(OutputStream)} is called.
+ */
+public abstract class StreamingOutput {
+    
+    /**
+     * Writes the content to <i>out</i>. Does not close the stream.
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+    
+    public byte[] toByteArray() {
+        FastByteArrayOutputStream os = new FastByteArrayOutputStream();
+        try {
+            writeTo(os);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return os.toByteArrayUnsafe();
+    }
+    
+    public static StreamingOutput of(final byte[] data) {
+        return new StreamingOutput() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(data);
+            }
+    
+            @Override
+            public byte[] toByteArray() {
+                return data;
+            }
+        };
+    }
+    
+    public static Pair<byte[],Map<String,String>> materialize(Pair<StreamingOutput,Map<String,String>> output) {
+        return Pair.of(output.left().toByteArray(), output.right());
+    }
+}
@@ -0,0 +1,31 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.newList;
+import static fi.solita.utils.functional.Collections.newMap;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import fi.solita.utils.functional.Pair;
+
+public class ChartColumnsTest {
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void encodesColumnsWithDictionaryForKeys() {
+        Map<String,Object> encoded = ChartColumns.encode(newList(
+            newMap(Pair.<Object,Object>of("c", 1L), Pair.<Object,Object>of("foo", "a"), Pair.<Object,Object>of("_foo", 1.5)),
+            newMap(Pair.<Object,Object>of("c", 2L), Pair.<Object,Object>of("foo", "b"), Pair.<Object,Object>of("_foo", 2.5)),
+            newMap(Pair.<Object,Object>of("c", 3L), Pair.<Object,Object>of("foo", "a"))));
+
+        assertEquals(newList(1L, 2L, 3L), encoded.get("c"));
+        assertEquals(newList("a", "b"), encoded.get("k"));
+        assertEquals(newList("foo"), encoded.get("d"));
+        Map<Object,Object[]> series = (Map<Object,Object[]>) encoded.get("s");
+        assertArrayEquals(new Object[] {0, 1, 0}, series.get("foo"));
+        assertArrayEquals(new Object[] {1.5, 2.5, 0}, series.get("_foo"));
+    }
+}
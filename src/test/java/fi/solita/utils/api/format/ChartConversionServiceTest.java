@@ -685,6 +685,20 @@ public class ChartConversionServiceTest {
         assertTrue("Elapsed time should have been measured", elapsedNanos > 0);
     }
 
+    @Test
+    public void keysAndNumbersFollowJsonSerialization() {
+        assertEquals("a\"b", service.jsonSerializeKey("a\"b"));
+        assertEquals("42", service.jsonSerializeKey(42));
+        assertEquals("DAYS", service.jsonSerializeKey(TimeUnit.DAYS));
+        assertEquals("-", service.jsonSerializeKey(""));
+        assertEquals("-", service.jsonSerializeKey(None()));
+
+        assertEquals(Some(5), service.toNumeric(5));
+        assertEquals(None(), service.toNumeric("5"));
+        assertEquals(None(), service.toNumeric(TimeUnit.DAYS));
+        assertEquals(None(), service.toNumeric(new DateTime(0)));
+    }
+
     private static Pair<List<Map<Object, Object>>, List<String>> calculate(Iterable<Row> rows, List<MetaNamedMember<Row, Object>> members) {
         boolean xIsInstant = !members.isEmpty() && DateTime.class.isAssignableFrom(ChartConversionService.resolveType(members.get(0)));
         boolean xIsInterval = !members.isEmpty() && Interval.class.isAssignableFrom(ChartConversionService.resolveType(members.get(0)));
@@ -0,0 +1,51 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.newList;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import fi.solita.utils.api.util.CountableData;
+import fi.solita.utils.functional.ApplyZero;
+
+public class CountConversionServiceTest {
+
+    private final CountConversionService service = new CountConversionService();
+
+    @Test
+    public void countableDataIsNotFetched() {
+        assertEquals("42", count(new CountableData<Iterable<String>>() {
+            @Override
+            public Iterable<String> get() {
+                throw new AssertionError("should not be fetched");
+            }
+
+            @Override
+            public long count() {
+                return 42;
+            }
+        }));
+    }
+
+    @Test
+    public void lazyIterableIsIterated() {
+        assertEquals("3", count(new ApplyZero<Iterable<Integer>>() {
+            @Override
+            public Iterable<Integer> get() {
+                return new Iterable<Integer>() {
+                    @Override
+                    public Iterator<Integer> iterator() {
+                        return newList(1, 2, 3).iterator();
+                    }
+                };
+            }
+        }));
+    }
+
+    private String count(ApplyZero<?> data) {
+        return new String(service.serialize(data), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,73 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.emptyList;
+import static fi.solita.utils.functional.Collections.newList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DelimitedTextWriterTest {
+
+    @SafeVarargs
+    private static String csv(List<? extends CharSequence>... rows) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DelimitedTextWriter writer = DelimitedTextWriter.csv(out);
+        for (List<? extends CharSequence> row: rows) {
+            writer.writeRow(row);
+        }
+        writer.flush();
+        return out.toString("UTF-8");
+    }
+
+    @SafeVarargs
+    private static String tsv(List<? extends CharSequence>... rows) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DelimitedTextWriter writer = DelimitedTextWriter.tsv(out);
+        for (List<? extends CharSequence> row: rows) {
+            writer.writeRow(row);
+        }
+        writer.flush();
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void csvRowsAreQuotedAndSeparatedWithCRLF() throws IOException {
+        assertEquals("\"a\",\"b\"\r\n\"c\",\"\"", csv(newList("a", "b"), newList("c", "")));
+    }
+
+    @Test
+    public void csvEscaping() throws IOException {
+        assertEquals("\"x\\\\y\",\"a\\r\\nb\",\"say \"\"hi\"\"\",\"tab\tbed\"", csv(newList("x\\y", "a\r\nb", "say \"hi\"", "tab\tbed")));
+    }
+
+    @Test
+    public void tsvEscaping() throws IOException {
+        assertEquals("x\\\\y\ta\\r\\nb\tsay \"hi\"\ttab\\tbed", tsv(newList("x\\y", "a\r\nb", "say \"hi\"", "tab\tbed")));
+    }
+
+    @Test
+    public void emptyRow() throws IOException {
+        List<String> empty = emptyList();
+        assertEquals("\"\"", csv(empty));
+        assertEquals("", tsv(empty));
+    }
+
+    @Test
+    public void encodesUtf8() throws IOException {
+        String s = "äö€😀";
+        assertEquals("\"" + s + "\"", csv(newList(s)));
+    }
+
+    @Test
+    public void longContentGoesThroughTheBuffer() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            sb.append("abcä€");
+        }
+        assertEquals(sb.toString(), tsv(newList(sb.toString())));
+    }
+}
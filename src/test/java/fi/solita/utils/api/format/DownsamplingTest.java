@@ -0,0 +1,45 @@
+package fi.solita.utils.api.format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DownsamplingTest {
+
+    @Test
+    public void shortSeriesIsKeptAsIs() {
+        assertArrayEquals(new int[] {0, 1, 2}, Downsampling.lttb(new double[] {1, 2, 3}, new double[] {5, 0, 5}, 3));
+    }
+
+    @Test
+    public void keepsEndpointsAndPeaks() {
+        double[] x = new double[100];
+        double[] y = new double[100];
+        for (int i = 0; i < x.length; ++i) {
+            x[i] = i;
+        }
+        y[37] = 1000;
+        y[71] = -1000;
+
+        int[] kept = Downsampling.lttb(x, y, 10);
+        assertEquals(10, kept.length);
+        assertEquals(0, kept[0]);
+        assertEquals(99, kept[9]);
+        assertContains(kept, 37);
+        assertContains(kept, 71);
+        for (int i = 1; i < kept.length; ++i) {
+            assertTrue(kept[i-1] < kept[i]);
+        }
+    }
+
+    private static void assertContains(int[] arr, int value) {
+        for (int a: arr) {
+            if (a == value) {
+                return;
+            }
+        }
+        throw new AssertionError(value + " not found");
+    }
+}
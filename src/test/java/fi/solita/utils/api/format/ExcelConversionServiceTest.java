@@ -1,13 +1,26 @@
 package fi.solita.utils.api.format;
 
+import static fi.solita.utils.functional.Collections.newList;
+import static fi.solita.utils.functional.Collections.newMutableList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
 
 import fi.solita.utils.api.base.Cells;
 import fi.solita.utils.api.base.Serializers;
 import fi.solita.utils.api.base.excel.ExcelModule;
 import fi.solita.utils.api.base.excel.ExcelSerializers;
+import fi.solita.utils.meta.MetaNamedMember;
 
 public class ExcelConversionServiceTest extends SpreadsheetConversionServiceTestBase {
 
@@ -27,4 +40,105 @@ public class ExcelConversionServiceTest extends SpreadsheetConversionServiceTest
             }
         }
     }
+    
+    @Test
+    public void rowIndicesBeyondShortRange() throws IOException {
+        List<String> rows = newMutableList();
+        for (int i = 0; i < 40000; ++i) {
+            rows.add("row " + i);
+        }
+        
+        XSSFWorkbook wb = new XSSFWorkbook(new ByteArrayInputStream(service.serialize("rows", rows).left()));
+        try {
+            Sheet sheet = wb.getSheetAt(0);
+            assertEquals(40000, sheet.getLastRowNum());
+            assertEquals("row 39999", sheet.getRow(40000).getCell(0).getStringCellValue());
+            assertTrue(sheet.getColumnWidth(0) >= "row 39999".length() * 256);
+        } finally {
+            wb.close();
+        }
+    }
+    
+    @Test
+    public void rowsWithoutColumns() throws IOException {
+        XSSFWorkbook wb = new XSSFWorkbook(new ByteArrayInputStream(service.serialize("rows", newList("a", "b"), Collections.<MetaNamedMember<String,?>>emptyList()).left()));
+        try {
+            Sheet sheet = wb.getSheetAt(0);
+            assertEquals(2, sheet.getLastRowNum());
+            assertEquals(-1, sheet.getRow(1).getLastCellNum());
+        } finally {
+            wb.close();
+        }
+    }
+    
+    @Test
+    public void lightweightWriterProducesAReadableWorkbook() throws IOException {
+        List<String> rows = newMutableList();
+        for (int i = 0; i < 150; ++i) {
+            rows.add(i == 0 ? "a & <b>\r\nsecond line" : "row " + i);
+        }
+        
+        ExcelConversionService lightweight = new ExcelConversionService(module, true);
+        XSSFWorkbook wb = new XSSFWorkbook(new ByteArrayInputStream(lightweight.serialize("rows", rows).left()));
+        try {
+            Sheet sheet = wb.getSheetAt(0);
+            assertEquals("rows", sheet.getSheetName());
+            assertEquals(150, sheet.getLastRowNum());
+            assertEquals("a & <b>\r\nsecond line", sheet.getRow(1).getCell(0).getStringCellValue());
+            assertEquals("row 149", sheet.getRow(150).getCell(0).getStringCellValue());
+            assertTrue(sheet.getColumnWidth(0) >= "second line".length() * 256);
+        } finally {
+            wb.close();
+        }
+    }
+    
+    @Test
+    public void lightweightWriterWithoutColumns() throws IOException {
+        ExcelConversionService lightweight = new ExcelConversionService(module, true);
+        XSSFWorkbook wb = new XSSFWorkbook(new ByteArrayInputStream(lightweight.serialize("rows", newList("a", "b"), Collections.<MetaNamedMember<String,?>>emptyList()).left()));
+        try {
+            Sheet sheet = wb.getSheetAt(0);
+            assertEquals(2, sheet.getLastRowNum());
+            assertEquals(-1, sheet.getRow(1).getLastCellNum());
+        } finally {
+            wb.close();
+        }
+    }
+    
+    @Test
+    public void lightweightWriterWritesNonFiniteNumbersAsText() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XlsxWriter writer = new XlsxWriter(out, "numbers");
+        writer.startRow(1);
+        writer.numericCell(0, 1.5, XlsxWriter.STYLE_DEFAULT);
+        writer.numericCell(1, Double.NaN, XlsxWriter.STYLE_DEFAULT);
+        writer.numericCell(2, Double.NEGATIVE_INFINITY, XlsxWriter.STYLE_DATE);
+        writer.endRow();
+        writer.finish();
+        
+        XSSFWorkbook wb = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()));
+        try {
+            Row row = wb.getSheetAt(0).getRow(0);
+            assertEquals(1.5, row.getCell(0).getNumericCellValue(), 0);
+            assertEquals("NaN", row.getCell(1).getStringCellValue());
+            assertEquals("-Infinity", row.getCell(2).getStringCellValue());
+        } finally {
+            wb.close();
+        }
+    }
+    
+    @Test
+    public void xlsxColumnNames() throws IOException {
+        assertEquals("A", columnName(0));
+        assertEquals("Z", columnName(25));
+        assertEquals("AA", columnName(26));
+        assertEquals("AZ", columnName(51));
+        assertEquals("BA", columnName(52));
+    }
+    
+    private static String columnName(int column) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        XlsxWriter.columnName(sb, column);
+        return sb.toString();
+    }
 }
@@ -0,0 +1,82 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.newList;
+import static fi.solita.utils.functional.Collections.newMap;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.solita.utils.api.format.geojson.Crs;
+import fi.solita.utils.api.format.geojson.Feature.RawFeature;
+import fi.solita.utils.api.format.geojson.FeatureObject;
+import fi.solita.utils.functional.Option;
+import fi.solita.utils.functional.Pair;
+
+public class FeatureCollectionWriterTest {
+    
+    private static final JsonConversionService geoJson = new JsonConversionService(new ObjectMapper());
+    
+    @Test
+    public void writesHeaderAndFeatures() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FeatureCollectionWriter.streaming(geoJson, newList(new RawFeature(newMap(Pair.of("a", 1))), new RawFeature(newMap(Pair.of("a", 2)))), Option.Some(new Crs.NamedCrs("urn:foo"))).writeTo(out);
+    
+        assertEquals("{\"type\":\"FeatureCollection\",\"crs\":{\"type\":\"name\",\"properties\":{\"name\":\"urn:foo\"}},\"features\":[{\"a\":1},{\"a\":2}]}", out.toString("UTF-8"));
+    }
+    
+    @Test
+    public void crsIsOptional() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FeatureCollectionWriter.streaming(geoJson, newList(), Option.<Crs>None()).writeTo(out);
+    
+        assertEquals("{\"type\":\"FeatureCollection\",\"features\":[]}", out.toString("UTF-8"));
+    }
+    
+    @Test
+    public void consumesFeaturesOneByOne() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final AtomicInteger written = new AtomicInteger();
+        final FeatureCollectionWriter writer = new FeatureCollectionWriter(geoJson, out, Option.<Crs>None());
+        writer.writeAll(new Iterable<FeatureObject>() {
+            @Override
+            public Iterator<FeatureObject> iterator() {
+                return new Iterator<FeatureObject>() {
+                    int i = 0;
+                    @Override
+                    public boolean hasNext() {
+                        return i < 3;
+                    }
+                    @Override
+                    public FeatureObject next() {
+                        // the previous feature must already be written before the next one is pulled
+                        assertEquals(i, written.get());
+                        final int n = i++;
+                        return new RawFeature(new Object() {
+                            @JsonValue
+                            public int value() {
+                                written.incrementAndGet();
+                                return n;
+                            }
+                        });
+                    }
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        });
+        assertEquals(3, written.get());
+        writer.finish();
+    
+        assertEquals("{\"type\":\"FeatureCollection\",\"features\":[0,1,2]}", out.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,118 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.newSet;
+import static fi.solita.utils.functional.Option.Some;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class GeojsonFeatureReaderTest {
+
+    private final GeojsonFeatureReader reader = new GeojsonFeatureReader(new ObjectMapper());
+
+    private GeojsonFeatureReader.Features read(String geojson) throws IOException {
+        return reader.read(new ByteArrayInputStream(geojson.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void readsFeatureCollection() throws IOException {
+        ListFeatureCollection features = read("{\"type\":\"FeatureCollection\",\"features\":["
+            + "{\"type\":\"Feature\",\"properties\":{\"name\":\"a\",\"nested\":{\"x\":1}},\"geometry\":{\"coordinates\":[1,2],\"type\":\"Point\"}},"
+            + "{\"type\":\"Feature\",\"id\":\"b\",\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[4,0],[4,3],[0,0]]]},\"properties\":{\"count\":3}}"
+            + "]}");
+
+        assertEquals(2, features.size());
+        assertEquals(0.0, features.getBounds().getMinX(), 0);
+        assertEquals(4.0, features.getBounds().getMaxX(), 0);
+        assertEquals(3.0, features.getBounds().getMaxY(), 0);
+
+        SimpleFeatureIterator it = features.features();
+        try {
+            SimpleFeature first = it.next();
+            assertEquals(2.0, ((Point) first.getDefaultGeometry()).getY(), 0);
+            assertEquals("a", first.getAttribute("name"));
+            assertNull(first.getAttribute("count"));
+            assertEquals("{\"name\":\"a\",\"nested\":{\"x\":1}}", first.getAttribute(GeojsonFeatureReader.JSON));
+
+            SimpleFeature second = it.next();
+            assertEquals("b", second.getID());
+            assertEquals(4, ((Polygon) second.getDefaultGeometry()).getNumPoints());
+            assertEquals(3, second.getAttribute("count"));
+        } finally {
+            it.close();
+        }
+    }
+
+    @Test
+    public void onlyReferencedAttributesAreIncluded() throws IOException {
+        ListFeatureCollection features = new GeojsonFeatureReader(new ObjectMapper(), Some(newSet("name"))).read(new ByteArrayInputStream(
+            "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[0,0]},\"properties\":{\"name\":\"a\",\"other\":[1,2]}}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, features.getSchema().getAttributeCount());
+        assertNull(features.getSchema().getDescriptor(GeojsonFeatureReader.JSON));
+        assertNull(features.getSchema().getDescriptor("other"));
+    }
+
+    @Test
+    public void queriesFeaturesOfAnAreaInOriginalOrder() throws IOException {
+        GeojsonFeatureReader.Features features = read("{\"type\":\"FeatureCollection\",\"features\":["
+            + "{\"type\":\"Feature\",\"id\":\"a\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[5,5]},\"properties\":{}},"
+            + "{\"type\":\"Feature\",\"id\":\"b\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[50,50]},\"properties\":{}},"
+            + "{\"type\":\"Feature\",\"id\":\"c\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[[0,0],[8,1]]},\"properties\":{}}"
+            + "]}");
+
+        GeojsonFeatureReader.Features hits = features.intersecting(new Envelope(0, 10, 0, 10));
+        assertEquals(2, hits.size());
+        SimpleFeatureIterator it = hits.features();
+        try {
+            assertEquals("a", it.next().getID());
+            assertEquals("c", it.next().getID());
+        } finally {
+            it.close();
+        }
+        assertEquals(8.0, hits.getBounds().getMaxX(), 0);
+
+        assertTrue(features.intersecting(new Envelope(100, 110, 100, 110)).isEmpty());
+    }
+
+    @Test
+    public void indexedQueriesGiveSameFeatures() throws IOException {
+        GeojsonFeatureReader.Features features = read("{\"type\":\"FeatureCollection\",\"features\":["
+            + "{\"type\":\"Feature\",\"id\":\"a\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[5,5]},\"properties\":{}},"
+            + "{\"type\":\"Feature\",\"id\":\"b\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[50,50]},\"properties\":{}},"
+            + "{\"type\":\"Feature\",\"id\":\"c\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[[0,0],[8,1]]},\"properties\":{}}"
+            + "]}");
+        GeojsonFeatureReader.Features scanned = features.intersecting(new Envelope(0, 10, 0, 10));
+
+        GeojsonFeatureReader.Features indexed = features.indexed().intersecting(new Envelope(0, 10, 0, 10));
+        assertEquals(scanned.size(), indexed.size());
+        SimpleFeatureIterator it = indexed.features();
+        try {
+            assertEquals("a", it.next().getID());
+            assertEquals("c", it.next().getID());
+        } finally {
+            it.close();
+        }
+        assertEquals(scanned.getBounds(), indexed.getBounds());
+        assertTrue(features.intersecting(new Envelope(100, 110, 100, 110)).isEmpty());
+    }
+
+    @Test
+    public void readsSingleFeature() throws IOException {
+        ListFeatureCollection features = read("{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[[0,0],[1,1]]},\"properties\":{}}");
+        assertEquals(1, features.size());
+    }
+}
@@ -0,0 +1,199 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.emptyList;
+import static fi.solita.utils.functional.Collections.newList;
+import static fi.solita.utils.functional.Collections.newMutableList;
+import static fi.solita.utils.functional.Collections.newMutableMap;
+import static fi.solita.utils.functional.Option.None;
+import static fi.solita.utils.functional.Option.Some;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.AccessibleObject;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.rendersnake.HtmlCanvas;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import fi.solita.utils.api.Includes;
+import fi.solita.utils.api.base.html.HtmlModule;
+import fi.solita.utils.api.base.html.HtmlSerializer;
+import fi.solita.utils.api.util.JakartaRequest;
+import fi.solita.utils.functional.Option;
+import fi.solita.utils.meta.MetaNamedMember;
+
+public class HtmlConversionServiceTest {
+
+    @Test
+    public void uriWithParameterKeepsAlphabeticalOrder() {
+        assertEquals("/foo.html?count=10&sortBy=name&startIndex=1", HtmlConversionService.uriWithParameter("/foo.html", Some("count=10&startIndex=1"), "sortBy", Some("name")));
+        assertEquals("/foo.html?count=10&startIndex=21", HtmlConversionService.uriWithParameter("/foo.html", Some("count=10&startIndex=11"), "startIndex", Some("21")));
+        assertEquals("/foo.html", HtmlConversionService.uriWithParameter("/foo.html", Some("startIndex=11"), "startIndex", None()));
+        assertEquals("/foo.html?startIndex=2", HtmlConversionService.uriWithParameter("/foo.html", None(), "startIndex", Some("2")));
+    }
+
+    /**
+     * Records what has been written to the stream, and how much of it was there at each flush.
+     */
+    static class RecordingOutputStream extends OutputStream {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final List<Integer> flushes = newMutableList();
+
+        @Override
+        public void write(int b) {
+            received.write(b);
+        }
+        @Override
+        public void write(byte[] b, int off, int len) {
+            received.write(b, off, len);
+        }
+        @Override
+        public void flush() {
+            flushes.add(received.size());
+        }
+        String content() {
+            return new String(received.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final MetaNamedMember<String, String> self = new MetaNamedMember<String, String>() {
+        @Override
+        public String apply(String t) {
+            return t;
+        }
+        @Override
+        public AccessibleObject getMember() {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public String getName() {
+            return "";
+        }
+    };
+
+    private static HtmlConversionService service(int flushInterval) {
+        Map<Class<?>, HtmlSerializer<?>> serializers = newMutableMap();
+        serializers.put(String.class, new HtmlSerializer<String>() {
+            @Override
+            public void renderOn(String value, HtmlCanvas html, HtmlModule module) throws IOException {
+                html.write(value);
+            }
+        });
+        return new HtmlConversionService(new HtmlModule(serializers), false, flushInterval) {
+            @Override
+            protected Option<String> docName(MetaNamedMember<?, ?> member) {
+                return None();
+            }
+            @Override
+            protected Option<String> docName_en(MetaNamedMember<?, ?> member) {
+                return None();
+            }
+            @Override
+            protected Option<String> docDescription(MetaNamedMember<?, ?> member) {
+                return None();
+            }
+            @Override
+            protected Option<String> docDescription_en(MetaNamedMember<?, ?> member) {
+                return None();
+            }
+        };
+    }
+
+    @Test
+    public void headAndTableHeaderAreSentBeforeTheBodyIsFinished() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v1/rows.html");
+        request.setServletPath("/v1");
+        request.setPathInfo("/rows.html");
+
+        final RecordingOutputStream out = new RecordingOutputStream();
+        // what the client had received when each row was pulled
+        final List<String> receivedBeforeRow = newMutableList();
+        Iterable<String> rows = new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    int i = 0;
+                    @Override
+                    public boolean hasNext() {
+                        return i < 5;
+                    }
+                    @Override
+                    public String next() {
+                        receivedBeforeRow.add(out.content());
+                        return "@row" + i++ + "@";
+                    }
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+        Includes<String> includes = new Includes<String>(newList(self), emptyList(), emptyList(), true, emptyList());
+
+        HtmlConversionService html = service(2);
+        html.serializeStreaming(JakartaRequest.of(request), html.title("Rows"), rows, includes).writeTo(out);
+
+        assertEquals(5, receivedBeforeRow.size());
+        // the first two rows are pulled ahead, before anything is written
+        assertEquals("", receivedBeforeRow.get(1));
+
+        // head and table header were flushed before the rest of the rows were produced
+        String beforeThirdRow = receivedBeforeRow.get(2);
+        assertTrue(beforeThirdRow.contains("</head>"));
+        assertTrue(beforeThirdRow.contains("</thead>"));
+        assertFalse(beforeThirdRow.contains("</html>"));
+
+        // rows are flushed every two rows
+        assertTrue(beforeThirdRow.contains("@row1@"));
+        assertFalse(receivedBeforeRow.get(3).contains("@row2@"));
+        assertTrue(receivedBeforeRow.get(4).contains("@row3@"));
+        assertFalse(receivedBeforeRow.get(4).contains("@row4@"));
+
+        assertTrue(out.flushes.size() >= 3);
+        assertTrue(out.content().trim().endsWith("</html>"));
+        assertEquals(out.received.size(), (int) out.flushes.get(out.flushes.size() - 1));
+    }
+
+    @Test
+    public void keyedRowsAreFlushedBeforeTheBodyIsFinished() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v1/rows.html");
+        request.setServletPath("/v1");
+        request.setPathInfo("/rows.html");
+
+        final RecordingOutputStream out = new RecordingOutputStream();
+        // what the client had received when the values of each key were pulled
+        final Map<String,String> receivedBeforeKey = newMutableMap();
+        Map<String,Iterable<String>> rows = new LinkedHashMap<String,Iterable<String>>();
+        for (final String key: newList("a", "b", "c", "d")) {
+            rows.put(key, new Iterable<String>() {
+                @Override
+                public Iterator<String> iterator() {
+                    receivedBeforeKey.put(key, out.content());
+                    return (key.equals("a") ? newList("@a0@", "@a1@") : newList("@" + key + "0@")).iterator();
+                }
+            });
+        }
+        Includes<String> includes = new Includes<String>(newList(self), emptyList(), emptyList(), true, emptyList());
+
+        HtmlConversionService html = service(2);
+        html.serializeWithKeyStreaming(JakartaRequest.of(request), html.title("Rows"), rows, includes).writeTo(out);
+
+        assertTrue(receivedBeforeKey.get("a").contains("</thead>"));
+        // the first three rows were flushed when the third key was reached
+        assertFalse(receivedBeforeKey.get("c").contains("@a0@"));
+        assertTrue(receivedBeforeKey.get("d").contains("@a1@"));
+        assertTrue(receivedBeforeKey.get("d").contains("@b0@"));
+        assertFalse(receivedBeforeKey.get("d").contains("@c0@"));
+        assertTrue(out.content().contains("@d0@"));
+    }
+}
@@ -0,0 +1,93 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.newList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fi.solita.utils.functional.ApplyZero;
+
+public class HtmlRowDiffFeedTest {
+
+    private final HtmlRowDiffFeed feed = new HtmlRowDiffFeed(10);
+
+    private volatile String version = "1";
+    private volatile List<String> rows = newList("<td>a</td>");
+    private final AtomicInteger versionPolls = new AtomicInteger();
+    private final AtomicInteger renders = new AtomicInteger();
+
+    private final ApplyZero<String> versions = new ApplyZero<String>() {
+        @Override
+        public String get() {
+            versionPolls.incrementAndGet();
+            return version;
+        }
+    };
+
+    private final ApplyZero<List<String>> renderedRows = new ApplyZero<List<String>>() {
+        @Override
+        public List<String> get() {
+            renders.incrementAndGet();
+            return rows;
+        }
+    };
+
+    @Test
+    public void clientsShareTheInitialGeneration() {
+        HtmlRowDiffFeed.Generation first = feed.current(versions, renderedRows);
+        assertSame(first, feed.current(versions, renderedRows));
+        assertEquals("1", first.version);
+        assertEquals(1, renders.get());
+    }
+
+    @Test
+    public void nothingChanged() throws InterruptedException {
+        HtmlRowDiffFeed.Generation first = feed.current(versions, renderedRows);
+        assertSame(first, feed.next(first, versions, renderedRows));
+        assertEquals(1, renders.get());
+    }
+
+    @Test
+    public void clientsShareTheRenderOfAChange() throws InterruptedException {
+        HtmlRowDiffFeed.Generation first = feed.current(versions, renderedRows);
+        version = "2";
+        rows = newList("<td>b</td>");
+
+        HtmlRowDiffFeed.Generation second = feed.next(first, versions, renderedRows);
+        assertEquals(1, second.number);
+        assertEquals("2", second.version);
+        assertTrue(second.diff.get().contains("<td>b</td>"));
+
+        int polls = versionPolls.get();
+        assertSame(second, feed.next(first, versions, renderedRows));
+        assertEquals(polls, versionPolls.get());
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void newVersionWithSameRowsHasNoDiff() throws InterruptedException {
+        HtmlRowDiffFeed.Generation first = feed.current(versions, renderedRows);
+        version = "2";
+        assertFalse(feed.next(first, versions, renderedRows).diff.isDefined());
+    }
+
+    @Test
+    public void clientMayMissGenerations() throws InterruptedException {
+        HtmlRowDiffFeed.Generation first = feed.current(versions, renderedRows);
+        version = "2";
+        feed.next(first, versions, renderedRows);
+        version = "3";
+        rows = newList("<td>c</td>");
+        HtmlRowDiffFeed.Generation latest = feed.next(feed.next(first, versions, renderedRows), versions, renderedRows);
+
+        assertSame(latest, feed.next(first, versions, renderedRows));
+        assertEquals(2, latest.number);
+        assertEquals(HtmlRowDiff.tbody(newList("<td>c</td>")), latest.tbody());
+    }
+}
@@ -0,0 +1,37 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.newList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HtmlRowDiffTest {
+
+    @Test
+    public void identicalRowsGetDistinctIds() {
+        HtmlRowDiff.RowIds ids = new HtmlRowDiff.RowIds();
+        String first = ids.next("<td>a</td>");
+        String second = ids.next("<td>a</td>");
+        assertEquals(HtmlRowDiff.hash("<td>a</td>"), first);
+        assertEquals(first + "-2", second);
+    }
+
+    @Test
+    public void nothingChanged() {
+        HtmlRowDiff diff = new HtmlRowDiff(newList("<td>a</td>", "<td>b</td>"));
+        assertFalse(diff.next(newList("<td>b</td>", "<td>a</td>")).isDefined());
+    }
+
+    @Test
+    public void removedAndAddedRows() {
+        HtmlRowDiff diff = new HtmlRowDiff(newList("<td>a</td>", "<td>b</td>"));
+        String fragment = diff.next(newList("<td>a</td>", "<td>c</td>")).get();
+        assertEquals("<tbody><tr id=\"" + HtmlRowDiff.hash("<td>b</td>") + "\" hx-swap-oob=\"delete\"></tr></tbody>"
+                   + "<tbody hx-swap-oob=\"beforeend:#table > tbody\"><tr id=\"" + HtmlRowDiff.hash("<td>c</td>") + "\"><td>c</td></tr></tbody>", fragment);
+
+        // the new state is the base for the next diff
+        assertTrue(diff.next(newList("<td>c</td>")).get().contains(HtmlRowDiff.hash("<td>a</td>")));
+    }
+}
@@ -0,0 +1,80 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.newList;
+import static fi.solita.utils.functional.Collections.newMutableList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JsonLinesConversionServiceTest {
+
+    private static JsonLinesConversionService jsonlines(int flushInterval) {
+        return new JsonLinesConversionService(new JsonConversionService(new ObjectMapper()), flushInterval);
+    }
+
+    private static <T> List<T> toList(Iterator<T> it) {
+        List<T> ret = newMutableList();
+        while (it.hasNext()) {
+            ret.add(it.next());
+        }
+        return ret;
+    }
+
+    @Test
+    public void eachRowIsOnItsOwnLine() {
+        assertEquals("1\n\"foo\"\n[2,3]\n", new String(jsonlines(1000).serialize(newList(1, "foo", newList(2, 3)))));
+    }
+
+    @Test
+    public void emptyProducesNothing() {
+        assertEquals("", new String(jsonlines(1000).serialize(newList())));
+    }
+
+    @Test
+    public void flushesEveryIntervalRows() throws Exception {
+        final List<Integer> flushedSizes = newMutableList();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushedSizes.add(size());
+            }
+        };
+
+        jsonlines(2).serialize(out, newList(1, 2, 3, 4, 5));
+
+        assertEquals("1\n2\n3\n4\n5\n", out.toString("UTF-8"));
+        // after rows 2 and 4, and finally when the generator is closed
+        assertEquals(newList(4, 8, 10), flushedSizes);
+    }
+
+    @Test
+    public void deserializesLazilyFromStream() {
+        Iterator<Integer> it = jsonlines(1000).deserialize(Integer.class, new ByteArrayInputStream("1\n2\n\n3\n".getBytes()));
+
+        assertEquals(newList(1, 2, 3), toList(it));
+    }
+
+    @Test
+    public void deserializesInParallelPreservingOrder() {
+        StringBuilder sb = new StringBuilder();
+        List<Integer> expected = newMutableList();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append(i).append('\n');
+            expected.add(i);
+        }
+        sb.append(1000);
+        expected.add(1000);
+
+        Iterator<Integer> it = jsonlines(1000).deserializeParallel(Integer.class, new ByteArrayInputStream(sb.toString().getBytes()), new ForkJoinPool(4), 7);
+
+        assertEquals(expected, toList(it));
+    }
+}
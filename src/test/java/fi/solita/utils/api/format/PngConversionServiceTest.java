@@ -0,0 +1,63 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Option.None;
+import static fi.solita.utils.functional.Option.Some;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.net.URI;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Test;
+
+public class PngConversionServiceTest {
+
+    @Test
+    public void tileIndexToleratesRoundingErrors() {
+        assertEquals(3, PngConversionService.tileIndex(3*1024.0, 1024.0));
+        assertEquals(3, PngConversionService.tileIndex(3*1024.0 - 0.0001, 1024.0));
+        assertEquals(3, PngConversionService.tileIndex(0.3, 0.1));
+    }
+
+    @Test
+    public void tileIndexOfNegativeCoordinates() {
+        assertEquals(-1, PngConversionService.tileIndex(-1024.0, 1024.0));
+        assertEquals(-2, PngConversionService.tileIndex(-1500.0, 1024.0));
+    }
+
+    @Test
+    public void revisionIsTheSegmentAfterApiVersion() {
+        URI base = URI.create("http://localhost:8080/ctx/");
+        assertEquals(Some(123L), PngConversionService.revision(base, "v1/123/foo.png?bbox=1,2,3,4"));
+        assertEquals(Some(123L), PngConversionService.revision(base, "/ctx/v1/123/foo/2024/bar.png"));
+        assertEquals(Some(123L), PngConversionService.revision(URI.create("http://localhost:8080"), "/v1/123/foo.png"));
+    }
+
+    @Test
+    public void otherNumericSegmentsAreNotRevisions() {
+        URI base = URI.create("http://localhost:8080/ctx/");
+        assertEquals(None(), PngConversionService.revision(base, "v1/foo/2024/bar.png"));
+        assertEquals(None(), PngConversionService.revision(base, "v1/foo.png?bbox=1/2/3"));
+        assertEquals(None(), PngConversionService.revision(base, "/other/v1/123/foo.png"));
+        assertEquals(None(), PngConversionService.revision(base, "v1/123.png"));
+    }
+
+    @Test
+    public void bboxOfTileIsNormalizedToIndices() {
+        double width = 1024.0;
+        double minX = 380000.0;
+        // as computed for a sibling tile, and as requested by a client
+        ReferencedEnvelope computed = new ReferencedEnvelope(minX + 3*width, minX + 4*width, 7*width, 8*width, null);
+        ReferencedEnvelope requested = new ReferencedEnvelope(383072.00000001, 384095.99999999, 7168.0, 8192.0, null);
+        assertEquals(PngConversionService.normalizedBbox(computed), PngConversionService.normalizedBbox(requested));
+        assertEquals("1024@374,7", PngConversionService.normalizedBbox(computed));
+    }
+
+    @Test
+    public void bboxOfOtherImagesIsRounded() {
+        assertEquals(PngConversionService.normalizedBbox(new ReferencedEnvelope(0, 2000, 0, 1000, null)),
+                     PngConversionService.normalizedBbox(new ReferencedEnvelope(0.0001, 2000.0001, 0, 1000, null)));
+        assertNotEquals(PngConversionService.normalizedBbox(new ReferencedEnvelope(0, 2000, 0, 1000, null)),
+                        PngConversionService.normalizedBbox(new ReferencedEnvelope(10, 2010, 0, 1000, null)));
+    }
+}
@@ -0,0 +1,193 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Option.None;
+import static fi.solita.utils.functional.Option.Some;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fi.solita.utils.functional.Apply;
+import fi.solita.utils.functional.ApplyZero;
+
+public class RenderPoolTest {
+
+    @Test
+    public void rendersInPool() {
+        RenderPool pool = new RenderPool(1, 1024, 0);
+        try {
+            assertEquals("foo", pool.render(None(), 1024, new ApplyZero<String>() {
+                @Override
+                public String get() {
+                    return "foo";
+                }
+            }));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void preparesInCallingThread() {
+        RenderPool pool = new RenderPool(1, 1024, 0);
+        try {
+            final Thread caller = Thread.currentThread();
+            assertEquals("prepared in caller, rendered in pool", pool.render(None(), 1024, new ApplyZero<String>() {
+                @Override
+                public String get() {
+                    return Thread.currentThread() == caller ? "prepared in caller" : "prepared elsewhere";
+                }
+            }, new Apply<String,String>() {
+                @Override
+                public String apply(String prepared) {
+                    return prepared + (Thread.currentThread() == caller ? ", rendered in caller" : ", rendered in pool");
+                }
+            }));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectsWhenMemoryNotAvailableWithinTimeout() throws Exception {
+        final RenderPool pool = new RenderPool(2, 1024, 10);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService requests = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> first = requests.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return pool.render(None(), 1024, new ApplyZero<String>() {
+                        @Override
+                        public String get() {
+                            started.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                            return "first";
+                        }
+                    });
+                }
+            });
+            started.await();
+
+            try {
+                pool.render(None(), 1024, new ApplyZero<String>() {
+                    @Override
+                    public String get() {
+                        return "second";
+                    }
+                });
+                fail();
+            } catch (RenderPool.RenderingUnavailableException e) {
+                assertEquals(1, e.retryAfterSeconds);
+            }
+
+            release.countDown();
+            assertEquals("first", first.get(1, TimeUnit.SECONDS));
+        } finally {
+            requests.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void preparesWithoutHoldingTheBudget() throws Exception {
+        final RenderPool pool = new RenderPool(2, 1024, 1000);
+        final CountDownLatch preparing = new CountDownLatch(1);
+        final CountDownLatch prepared = new CountDownLatch(1);
+        ExecutorService requests = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> slow = requests.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return pool.render(None(), 1024, new ApplyZero<String>() {
+                        @Override
+                        public String get() {
+                            preparing.countDown();
+                            try {
+                                prepared.await();
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                            return "slow";
+                        }
+                    }, new Apply<String,String>() {
+                        @Override
+                        public String apply(String p) {
+                            return p;
+                        }
+                    });
+                }
+            });
+            preparing.await();
+
+            // the whole budget is available while the other request is still preparing
+            assertEquals("ready", pool.render(None(), 1024, new ApplyZero<String>() {
+                @Override
+                public String get() {
+                    return "ready";
+                }
+            }));
+
+            prepared.countDown();
+            assertEquals("slow", slow.get(1, TimeUnit.SECONDS));
+        } finally {
+            requests.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void coalescesRendersWithSameKey() throws Exception {
+        final RenderPool pool = new RenderPool(2, 1024*1024, 1000);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger renders = new AtomicInteger();
+        final ApplyZero<Integer> render = new ApplyZero<Integer>() {
+            @Override
+            public Integer get() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return renders.incrementAndGet();
+            }
+        };
+        ExecutorService requests = Executors.newFixedThreadPool(2);
+        try {
+            Callable<Integer> request = new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return pool.render(Some("key"), 1024, render);
+                }
+            };
+            Future<Integer> first = requests.submit(request);
+            started.await();
+            Future<Integer> second = requests.submit(request);
+            // give the second request time to join the first one
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals(Integer.valueOf(1), first.get(1, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(1), second.get(1, TimeUnit.SECONDS));
+            assertEquals(1, renders.get());
+        } finally {
+            requests.shutdown();
+            pool.shutdown();
+        }
+    }
+}
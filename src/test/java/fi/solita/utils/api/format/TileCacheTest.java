@@ -0,0 +1,65 @@
+package fi.solita.utils.api.format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class TileCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsedOverBudget() {
+        TileCache cache = new TileCache(10);
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[4]);
+        cache.get("a");
+        cache.put("c", new byte[4]);
+
+        assertTrue(cache.get("a").isDefined());
+        assertFalse(cache.get("b").isDefined());
+        assertTrue(cache.get("c").isDefined());
+    }
+
+    @Test
+    public void spillsEvictedToDisk() throws IOException {
+        File dir = Files.createTempDirectory("tilecache").toFile();
+        TileCache cache = new TileCache(4, dir, 100);
+        cache.put("a", new byte[] {1, 2, 3});
+        cache.put("b", new byte[] {4, 5, 6});
+
+        assertTrue(new File(dir, TileCache.fileName("a")).isFile());
+        assertArrayEquals(new byte[] {1, 2, 3}, cache.get("a").get());
+    }
+
+    @Test
+    public void reusesSpilledImagesOfPreviousInstance() throws IOException {
+        File dir = Files.createTempDirectory("tilecache").toFile();
+        TileCache cache = new TileCache(4, dir, 100);
+        cache.put("a", new byte[] {1, 2, 3});
+        cache.put("b", new byte[] {4, 5, 6});
+
+        assertArrayEquals(new byte[] {1, 2, 3}, new TileCache(4, dir, 100).get("a").get());
+    }
+
+    @Test
+    public void enforcesSpillBudgetOverPreviousInstances() throws IOException {
+        File dir = Files.createTempDirectory("tilecache").toFile();
+        Files.write(new File(dir, "unfinished.png.tmp").toPath(), new byte[] {1});
+        Files.write(new File(dir, TileCache.fileName("old")).toPath(), new byte[5]);
+        new File(dir, TileCache.fileName("old")).setLastModified(System.currentTimeMillis() - 60*1000);
+        Files.write(new File(dir, TileCache.fileName("new")).toPath(), new byte[5]);
+
+        TileCache cache = new TileCache(0, dir, 8);
+
+        assertFalse(new File(dir, "unfinished.png.tmp").exists());
+        assertFalse(cache.get("old").isDefined());
+        assertTrue(cache.get("new").isDefined());
+        assertEquals(1, dir.list().length);
+    }
+}
@@ -0,0 +1,114 @@
+package fi.solita.utils.api.format;
+
+import static fi.solita.utils.functional.Collections.emptyList;
+import static fi.solita.utils.functional.Collections.emptyMap;
+import static fi.solita.utils.functional.Collections.emptySet;
+import static fi.solita.utils.functional.Collections.newList;
+import static fi.solita.utils.functional.Collections.newMutableList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+import org.eclipse.persistence.jaxb.metadata.MetadataSource;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import fi.solita.utils.api.base.xml.XmlMetadataSource;
+import fi.solita.utils.api.base.xml.XmlModule;
+import fi.solita.utils.api.base.xml.XmlNameGenerator;
+import fi.solita.utils.api.base.xml.XmlRegistry;
+
+public class XmlConversionServiceTest {
+
+    @XmlRootElement(name = "item")
+    public static class Item {
+        public String name;
+
+        public Item() {
+        }
+
+        public Item(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final XmlModule module = new XmlModule() {
+        @Override
+        public MetadataSource getMetadataSource() {
+            return new XmlMetadataSource(XmlNameGenerator.class, emptyMap());
+        }
+        @Override
+        public Collection<Package> getAdditionalPackages() {
+            return emptySet();
+        }
+        @Override
+        public Class<?> getXmlRegistry() {
+            return XmlRegistry.class;
+        }
+    };
+
+    private final XmlConversionService xml = new XmlConversionService(module, emptyList(), Item.class);
+
+    private static Document parse(byte[] data) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(data));
+    }
+
+    @Test
+    public void streamsItemsAsFragmentsInsideRoot() throws Exception {
+        byte[] data = xml.serializeStreaming(new QName("items"), newList(new Item("a"), new Item("b"))).toByteArray();
+
+        Document doc = parse(data);
+        assertEquals("items", doc.getDocumentElement().getNodeName());
+        NodeList items = doc.getDocumentElement().getElementsByTagName("item");
+        assertEquals(2, items.getLength());
+        assertEquals("a", items.item(0).getTextContent());
+        assertEquals("b", items.item(1).getTextContent());
+        // items are fragments, not documents of their own
+        assertEquals(1, new String(data, StandardCharsets.UTF_8).split("<\\?xml").length - 1);
+    }
+
+    @Test
+    public void singleObjectAfterFragments() throws Exception {
+        xml.serializeStreaming(new QName("items"), newList(new Item("a"))).toByteArray();
+
+        // a pooled marshaller must not be left producing fragments
+        assertEquals("item", parse(xml.serialize(new Item("a"))).getDocumentElement().getNodeName());
+        assertEquals(1, new String(xml.serialize(new Item("a")), StandardCharsets.UTF_8).split("<\\?xml").length - 1);
+    }
+
+    @Test
+    public void concurrentSerializations() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> results = newMutableList();
+            for (int i = 0; i < 200; ++i) {
+                final String name = "item" + i;
+                results.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() {
+                        return xml.serialize(new Item(name));
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); ++i) {
+                assertEquals("item" + i, parse(results.get(i).get(10, TimeUnit.SECONDS)).getDocumentElement().getTextContent());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package fi.solita.utils.api.format.geojson;
+
+import static fi.solita.utils.functional.Collections.newList;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.solita.utils.api.base.http.HttpSerializers.InvalidValueException;
+import fi.solita.utils.api.types.SRSName;
+import fi.solita.utils.functional.Option;
+
+public class CoordinatePrecisionTest {
+    
+    private static String json(Object o, int decimals) throws Exception {
+        return new ObjectMapper().writer().withAttribute(CoordinatePrecision.ATTRIBUTE, decimals).writeValueAsString(o);
+    }
+    
+    @Test
+    public void roundsToFixedPoint() throws Exception {
+        assertEquals("[385000.12,6672000.5]", json(PackedCoordinates.position(385000.123456, 6672000.499999), 2));
+        assertEquals("[24.9384118,60.1698557]", json(PackedCoordinates.position(24.93841176543, 60.16985573), 7));
+    }
+    
+    @Test
+    public void dropsTrailingZerosAndDecimalPoint() throws Exception {
+        assertEquals("[1,2.5,0]", json(PackedCoordinates.position(1.0004, 2.5, 0.0), 2));
+    }
+    
+    @Test
+    public void negativeValues() throws Exception {
+        assertEquals("[-1.25,0,-0.01]", json(PackedCoordinates.position(-1.25, -0.004, -0.009), 2));
+    }
+    
+    @Test
+    public void zeroDecimals() throws Exception {
+        assertEquals("[385001,-3]", json(PackedCoordinates.position(385000.5, -2.6), 0));
+    }
+    
+    @Test
+    public void fullPrecisionWithoutAttribute() throws Exception {
+        assertEquals("[385000.123456,1]", new ObjectMapper().writeValueAsString(PackedCoordinates.position(385000.123456, 1)));
+    }
+    
+    @Test
+    public void rulesPerSrsName() {
+        assertEquals(Option.Some(2), CoordinatePrecision.DEFAULT.decimals(SRSName.EPSG3067));
+        assertEquals(Option.Some(7), CoordinatePrecision.DEFAULT.decimals(SRSName.CRS84));
+        assertEquals(Option.Some(3), CoordinatePrecision.DEFAULT.with(SRSName.EPSG3067, 3).decimals(SRSName.EPSG3067));
+        assertEquals(Option.<Integer>None(), CoordinatePrecision.FULL.decimals(SRSName.EPSG3067));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyDecimals() {
+        CoordinatePrecision.checkDecimals(CoordinatePrecision.MAX_DECIMALS + 1);
+    }
+    
+    private static String coordinates(LineString geometry, int decimals) throws Exception {
+        return new ObjectMapper().readTree(json(geometry, decimals)).get("coordinates").toString();
+    }
+    
+    private static List<BigDecimal> position(String x, String y) {
+        return newList(new BigDecimal(x), new BigDecimal(y));
+    }
+    
+    private static final LineString metric = new LineString(newList(position("385000.123456", "6672000.499999"), position("385010", "6672010.006")));
+    private static final LineString degrees = new LineString(newList(position("24.93841176543", "60.16985573"), position("24.9", "60.1")));
+    
+    @Test
+    public void roundsNestedCoordinatesPerSrsName() throws Exception {
+        assertEquals("[[385000.12,6672000.5],[385010,6672010.01]]", coordinates(metric, CoordinatePrecision.DEFAULT.decimals(SRSName.EPSG3067).get()));
+        assertEquals("[[24.9384118,60.1698557],[24.9,60.1]]", coordinates(degrees, CoordinatePrecision.DEFAULT.decimals(SRSName.CRS84).get()));
+    }
+    
+    @Test
+    public void roundsNestedCoordinatesToRequestedPrecision() throws Exception {
+        assertEquals("[[385000,6672000],[385010,6672010]]", coordinates(metric, CoordinatePrecision.DEFAULT.decimals(SRSName.EPSG3067, Option.Some("0")).get()));
+        assertEquals("[[24.938,60.17],[24.9,60.1]]", coordinates(degrees, CoordinatePrecision.DEFAULT.decimals(SRSName.CRS84, Option.Some("3")).get()));
+    }
+    
+    @Test
+    public void nestedCoordinatesUnchangedWithoutAttribute() throws Exception {
+        assertEquals("[[385000.123456,6672000.499999],[385010,6672010.006]]", new ObjectMapper().readTree(new ObjectMapper().writeValueAsString(metric)).get("coordinates").toString());
+    }
+    
+    @Test(expected = InvalidValueException.class)
+    public void invalidPrecisionParameter() {
+        CoordinatePrecision.DEFAULT.decimals(SRSName.EPSG3067, Option.Some("foo"));
+    }
+}
@@ -0,0 +1,64 @@
+package fi.solita.utils.api.format.geojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class PackedCoordinatesTest {
+    
+    private static final ObjectMapper om = new ObjectMapper();
+    
+    private static String json(Object o) throws Exception {
+        return om.writeValueAsString(o);
+    }
+    
+    @Test
+    public void point() throws Exception {
+        assertEquals("[385000,6672000.5]", json(PackedCoordinates.position(385000, 6672000.5)));
+    }
+    
+    @Test
+    public void lineString() throws Exception {
+        assertEquals("[[1,2],[3,4],[5,6]]", json(PackedCoordinates.positions(2, new double[] {1,2, 3,4, 5,6})));
+    }
+    
+    @Test
+    public void polygonWithAHole() throws Exception {
+        PackedCoordinates polygon = PackedCoordinates.parts(3, new double[] {0,0,1, 4,0,1, 0,4,1, 0,0,1, 1,1,0, 2,1,0, 1,2,0, 1,1,0}, new int[] {4, 8});
+        assertEquals("[[[0,0,1],[4,0,1],[0,4,1],[0,0,1]],[[1,1,0],[2,1,0],[1,2,0],[1,1,0]]]", json(polygon));
+    }
+    
+    @Test
+    public void multiPolygon() throws Exception {
+        PackedCoordinates polygons = PackedCoordinates.polygons(2, new double[] {0,0, 1,0, 0,1, 0,0, 5,5, 6,5, 5,6, 5,5}, new int[] {1, 2}, new int[] {4, 8});
+        assertEquals("[[[[0,0],[1,0],[0,1],[0,0]]],[[[5,5],[6,5],[5,6],[5,5]]]]", json(polygons));
+    }
+    
+    @Test
+    public void asGeometryCoordinates() throws Exception {
+        assertTrue(json(new LineString(PackedCoordinates.positions(2, new double[] {1,2, 3,4}))).contains("\"coordinates\":[[1,2],[3,4]]"));
+    }
+    
+    @Test
+    public void iteratesOutermostParts() throws Exception {
+        PackedCoordinates polygons = PackedCoordinates.polygons(2, new double[] {0,0, 1,0, 0,1, 0,0, 5,5, 6,5, 5,6, 5,5}, new int[] {1, 2}, new int[] {4, 8});
+        Iterator<PackedCoordinates> it = polygons.iterator();
+        it.next();
+        assertEquals("[[[5,5],[6,5],[5,6],[5,5]]]", json(it.next()));
+        assertFalse(it.hasNext());
+    
+        assertTrue(PackedCoordinates.parts(2, new double[0], new int[0]).isEmpty());
+        assertFalse(new MultiLineString(PackedCoordinates.parts(2, new double[] {1,2, 3,4}, new int[] {2})).isEmpty());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPartEnds() {
+        PackedCoordinates.parts(2, new double[] {1,2, 3,4}, new int[] {3});
+    }
+}
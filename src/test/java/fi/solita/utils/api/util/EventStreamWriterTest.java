@@ -0,0 +1,68 @@
+package fi.solita.utils.api.util;
+
+import static fi.solita.utils.functional.Option.None;
+import static fi.solita.utils.functional.Option.Some;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class EventStreamWriterTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final EventStreamWriter events = new EventStreamWriter(out);
+
+    private String written() {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void singleLineEvent() throws IOException {
+        events.event(Some("42"), "message", "<tbody></tbody>");
+        assertEquals("id: 42\nevent: message\ndata: <tbody></tbody>\n\n", written());
+    }
+
+    @Test
+    public void eventWithoutId() throws IOException {
+        events.event(None(), "diff", "foo");
+        assertEquals("event: diff\ndata: foo\n\n", written());
+    }
+
+    @Test
+    public void everyLineIsSentAsDataField() throws IOException {
+        events.event(None(), "message", "a\nb\n\nc");
+        assertEquals("event: message\ndata: a\ndata: b\ndata: \ndata: c\n\n", written());
+    }
+
+    @Test
+    public void carriageReturnsEndLines() throws IOException {
+        events.event(None(), "message", "a\r\nb\rc\n\rd");
+        assertEquals("event: message\ndata: a\ndata: b\ndata: c\ndata: \ndata: d\n\n", written());
+    }
+
+    @Test
+    public void trailingLineBreakIsKept() throws IOException {
+        events.event(None(), "message", "a\r\n");
+        assertEquals("event: message\ndata: a\ndata: \n\n", written());
+    }
+
+    @Test
+    public void emptyData() throws IOException {
+        events.event(None(), "message", "");
+        assertEquals("event: message\ndata: \n\n", written());
+    }
+
+    @Test
+    public void commentCannotBreakLines() throws IOException {
+        events.comment("a\r\nb");
+        assertEquals(": a  b\n\n", written());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void idCannotContainLineBreaks() throws IOException {
+        events.event(Some("4\r2"), "message", "foo");
+    }
+}
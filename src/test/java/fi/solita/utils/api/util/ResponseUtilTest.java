@@ -0,0 +1,126 @@
+package fi.solita.utils.api.util;
+
+import static fi.solita.utils.functional.Collections.newMutableMap;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ResponseUtilTest {
+
+    private static final byte[] content = "streamed content".getBytes(StandardCharsets.UTF_8);
+
+    private static final StreamingOutput data = new StreamingOutput() {
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(content);
+        }
+    };
+
+    static class FakeResponse implements ResponseUtil.Response {
+        int status;
+        final Map<String,String> headers = newMutableMap();
+        final Map<String,Long> dateHeaders = newMutableMap();
+        boolean closed;
+        final ByteArrayOutputStream body = new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                closed = true;
+            }
+        };
+
+        @Override
+        public void setStatus(int sc) {
+            status = sc;
+        }
+        @Override
+        public void setHeader(String name, String value) {
+            headers.put(name, value);
+        }
+        @Override
+        public void addHeader(String name, String value) {
+            headers.put(name, headers.containsKey(name) ? headers.get(name) + ", " + value : value);
+        }
+        @Override
+        public void setDateHeader(String name, long date) {
+            dateHeaders.put(name, date);
+        }
+        @Override
+        public boolean containsHeader(String name) {
+            return headers.containsKey(name) || dateHeaders.containsKey(name);
+        }
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return body;
+        }
+        @Override
+        public String encodeRedirectURL(String url) {
+            return url;
+        }
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public void setContentType(String type) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Test
+    public void streamingResponseWritesContentAndClosesStream() {
+        FakeResponse response = new FakeResponse();
+        ResponseUtil.respond(response, data, 201);
+
+        assertEquals(201, response.status);
+        assertArrayEquals(content, response.body.toByteArray());
+        assertTrue(response.closed);
+    }
+
+    @Test
+    public void streamingResponseHasNoETagOrContentLength() {
+        FakeResponse response = new FakeResponse();
+        ResponseUtil.respondOK(response, data);
+
+        assertEquals(200, response.status);
+        assertFalse(response.containsHeader(Headers.ETAG));
+        assertFalse(response.containsHeader(Headers.CONTENT_LENGTH));
+        assertEquals("*", response.headers.get(Headers.ACCESS_CONTROL_ALLOW_ORIGIN));
+    }
+
+    @Test
+    public void streamingResponseIsNotCachedByDefault() {
+        FakeResponse response = new FakeResponse();
+        ResponseUtil.respondOK(response, data);
+
+        assertFalse(response.containsHeader(Headers.CACHE_CONTROL));
+        assertFalse(response.containsHeader(Headers.EXPIRES));
+    }
+
+    @Test
+    public void eternallyCachedStreamingResponse() {
+        FakeResponse response = new FakeResponse();
+        ResponseUtil.respondOKWithEternalCaching(response, data);
+
+        assertEquals(200, response.status);
+        assertArrayEquals(content, response.body.toByteArray());
+        assertTrue(response.closed);
+        assertEquals("public, max-age=" + ResponseUtil.ETERNAL_CACHE_DURATION.getStandardSeconds(), response.headers.get(Headers.CACHE_CONTROL));
+        assertTrue(response.containsHeader(Headers.EXPIRES));
+        assertFalse(response.containsHeader(Headers.ETAG));
+        assertFalse(response.containsHeader(Headers.CONTENT_LENGTH));
+    }
+}